@@ -0,0 +1,137 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs any DatabaseOperations on a background executor, returning CompletableFutures
+ * Calls run on a cached pool of daemon threads, so blocking JDBC calls never tie up
+ * the caller or the common ForkJoinPool, and the connection pool still limits how
+ * many run at once
+ * Demonstrates the Adapter pattern and Multithreading
+ */
+public class AsyncDatabaseAdapter<T> implements AsyncDatabaseOperations<T> {
+    
+    /**
+     * A blocking database call, as passed to submit
+     */
+    @FunctionalInterface
+    public interface DatabaseCall<R> {
+        R call() throws DatabaseException;
+    }
+    
+    private final DatabaseOperations<T> delegate;
+    private final ExecutorService executor;
+    
+    public AsyncDatabaseAdapter(DatabaseOperations<T> delegate) {
+        this(delegate, newDefaultExecutor());
+    }
+    
+    public AsyncDatabaseAdapter(DatabaseOperations<T> delegate, ExecutorService executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+    }
+    
+    /**
+     * Cached pool of daemon threads, named DatabaseThread-N
+     */
+    public static ExecutorService newDefaultExecutor() {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "DatabaseThread-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * The executor calls run on, for other blocking work of the same caller,
+     * such as file I/O, that should not occupy the common ForkJoinPool
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Run any blocking database call in the background, e.g. a NoteDAO query
+     * that is not part of DatabaseOperations
+     */
+    public <R> CompletableFuture<R> submit(DatabaseCall<R> call) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call.call();
+            } catch (DatabaseException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+    
+    @Override
+    public CompletableFuture<Void> save(T item) {
+        return submit(() -> { delegate.save(item); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<Void> update(T item) {
+        return submit(() -> { delegate.update(item); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<Void> delete(int id) {
+        return submit(() -> { delegate.delete(id); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<Void> saveAll(Collection<T> items) {
+        return submit(() -> { delegate.saveAll(items); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<Void> updateAll(Collection<T> items) {
+        return submit(() -> { delegate.updateAll(items); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<Void> deleteAll(int[] ids) {
+        return submit(() -> { delegate.deleteAll(ids); return null; });
+    }
+    
+    @Override
+    public CompletableFuture<T> getById(int id) {
+        return submit(() -> delegate.getById(id));
+    }
+    
+    @Override
+    public CompletableFuture<List<T>> getAll() {
+        return submit(delegate::getAll);
+    }
+    
+    @Override
+    public CompletableFuture<List<T>> getPage(long afterModified, int afterId, int limit) {
+        return submit(() -> delegate.getPage(afterModified, afterId, limit));
+    }
+    
+    /**
+     * The exception a failed future was completed with, unwrapped from CompletionException
+     */
+    public static Throwable unwrap(Throwable failure) {
+        return failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+    }
+    
+    /**
+     * Stop accepting work and wait briefly for calls already submitted
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
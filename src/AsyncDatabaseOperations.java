@@ -0,0 +1,59 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous counterpart of DatabaseOperations
+ * Every call returns at once; the JDBC work runs on a background executor and a failure
+ * completes the future exceptionally with the DatabaseException as its cause
+ * Demonstrates Interfaces, Generics and Multithreading with CompletableFuture
+ */
+public interface AsyncDatabaseOperations<T> {
+    /**
+     * Save an item in the background
+     * @param item The item to save; its ID is assigned before the future completes
+     */
+    CompletableFuture<Void> save(T item);
+    
+    /**
+     * Update an existing item in the background
+     */
+    CompletableFuture<Void> update(T item);
+    
+    /**
+     * Delete an item in the background
+     * @param id The ID of the item to delete
+     */
+    CompletableFuture<Void> delete(int id);
+    
+    /**
+     * Save many items in one background transaction
+     */
+    CompletableFuture<Void> saveAll(Collection<T> items);
+    
+    /**
+     * Update many items in one background transaction
+     */
+    CompletableFuture<Void> updateAll(Collection<T> items);
+    
+    /**
+     * Delete many items in one background transaction
+     */
+    CompletableFuture<Void> deleteAll(int[] ids);
+    
+    /**
+     * Get an item by ID in the background
+     */
+    CompletableFuture<T> getById(int id);
+    
+    /**
+     * Get all items in the background
+     */
+    CompletableFuture<List<T>> getAll();
+    
+    /**
+     * Get one keyset page in the background
+     * @see DatabaseOperations#getPage(long, int, int)
+     */
+    CompletableFuture<List<T>> getPage(long afterModified, int afterId, int limit);
+}
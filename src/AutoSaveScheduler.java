@@ -0,0 +1,120 @@
+import javax.swing.SwingUtilities;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-driven auto-save
+ * Every edit calls changed(); the save runs once the user has been idle for the idle delay,
+ * but never later than the max latency after the first unsaved edit, so continuous typing
+ * is still saved regularly. Nothing is scheduled while nothing changes.
+ * The save action runs on the Event Dispatch Thread, and each save reports how long
+ * the oldest edit it covers waited
+ * Demonstrates Multithreading with a ScheduledExecutorService and Synchronization
+ */
+public class AutoSaveScheduler {
+    // Time the save action took on the Event Dispatch Thread, and how long the oldest edit waited
+    private static final Metrics.Histogram SAVE_DURATION = Metrics.histogram("autosave.duration");
+    private static final Metrics.Histogram SAVE_LATENCY = Metrics.histogram("autosave.latency");
+
+    private final Runnable saveAction;
+    private final ScheduledThreadPoolExecutor executor;
+    private long idleDelayMs;
+    private long maxLatencyMs;
+
+    private ScheduledFuture<?> pending;
+    // Bumped on every edit so a timer that lost the race with a newer edit does nothing
+    private long generation;
+    private long firstChangeNanos;
+
+    private long saveCount;
+    private long maxObservedLatencyMs;
+
+    /**
+     * @param saveAction Runs on the Event Dispatch Thread
+     * @param idleDelayMs Save after this long without edits
+     * @param maxLatencyMs Save at the latest this long after the first unsaved edit
+     */
+    public AutoSaveScheduler(Runnable saveAction, long idleDelayMs, long maxLatencyMs) {
+        this.saveAction = saveAction;
+        setPolicy(idleDelayMs, maxLatencyMs);
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread thread = new Thread(r, "AutoSaveThread");
+            thread.setDaemon(true); // Thread will terminate when main application exits
+            return thread;
+        });
+        // Typing reschedules on every keystroke; drop cancelled timers instead of queueing them
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Change the idle delay and latency ceiling; applies from the next edit
+     */
+    public synchronized void setPolicy(long idleDelayMs, long maxLatencyMs) {
+        if (idleDelayMs <= 0 || maxLatencyMs < idleDelayMs) {
+            throw new IllegalArgumentException("Need 0 < idle delay <= max latency, got " +
+                    idleDelayMs + " and " + maxLatencyMs);
+        }
+        this.idleDelayMs = idleDelayMs;
+        this.maxLatencyMs = maxLatencyMs;
+    }
+
+    /**
+     * Record that the note was edited; cheap enough to call for every document event
+     */
+    public synchronized void changed() {
+        if (executor.isShutdown()) return;
+        long now = System.nanoTime();
+        if (pending == null) {
+            firstChangeNanos = now;
+        } else {
+            pending.cancel(false);
+        }
+        long idleDeadline = now + TimeUnit.MILLISECONDS.toNanos(idleDelayMs);
+        long latencyDeadline = firstChangeNanos + TimeUnit.MILLISECONDS.toNanos(maxLatencyMs);
+        long delay = Math.max(0, Math.min(idleDeadline, latencyDeadline) - now);
+        long scheduledGeneration = ++generation;
+        pending = executor.schedule(() -> fire(scheduledGeneration), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void fire(long scheduledGeneration) {
+        long firstChange;
+        synchronized (this) {
+            if (scheduledGeneration != generation) return; // a newer edit rescheduled
+            pending = null;
+            firstChange = firstChangeNanos;
+        }
+        SwingUtilities.invokeLater(() -> save(firstChange));
+    }
+
+    private void save(long firstChange) {
+        long start = System.nanoTime();
+        saveAction.run();
+        long end = System.nanoTime();
+        SAVE_DURATION.record(end - start);
+        SAVE_LATENCY.record(end - firstChange);
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(end - firstChange);
+        synchronized (this) {
+            saveCount++;
+            maxObservedLatencyMs = Math.max(maxObservedLatencyMs, latencyMs);
+        }
+        System.out.println(String.format("Auto-saved %d ms after the first unsaved edit (save took %.2f ms)",
+                latencyMs, (end - start) / 1e6));
+    }
+
+    /**
+     * Stop scheduling saves; an edit still waiting is left to the caller's final save
+     */
+    public synchronized void stop() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        executor.shutdownNow();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "auto-saves=" + saveCount + ", worst latency=" + maxObservedLatencyMs + " ms";
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measurement and reporting helpers shared by NoteDAOBenchmark and DrawingBenchmark
+ */
+final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * HotSpot's extension of ThreadMXBean reports bytes allocated per thread; null on other JVMs
+     */
+    static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspot = (com.sun.management.ThreadMXBean) bean;
+            if (hotspot.isThreadAllocatedMemorySupported()) {
+                hotspot.setThreadAllocatedMemoryEnabled(true);
+                return hotspot;
+            }
+        }
+        return null;
+    }
+
+    // Bytes allocated by the calling thread; getCurrentThreadAllocatedBytes() would need JDK 14
+    static long allocatedBytes(com.sun.management.ThreadMXBean threadBean) {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * A percentile as a JSON key suffix: 99 -> "99", 99.9 -> "99_9"
+     */
+    static String formatPercentile(double p) {
+        return p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p).replace('.', '_');
+    }
+
+    /**
+     * Write the results, one JSON object each, with the run's settings
+     * @param environment Extra numeric fields describing the machine, in order
+     */
+    static void writeJson(Path out, Map<String, ? extends Number> environment, long warmupMs, long measureMs,
+            List<String> results) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            writer.println("{");
+            writer.printf(Locale.ROOT, "  \"timestamp\": %d,%n", System.currentTimeMillis());
+            writer.printf("  \"javaVersion\": \"%s\",%n", System.getProperty("java.version"));
+            for (Map.Entry<String, ? extends Number> field : environment.entrySet()) {
+                writer.printf(Locale.ROOT, "  \"%s\": %s,%n", field.getKey(), field.getValue());
+            }
+            writer.printf("  \"warmupMs\": %d,%n  \"measureMs\": %d,%n", warmupMs, measureMs);
+            writer.println("  \"results\": [");
+            for (int i = 0; i < results.size(); i++) {
+                writer.println("    " + results.get(i) + (i + 1 < results.size() ? "," : ""));
+            }
+            writer.println("  ]");
+            writer.println("}");
+        }
+    }
+}
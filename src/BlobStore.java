@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed file store for large binary payloads such as drawing images
+ * Each payload is stored once, in a file named after the SHA-256 hash of its bytes,
+ * so identical images share one file and an unchanged image is never written again
+ * Reference counts live in the database; this class only manages the files
+ * Demonstrates File I/O with NIO channels and memory mapping
+ */
+public class BlobStore {
+    // Smaller files are read directly; mapping only pays off for larger payloads
+    private static final int MAP_THRESHOLD = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path root;
+
+    public BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * SHA-256 of the bytes as lower-case hex, used as the blob's key
+     */
+    public static String hash(byte[] data) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(data);
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[i * 2] = HEX[(digest[i] >> 4) & 0xF];
+                hex[i * 2 + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Store a payload under its hash unless a file for it already exists
+     * The file is written to a temporary name, forced to disk and then renamed,
+     * so a crash never leaves a partial blob under a valid hash
+     * @return true if a new file was written, false if the content was already stored
+     */
+    public boolean put(String hash, byte[] data) throws IOException {
+        Path target = pathFor(hash);
+        if (Files.exists(target)) {
+            return false;
+        }
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), hash, ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    /**
+     * Read a payload, memory-mapping the file when it is large
+     */
+    public byte[] get(String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(pathFor(hash), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Blob too large: " + hash);
+            }
+            byte[] data = new byte[(int) size];
+            if (size >= MAP_THRESHOLD) {
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, size).get(data);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading until the buffer is full
+                }
+            }
+            return data;
+        } catch (NoSuchFileException e) {
+            throw new IOException("Blob not found: " + hash, e);
+        }
+    }
+
+    /**
+     * Open a payload for reading in chunks, so it can be copied without holding it all in memory
+     */
+    public FileChannel open(String hash) throws IOException {
+        try {
+            return FileChannel.open(pathFor(hash), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new IOException("Blob not found: " + hash, e);
+        }
+    }
+
+    /**
+     * Remove a payload's file; callers must make sure nothing references it any more
+     */
+    public void delete(String hash) throws IOException {
+        Files.deleteIfExists(pathFor(hash));
+    }
+
+    public boolean contains(String hash) {
+        return Files.exists(pathFor(hash));
+    }
+
+    // Two-character shard directories keep any single directory small
+    private Path pathFor(String hash) {
+        if (hash.length() < 3) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+}
@@ -0,0 +1,534 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless import of a directory tree of .txt files into notesapp.db
+ * One thread walks the tree, a pool of readers loads and decodes files in parallel, and the
+ * main thread inserts the resulting TextNotes through NoteDAO.saveAll in large transactions.
+ * The stages are joined by bounded queues, so memory stays flat however many files there are.
+ * Each file becomes a note titled with its name (without .txt), dated with its mtime.
+ *
+ * Text is decoded by a small detection pipeline: a byte order mark wins, then UTF-16
+ * recognized by its zero bytes, then strict UTF-8, then the fallback charset.
+ *
+ * The import can be stopped and run again: every batch is recorded in the progress file
+ * before it is inserted and marked committed afterwards, and files of committed batches are
+ * skipped on the next run. A batch left unmarked by a crash counts as committed if the
+ * highest note ID grew past the one recorded with it, so nothing is imported twice.
+ * This assumes nothing else writes to the database during the import.
+ * The search index file catches up with the imported notes the next time the app starts.
+ *
+ * Usage: java -cp "../lib/*:." BulkImporter <directory> [--readers 8] [--batch 5000]
+ *        [--queue 10000] [--progress bulk-import.progress] [--fallback-charset windows-1252]
+ * Demonstrates NIO, Multithreading with a producer/consumer pipeline and batched JDBC writes
+ */
+public class BulkImporter {
+    private static final long REPORT_INTERVAL_MS = 5_000;
+    // Larger files are reported as failures rather than loaded into a note
+    private static final long MAX_FILE_BYTES = 64L * 1024 * 1024;
+
+    // Ends the path queue for one reader, and the note queue for the writer once per reader
+    private static final Path END_OF_PATHS = Paths.get("");
+    private static final Item END_OF_NOTES = new Item(null, null, 0);
+
+    private final NoteDAO noteDAO;
+    private final Path root;
+    private final int readerCount;
+    private final int batchSize;
+    private final Charset fallback;
+    private final BlockingQueue<Path> paths;
+    private final BlockingQueue<Item> notes;
+
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    private final AtomicLong imported = new AtomicLong();
+    private final Map<String, LongAdder> charsets = new ConcurrentSkipListMap<>();
+    private volatile boolean aborted;
+
+    /**
+     * A decoded file waiting to be inserted
+     */
+    private static final class Item {
+        final String relativePath;
+        final TextNote note;
+        final long bytes;
+
+        Item(String relativePath, TextNote note, long bytes) {
+            this.relativePath = relativePath;
+            this.note = note;
+            this.bytes = bytes;
+        }
+    }
+
+    private BulkImporter(NoteDAO noteDAO, Path root, int readerCount, int batchSize, int queueCapacity,
+            Charset fallback) {
+        this.noteDAO = noteDAO;
+        this.root = root;
+        this.readerCount = readerCount;
+        this.batchSize = batchSize;
+        this.fallback = fallback;
+        this.paths = new ArrayBlockingQueue<>(queueCapacity);
+        this.notes = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args[0].startsWith("--")) {
+            System.err.println("Usage: BulkImporter <directory> [--readers N] [--batch N] [--queue N] " +
+                    "[--progress FILE] [--fallback-charset NAME]");
+            System.exit(2);
+        }
+        Path root = Paths.get(args[0]).toAbsolutePath().normalize();
+        int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        int batch = 5_000, queue = 10_000;
+        Path progressFile = Paths.get("bulk-import.progress");
+        Charset fallback = Charset.forName("windows-1252");
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--readers": readers = Integer.parseInt(args[i + 1]); break;
+                case "--batch": batch = Integer.parseInt(args[i + 1]); break;
+                case "--queue": queue = Integer.parseInt(args[i + 1]); break;
+                case "--progress": progressFile = Paths.get(args[i + 1]); break;
+                case "--fallback-charset": fallback = Charset.forName(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (!Files.isDirectory(root)) {
+            System.err.println("Not a directory: " + root);
+            System.exit(2);
+        }
+
+        NoteDAO noteDAO;
+        try {
+            noteDAO = NoteDAO.getInstance();
+        } catch (DatabaseException e) {
+            System.err.println("Failed to initialize database: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        boolean ok;
+        try (Progress progress = Progress.open(progressFile, root, noteDAO)) {
+            ok = new BulkImporter(noteDAO, root, readers, batch, queue, fallback).run(progress);
+        } finally {
+            noteDAO.close();
+        }
+        System.exit(ok ? 0 : 1);
+    }
+
+    /**
+     * @return false if the import stopped on a database error; running it again resumes
+     */
+    private boolean run(Progress progress) throws InterruptedException {
+        System.out.println("Importing " + root + " with " + readerCount + " readers, " +
+                batchSize + " notes per transaction; " + progress.doneCount() + " files already imported");
+        long start = System.nanoTime();
+
+        Thread walker = new Thread(() -> walk(progress), "ImportWalkerThread");
+        walker.setDaemon(true);
+        walker.start();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < readerCount; i++) {
+            Thread reader = new Thread(this::read, "ImportReaderThread-" + i);
+            reader.setDaemon(true);
+            reader.start();
+            readers.add(reader);
+        }
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ImportReportThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(start, false), REPORT_INTERVAL_MS, REPORT_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+
+        try {
+            write(progress);
+        } finally {
+            reporter.shutdownNow();
+            if (aborted) {
+                walker.interrupt();
+                readers.forEach(Thread::interrupt);
+            }
+        }
+        report(start, true);
+        return !aborted;
+    }
+
+    /**
+     * Producer: queue every .txt file under the root that an earlier run did not import
+     */
+    private void walk(Progress progress) {
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (aborted) return FileVisitResult.TERMINATE;
+                    String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+                    if (!attrs.isRegularFile() || !name.endsWith(".txt")) return FileVisitResult.CONTINUE;
+                    if (progress.isDone(relativePath(file))) {
+                        skipped.increment();
+                        return FileVisitResult.CONTINUE;
+                    }
+                    try {
+                        paths.put(file);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return FileVisitResult.TERMINATE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    System.err.println("Cannot read " + file + ": " + e.getMessage());
+                    failed.increment();
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Directory walk failed: " + e.getMessage());
+        } finally {
+            try {
+                for (int i = 0; i < readerCount; i++) {
+                    paths.put(END_OF_PATHS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reader: load, decode and wrap files until the walker runs out
+     */
+    private void read() {
+        try {
+            while (true) {
+                Path file = paths.take();
+                if (file == END_OF_PATHS) break;
+                try {
+                    BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                    if (attrs.size() > MAX_FILE_BYTES) {
+                        throw new IOException("larger than " + MAX_FILE_BYTES + " bytes");
+                    }
+                    byte[] data = Files.readAllBytes(file);
+                    Date modified = new Date(attrs.lastModifiedTime().toMillis());
+                    TextNote note = new TextNote(0, titleOf(file), decode(data), modified, modified);
+                    bytesRead.add(data.length);
+                    notes.put(new Item(relativePath(file), note, data.length));
+                } catch (IOException e) {
+                    System.err.println("Cannot read " + file + ": " + e.getMessage());
+                    failed.increment();
+                }
+            }
+            notes.put(END_OF_NOTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Consumer: insert notes a batch per transaction until every reader is done
+     */
+    private void write(Progress progress) throws InterruptedException {
+        List<Item> batch = new ArrayList<>(batchSize);
+        int finishedReaders = 0;
+        while (finishedReaders < readerCount) {
+            Item item = notes.take();
+            if (item == END_OF_NOTES) {
+                finishedReaders++;
+                continue;
+            }
+            batch.add(item);
+            if (batch.size() >= batchSize && !commit(progress, batch)) return;
+        }
+        if (!batch.isEmpty()) commit(progress, batch);
+    }
+
+    private boolean commit(Progress progress, List<Item> batch) {
+        List<String> files = new ArrayList<>(batch.size());
+        List<Note> batchNotes = new ArrayList<>(batch.size());
+        for (Item item : batch) {
+            files.add(item.relativePath);
+            batchNotes.add(item.note);
+        }
+        try {
+            long batchNumber = progress.begin(noteDAO.getMaxId(), files);
+            noteDAO.saveAll(batchNotes);
+            progress.commit(batchNumber);
+        } catch (DatabaseException | IOException e) {
+            System.err.println("Import stopped, run it again to resume: " + e.getMessage());
+            aborted = true;
+            return false;
+        }
+        imported.addAndGet(batch.size());
+        batch.clear();
+        return true;
+    }
+
+    private void report(long start, boolean last) {
+        double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+        long done = imported.get();
+        System.out.println(String.format(Locale.ROOT,
+                "%s %,d notes in %.1f s: %,.0f files/s, %.1f MB/s read; %,d skipped, %,d failed; " +
+                        "queued %,d paths, %,d notes",
+                last ? "Imported" : "Progress:", done, seconds, done / seconds, bytesRead.sum() / seconds / 1e6,
+                skipped.sum(), failed.sum(), paths.size(), notes.size()));
+        if (last) {
+            System.out.println("Charsets: " + charsets);
+            Metrics.Histogram saves = Metrics.histogram("dao.saveAll");
+            System.out.println(String.format(Locale.ROOT, "Transactions: %d, p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                    saves.getCount(), saves.getPercentile(50) / 1e6, saves.getPercentile(99) / 1e6,
+                    saves.getMax() / 1e6));
+        }
+    }
+
+    private String relativePath(Path file) {
+        return root.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String titleOf(Path file) {
+        String name = file.getFileName().toString();
+        return name.substring(0, name.length() - ".txt".length());
+    }
+
+    /**
+     * Decode a file with the detection pipeline described above, counting what was detected
+     */
+    String decode(byte[] data) {
+        Charset charset = detectCharset(data, fallback);
+        int bom = bomLength(data);
+        charsets.computeIfAbsent(charset.name(), c -> new LongAdder()).increment();
+        return new String(data, bom, data.length - bom, charset);
+    }
+
+    static Charset detectCharset(byte[] data, Charset fallback) {
+        if (startsWith(data, 0xEF, 0xBB, 0xBF)) return StandardCharsets.UTF_8;
+        if (startsWith(data, 0xFF, 0xFE)) return StandardCharsets.UTF_16LE;
+        if (startsWith(data, 0xFE, 0xFF)) return StandardCharsets.UTF_16BE;
+        // Mostly-ASCII UTF-16 has a zero in every other byte, which no 8-bit text has;
+        // zero bytes are valid UTF-8, so this has to be checked first
+        int evenZeros = 0, oddZeros = 0;
+        int sample = Math.min(data.length, 4096) & ~1;
+        for (int i = 0; i < sample; i += 2) {
+            if (data[i] == 0) evenZeros++;
+            if (data[i + 1] == 0) oddZeros++;
+        }
+        if (sample > 0 && oddZeros > sample / 4 && evenZeros <= sample / 40) return StandardCharsets.UTF_16LE;
+        if (sample > 0 && evenZeros > sample / 4 && oddZeros <= sample / 40) return StandardCharsets.UTF_16BE;
+        if (isUtf8(data)) return StandardCharsets.UTF_8;
+        return fallback;
+    }
+
+    private static int bomLength(byte[] data) {
+        if (startsWith(data, 0xEF, 0xBB, 0xBF)) return 3;
+        if (startsWith(data, 0xFF, 0xFE) || startsWith(data, 0xFE, 0xFF)) return 2;
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean isUtf8(byte[] data) {
+        try {
+            StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(data));
+            return true;
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Append-only record of which files are in the database
+     *
+     * Layout, one record per line: "root <directory>", then for each batch "batch <n> <max note ID
+     * before it>", its files as "+ <relative path>" (backslash and newline escaped), and
+     * "commit <n>" once the transaction committed. The batch lines are forced to disk before
+     * the transaction starts
+     */
+    static final class Progress implements Closeable {
+        private final FileChannel channel;
+        // Hashes of the relative paths already imported, sorted for binary search
+        private final long[] done;
+        private long nextBatch;
+
+        private Progress(FileChannel channel, long[] done, long nextBatch) {
+            this.channel = channel;
+            this.done = done;
+            this.nextBatch = nextBatch;
+        }
+
+        static Progress open(Path file, Path root, NoteDAO noteDAO) throws IOException, DatabaseException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                byte[] bytes = Files.readAllBytes(file);
+                long[] done = new long[1024];
+                int doneCount = 0;
+                long[] pending = new long[1024];
+                int pendingCount = 0;
+                long batch = -1, maxIdBefore = 0, lastBatch = -1;
+                // Everything up to validLength is kept; a torn or unresolved tail is cut off
+                long validLength = 0;
+                int lineStart = 0;
+                for (int i = 0; i < bytes.length; i++) {
+                    if (bytes[i] != '\n') continue;
+                    String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8);
+                    lineStart = i + 1;
+                    if (line.startsWith("root ")) {
+                        if (!line.substring(5).equals(root.toString())) {
+                            throw new IOException(file + " records an import of " + line.substring(5) +
+                                    "; use another --progress file for " + root);
+                        }
+                        validLength = lineStart;
+                    } else if (line.startsWith("batch ")) {
+                        String[] parts = line.split(" ");
+                        batch = Long.parseLong(parts[1]);
+                        maxIdBefore = Long.parseLong(parts[2]);
+                        pendingCount = 0;
+                    } else if (line.startsWith("+ ")) {
+                        if (pendingCount == pending.length) pending = Arrays.copyOf(pending, pendingCount * 2);
+                        pending[pendingCount++] = hash(unescape(line.substring(2)));
+                    } else if (line.startsWith("commit ") && Long.parseLong(line.substring(7)) == batch) {
+                        if (doneCount + pendingCount > done.length) {
+                            done = Arrays.copyOf(done, Math.max(done.length * 2, doneCount + pendingCount));
+                        }
+                        System.arraycopy(pending, 0, done, doneCount, pendingCount);
+                        doneCount += pendingCount;
+                        pendingCount = 0;
+                        lastBatch = batch;
+                        batch = -1;
+                        validLength = lineStart;
+                    }
+                }
+
+                channel.truncate(validLength);
+                channel.position(validLength);
+                if (validLength == 0) {
+                    append(channel, "root " + root + "\n");
+                }
+                if (batch >= 0 && noteDAO.getMaxId() > maxIdBefore) {
+                    // The batch committed but its commit line never reached the disk. Its record
+                    // was forced before the transaction began, so all of its lines are complete
+                    ByteBuffer record = ByteBuffer.wrap(bytes, (int) validLength, lineStart - (int) validLength);
+                    while (record.hasRemaining()) {
+                        channel.write(record);
+                    }
+                    append(channel, "commit " + batch + "\n");
+                    if (doneCount + pendingCount > done.length) done = Arrays.copyOf(done, doneCount + pendingCount);
+                    System.arraycopy(pending, 0, done, doneCount, pendingCount);
+                    doneCount += pendingCount;
+                    lastBatch = batch;
+                }
+                long[] sorted = Arrays.copyOf(done, doneCount);
+                Arrays.sort(sorted);
+                return new Progress(channel, sorted, lastBatch + 1);
+            } catch (IOException | DatabaseException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        int doneCount() {
+            return done.length;
+        }
+
+        boolean isDone(String relativePath) {
+            return Arrays.binarySearch(done, hash(relativePath)) >= 0;
+        }
+
+        /**
+         * Record a batch about to be inserted, durably
+         * @return The batch number to pass to commit()
+         */
+        long begin(long maxIdBefore, List<String> files) throws IOException {
+            long batch = nextBatch++;
+            StringBuilder record = new StringBuilder(files.size() * 48);
+            record.append("batch ").append(batch).append(' ').append(maxIdBefore).append('\n');
+            for (String path : files) {
+                record.append("+ ").append(escape(path)).append('\n');
+            }
+            append(channel, record.toString());
+            return batch;
+        }
+
+        void commit(long batch) throws IOException {
+            append(channel, "commit " + batch + "\n");
+        }
+
+        private static void append(FileChannel channel, String text) throws IOException {
+            ByteBuffer buffer = StandardCharsets.UTF_8.encode(CharBuffer.wrap(text));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        private static String escape(String path) {
+            return path.replace("\\", "\\\\").replace("\n", "\\n");
+        }
+
+        private static String unescape(String line) {
+            StringBuilder path = new StringBuilder(line.length());
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '\\' && i + 1 < line.length()) {
+                    c = line.charAt(++i) == 'n' ? '\n' : line.charAt(i);
+                }
+                path.append(c);
+            }
+            return path.toString();
+        }
+
+        // 64-bit FNV-1a; two million paths collide with a probability around 1e-7
+        private static long hash(String path) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = 0; i < path.length(); i++) {
+                h ^= path.charAt(i);
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+}
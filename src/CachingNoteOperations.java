@@ -0,0 +1,502 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Bounded cache of Note objects in front of any DatabaseOperations<Note>
+ * Repeated getById calls return the same Note instance instead of re-reading the row,
+ * and writes go through to the wrapped store before the cache is updated
+ *
+ * Admission and eviction follow W-TinyLFU: new notes enter a small LRU window, and a note
+ * leaving the window only displaces a note in the main segmented LRU if a count-min sketch
+ * says it is used more often. A large image read once cannot flush out notes in daily use.
+ * The cache is bounded both by entry count and by estimated payload bytes.
+ * Demonstrates the Decorator pattern, Generics and Synchronization
+ */
+public class CachingNoteOperations implements DatabaseOperations<Note> {
+    // Rough cost of a cached note besides its payload: object headers, two Dates, map entry
+    private static final int ENTRY_OVERHEAD = 160;
+    private static final double WINDOW_SHARE = 0.01;
+    private static final double PROTECTED_SHARE = 0.80;
+
+    private enum Segment { WINDOW, PROBATION, PROTECTED }
+
+    private static class Entry {
+        final int id;
+        Note note;
+        long weight;
+        Segment segment;
+
+        Entry(int id, Note note, long weight) {
+            this.id = id;
+            this.note = note;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Snapshot of the cache's counters
+     */
+    public static class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+        private final long evictedWeight;
+        private final int entries;
+        private final long weight;
+
+        Stats(long hits, long misses, long evictions, long evictedWeight, int entries, long weight) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedWeight = evictedWeight;
+            this.entries = entries;
+            this.weight = weight;
+        }
+
+        public long getHits() { return hits; }
+        public long getMisses() { return misses; }
+        public long getEvictions() { return evictions; }
+        public long getEvictedWeight() { return evictedWeight; }
+        public int getEntries() { return entries; }
+        public long getWeight() { return weight; }
+
+        public double getHitRate() {
+            long requests = hits + misses;
+            return requests == 0 ? 0.0 : (double) hits / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("hits=%d misses=%d hitRate=%.1f%% evictions=%d (%d bytes) entries=%d weight=%d bytes",
+                    hits, misses, getHitRate() * 100, evictions, evictedWeight, entries, weight);
+        }
+    }
+
+    private final DatabaseOperations<Note> delegate;
+    private final int maxEntries;
+    private final long maxWeight;
+    private final long windowMaxWeight;
+    private final long protectedMaxWeight;
+    private final FrequencySketch sketch;
+
+    // Lookup by ID without disturbing recency; the segments below hold the order
+    private final HashMap<Integer, Entry> index = new HashMap<>();
+    // Access-ordered: iteration starts at the least recently used entry
+    private final LinkedHashMap<Integer, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Integer, Entry> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long windowWeight;
+    private long probationWeight;
+    private long protectedWeight;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long evictedWeight;
+
+    /**
+     * @param delegate Store the cache reads from and writes through to
+     * @param maxEntries Maximum number of cached notes
+     * @param maxWeight Maximum total estimated size of cached notes in bytes
+     */
+    public CachingNoteOperations(DatabaseOperations<Note> delegate, int maxEntries, long maxWeight) {
+        if (maxEntries < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("Cache bounds must be positive");
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.maxWeight = maxWeight;
+        this.windowMaxWeight = Math.max(1, (long) (maxWeight * WINDOW_SHARE));
+        this.protectedMaxWeight = (long) ((maxWeight - windowMaxWeight) * PROTECTED_SHARE);
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+
+    // --- Reads ---
+
+    /**
+     * Get a note, from the cache if present, otherwise from the wrapped store
+     */
+    @Override
+    public Note getById(int id) throws DatabaseException {
+        Note cached = getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+        Note note = delegate.getById(id);
+        synchronized (this) {
+            // Another thread may have loaded or written the note meanwhile; keep that instance
+            Entry raced = index.get(id);
+            if (raced != null) {
+                return raced.note;
+            }
+            insert(id, note);
+        }
+        return note;
+    }
+
+    /**
+     * Get a cached note without going to the store; counts as a read, for hits, misses
+     * and the admission sketch
+     * @return The cached note, or null
+     */
+    public synchronized Note getIfPresent(int id) {
+        sketch.increment(id);
+        Entry entry = index.get(id);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        onAccess(entry);
+        return entry.note;
+    }
+
+    /**
+     * Look at a cached note without any side effect: no hit or miss is counted, the sketch
+     * is not bumped and the note is not moved. For the UI checking which instance to reuse
+     * @return The cached note, or null
+     */
+    public synchronized Note peek(int id) {
+        Entry entry = index.get(id);
+        return entry != null ? entry.note : null;
+    }
+
+    /**
+     * Read through to the store; notes already cached are returned as the cached instance
+     */
+    @Override
+    public List<Note> getAll() throws DatabaseException {
+        return reuseCached(delegate.getAll());
+    }
+
+    /**
+     * Read through to the store; notes already cached are returned as the cached instance
+     * Pages are not admitted, so scrolling the list does not flush the cache
+     */
+    @Override
+    public List<Note> getPage(long afterModified, int afterId, int limit) throws DatabaseException {
+        return reuseCached(delegate.getPage(afterModified, afterId, limit));
+    }
+
+    private synchronized List<Note> reuseCached(List<Note> notes) {
+        List<Note> result = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            Entry entry = index.get(note.getId());
+            result.add(entry != null ? entry.note : note);
+        }
+        return result;
+    }
+
+    // --- Writes: store first, then cache ---
+
+    @Override
+    public void save(Note note) throws DatabaseException {
+        delegate.save(note);
+        put(note);
+    }
+
+    @Override
+    public void saveAll(Collection<Note> notes) throws DatabaseException {
+        delegate.saveAll(notes);
+        for (Note note : notes) {
+            put(note);
+        }
+    }
+
+    /**
+     * On failure the cached entry is kept, so the UI and later reads still share the one
+     * instance holding the unsaved edits; only its weight is brought up to date
+     */
+    @Override
+    public void update(Note note) throws DatabaseException {
+        try {
+            delegate.update(note);
+        } catch (DatabaseException e) {
+            reweigh(note);
+            throw e;
+        }
+        put(note);
+    }
+
+    @Override
+    public void updateAll(Collection<Note> notes) throws DatabaseException {
+        try {
+            delegate.updateAll(notes);
+        } catch (DatabaseException e) {
+            for (Note note : notes) {
+                reweigh(note);
+            }
+            throw e;
+        }
+        for (Note note : notes) {
+            put(note);
+        }
+    }
+
+    @Override
+    public void delete(int id) throws DatabaseException {
+        try {
+            delegate.delete(id);
+        } finally {
+            invalidate(id);
+        }
+    }
+
+    @Override
+    public void deleteAll(int[] ids) throws DatabaseException {
+        try {
+            delegate.deleteAll(ids);
+        } finally {
+            for (int id : ids) {
+                invalidate(id);
+            }
+        }
+    }
+
+    /**
+     * Cache a note that was just written, re-weighing it if it was cached already
+     */
+    private synchronized void put(Note note) {
+        int id = note.getId();
+        if (id <= 0) return;
+        Entry entry = index.get(id);
+        if (entry == null) {
+            sketch.increment(id);
+            insert(id, note);
+            return;
+        }
+        long weight = weigh(note);
+        adjustWeight(entry.segment, weight - entry.weight);
+        entry.note = note;
+        entry.weight = weight;
+        onAccess(entry);
+        evictOverflow();
+    }
+
+    /**
+     * Update the weight of a cached instance whose payload changed, without counting an access
+     */
+    private synchronized void reweigh(Note note) {
+        Entry entry = index.get(note.getId());
+        if (entry == null || entry.note != note) return;
+        long weight = weigh(note);
+        adjustWeight(entry.segment, weight - entry.weight);
+        entry.weight = weight;
+        evictOverflow();
+    }
+
+    /**
+     * Drop one note from the cache
+     */
+    public synchronized void invalidate(int id) {
+        Entry entry = index.remove(id);
+        if (entry != null) {
+            segmentMap(entry.segment).remove(id);
+            adjustWeight(entry.segment, -entry.weight);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        index.clear();
+        window.clear();
+        probation.clear();
+        protectedSegment.clear();
+        windowWeight = probationWeight = protectedWeight = 0;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(hits, misses, evictions, evictedWeight, size(), totalWeight());
+    }
+
+    // --- W-TinyLFU policy; all callers hold the lock ---
+
+    private void insert(int id, Note note) {
+        long weight = weigh(note);
+        if (weight > maxWeight) return; // would evict everything else
+        Entry entry = new Entry(id, note, weight);
+        add(entry, Segment.WINDOW);
+        evictOverflow();
+    }
+
+    private void onAccess(Entry entry) {
+        if (entry.segment == Segment.PROBATION) {
+            // Second hit while on probation: promote, demoting protected LRU entries if needed
+            probation.remove(entry.id);
+            probationWeight -= entry.weight;
+            add(entry, Segment.PROTECTED);
+            while (protectedWeight > protectedMaxWeight && protectedSegment.size() > 1) {
+                Entry demoted = removeEldest(protectedSegment);
+                protectedWeight -= demoted.weight;
+                add(demoted, Segment.PROBATION);
+            }
+        } else {
+            segmentMap(entry.segment).get(entry.id); // get() on an access-ordered map makes it most recent
+        }
+    }
+
+    private void evictOverflow() {
+        // Notes leaving the window compete with the main segment's eviction victim
+        while (windowWeight > windowMaxWeight && window.size() > 1) {
+            Entry candidate = removeEldest(window);
+            windowWeight -= candidate.weight;
+            add(candidate, Segment.PROBATION);
+            admitOrReject(candidate);
+        }
+        // Anything still over the bounds goes in LRU order, probation first
+        while (totalWeight() > maxWeight || size() > maxEntries) {
+            LinkedHashMap<Integer, Entry> from = !probation.isEmpty() ? probation
+                    : !protectedSegment.isEmpty() ? protectedSegment : window;
+            if (from.isEmpty()) break;
+            evict(from.values().iterator().next());
+        }
+    }
+
+    private void admitOrReject(Entry candidate) {
+        while (totalWeight() > maxWeight || size() > maxEntries) {
+            Entry victim = eldestOtherThan(probation, candidate);
+            if (victim == null) victim = eldestOtherThan(protectedSegment, candidate);
+            if (victim == null) return; // nothing else to evict; evictOverflow handles the rest
+            if (sketch.frequency(candidate.id) > sketch.frequency(victim.id)) {
+                evict(victim);
+            } else {
+                evict(candidate);
+                return;
+            }
+        }
+    }
+
+    private static Entry eldestOtherThan(LinkedHashMap<Integer, Entry> segment, Entry excluded) {
+        for (Entry entry : segment.values()) {
+            if (entry != excluded) return entry;
+        }
+        return null;
+    }
+
+    private void evict(Entry entry) {
+        index.remove(entry.id);
+        segmentMap(entry.segment).remove(entry.id);
+        adjustWeight(entry.segment, -entry.weight);
+        evictions++;
+        evictedWeight += entry.weight;
+    }
+
+    private void add(Entry entry, Segment segment) {
+        entry.segment = segment;
+        index.put(entry.id, entry);
+        segmentMap(segment).put(entry.id, entry);
+        adjustWeight(segment, entry.weight);
+    }
+
+    private static Entry removeEldest(LinkedHashMap<Integer, Entry> segment) {
+        Iterator<Entry> it = segment.values().iterator();
+        Entry eldest = it.next();
+        it.remove();
+        return eldest;
+    }
+
+    private LinkedHashMap<Integer, Entry> segmentMap(Segment segment) {
+        switch (segment) {
+            case WINDOW: return window;
+            case PROBATION: return probation;
+            default: return protectedSegment;
+        }
+    }
+
+    private void adjustWeight(Segment segment, long delta) {
+        switch (segment) {
+            case WINDOW: windowWeight += delta; break;
+            case PROBATION: probationWeight += delta; break;
+            default: protectedWeight += delta; break;
+        }
+    }
+
+    private int size() {
+        return window.size() + probation.size() + protectedSegment.size();
+    }
+
+    private long totalWeight() {
+        return windowWeight + probationWeight + protectedWeight;
+    }
+
+    /**
+     * Estimated heap size of a note; payloads that are not loaded cost nothing
+     */
+    static long weigh(Note note) {
+        long weight = ENTRY_OVERHEAD;
+        if (note.getTitle() != null) {
+            weight += 2L * note.getTitle().length();
+        }
+        if (note.isContentLoaded()) {
+            if (note instanceof DrawingNote) {
+                byte[] imageData = ((DrawingNote) note).getImageData();
+                weight += imageData != null ? imageData.length : 0;
+            } else if (note.getContent() != null) {
+                weight += 2L * note.getContent().length();
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Count-min sketch of recent access frequency with 4-bit counters
+     * Counters are halved every 10 x width increments, so old popularity fades
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x97cb3127, 0xb3a1f6e5, 0x5d2f8e3b, 0xc2b2ae35};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int expectedEntries) {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries - 1) << 1);
+            counters = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(int key) {
+            boolean added = false;
+            for (int row = 0; row < DEPTH; row++) {
+                int index = index(key, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int key) {
+            int min = MAX_COUNT;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, counters[row][index(key, row)]);
+            }
+            return min;
+        }
+
+        private int index(int key, int row) {
+            int h = key * SEEDS[row];
+            h ^= h >>> 16;
+            return h & mask;
+        }
+
+        private void reset() {
+            for (byte[] row : counters) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+    }
+}
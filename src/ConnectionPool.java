@@ -0,0 +1,253 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQLite connection pool with one dedicated writer and a bounded set of readers
+ * The database is opened in WAL mode, so readers work from their own snapshot
+ * and never wait behind an open write transaction
+ * Each connection keeps its prepared statements open for reuse
+ * Reads are tagged with a generation, so a writer can tell when every snapshot
+ * older than one of its commits is gone (see nextGeneration)
+ * Demonstrates Synchronization with explicit locks and a blocking queue
+ */
+public class ConnectionPool {
+    private static final long READER_TIMEOUT_MS = 30_000;
+    private static final int BUSY_TIMEOUT_MS = 5_000;
+    
+    /**
+     * Unit of JDBC work executed against a pooled connection
+     */
+    @FunctionalInterface
+    public interface SqlWork<R> {
+        R execute(Connection connection) throws SQLException;
+    }
+    
+    private final Connection writer;
+    private final ReentrantLock writeLock = new ReentrantLock(true);
+    private final BlockingQueue<Connection> idleReaders;
+    private final List<Connection> allReaders = new ArrayList<>();
+    // Per-connection statement caches; a connection is only used by one thread at a time
+    private final Map<Connection, Map<String, PreparedStatement>> statementCache = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private final AtomicLong generation = new AtomicLong();
+    // Generation each busy reader was borrowed in
+    private final Map<Connection, Long> readGenerations = new ConcurrentHashMap<>();
+    
+    /**
+     * Open the writer connection (switching the database to WAL) and the reader connections
+     * @param dbUrl JDBC URL of the SQLite database file
+     * @param readerCount Number of read-only connections to keep open
+     */
+    public ConnectionPool(String dbUrl, int readerCount) throws SQLException {
+        if (readerCount < 1) {
+            throw new IllegalArgumentException("readerCount must be at least 1");
+        }
+        writer = DriverManager.getConnection(dbUrl);
+        try (Statement stmt = writer.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA synchronous = NORMAL");
+            stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+        }
+        
+        idleReaders = new ArrayBlockingQueue<>(readerCount);
+        try {
+            for (int i = 0; i < readerCount; i++) {
+                Connection reader = DriverManager.getConnection(dbUrl);
+                try (Statement stmt = reader.createStatement()) {
+                    stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT_MS);
+                    stmt.execute("PRAGMA query_only = ON");
+                }
+                allReaders.add(reader);
+                idleReaders.add(reader);
+            }
+        } catch (SQLException e) {
+            closeQuietly();
+            throw e;
+        }
+    }
+    
+    /**
+     * Default reader count: one per core, kept within a small bound
+     */
+    public static int defaultReaderCount() {
+        return Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+    
+    /**
+     * Run read-only work on a borrowed reader connection
+     * Blocks only if every reader is busy, never because of the writer
+     */
+    public <R> R read(SqlWork<R> work) throws SQLException {
+        Connection reader = borrowReader();
+        readGenerations.put(reader, generation.get());
+        try {
+            return work.execute(reader);
+        } finally {
+            readGenerations.remove(reader);
+            idleReaders.offer(reader);
+        }
+    }
+    
+    /**
+     * Start a new read generation, after a commit whose old data readers must stop seeing
+     * A read's snapshot starts with its first statement, after it was tagged, so reads of
+     * the returned generation or later see that commit
+     * @return The generation reads borrowed from now on belong to
+     */
+    public long nextGeneration() {
+        return generation.incrementAndGet();
+    }
+    
+    /**
+     * Whether every read still running belongs to the given generation or a later one
+     */
+    public boolean readersReached(long generation) {
+        for (long started : readGenerations.values()) {
+            if (started < generation) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Run work on the single writer connection in autocommit mode
+     */
+    public <R> R write(SqlWork<R> work) throws SQLException {
+        lockWriter();
+        try {
+            return work.execute(writer);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Run work on the writer connection inside one explicit transaction
+     * Commits on success and rolls back if the work throws
+     */
+    public <R> R inTransaction(SqlWork<R> work) throws SQLException {
+        lockWriter();
+        try {
+            writer.setAutoCommit(false);
+            try {
+                R result = work.execute(writer);
+                writer.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    writer.rollback();
+                } catch (SQLException rollbackError) {
+                    e.addSuppressed(rollbackError);
+                }
+                throw e;
+            } finally {
+                writer.setAutoCommit(true);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    /**
+     * Get the cached prepared statement for this SQL on a pooled connection
+     * The statement stays open for reuse: close its ResultSets, never the statement itself
+     * @param connection A connection handed to the current SqlWork
+     * @param sql Fixed SQL text; bind values with parameters, never concatenation
+     */
+    public PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+        Map<String, PreparedStatement> statements =
+                statementCache.computeIfAbsent(connection, c -> new HashMap<>());
+        PreparedStatement pstmt = statements.get(sql);
+        if (pstmt == null || pstmt.isClosed()) {
+            pstmt = connection.prepareStatement(sql);
+            statements.put(sql, pstmt);
+        }
+        return pstmt;
+    }
+    
+    private Connection borrowReader() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            Connection reader = idleReaders.poll(READER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            if (reader == null) {
+                throw new SQLException("Timed out waiting for a reader connection");
+            }
+            return reader;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a reader connection", e);
+        }
+    }
+    
+    private void lockWriter() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        try {
+            writeLock.lockInterruptibly();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for the writer connection", e);
+        }
+    }
+    
+    /**
+     * Close the writer and all reader connections
+     * Waits for an in-flight write to finish first
+     */
+    public void close() throws SQLException {
+        if (closed) return;
+        writeLock.lock();
+        try {
+            closed = true;
+            SQLException failure = closeQuietly();
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+    
+    private SQLException closeQuietly() {
+        SQLException failure = null;
+        List<Connection> connections = new ArrayList<>(allReaders);
+        connections.add(writer);
+        for (Map<String, PreparedStatement> statements : statementCache.values()) {
+            for (PreparedStatement pstmt : statements.values()) {
+                try {
+                    pstmt.close();
+                } catch (SQLException e) {
+                    if (failure == null) failure = e;
+                    else failure.addSuppressed(e);
+                }
+            }
+        }
+        statementCache.clear();
+        for (Connection connection : connections) {
+            try {
+                if (connection != null && !connection.isClosed()) {
+                    connection.close();
+                }
+            } catch (SQLException e) {
+                if (failure == null) failure = e;
+                else failure.addSuppressed(e);
+            }
+        }
+        return failure;
+    }
+}
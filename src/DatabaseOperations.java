@@ -1,3 +1,4 @@
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -26,6 +27,28 @@ public interface DatabaseOperations<T> {
      */
     void delete(int id) throws DatabaseException;
     
+    /**
+     * Save several notes in one transaction
+     * Generated IDs are assigned back onto the saved items
+     * @param items The items to save
+     * @throws DatabaseException if any save fails; no item is saved in that case
+     */
+    void saveAll(Collection<T> items) throws DatabaseException;
+    
+    /**
+     * Update several existing notes in one transaction
+     * @param items The items to update
+     * @throws DatabaseException if any update fails; no item is updated in that case
+     */
+    void updateAll(Collection<T> items) throws DatabaseException;
+    
+    /**
+     * Delete several notes in one transaction
+     * @param ids The IDs of the items to delete
+     * @throws DatabaseException if any delete fails; no item is deleted in that case
+     */
+    void deleteAll(int[] ids) throws DatabaseException;
+    
     /**
      * Retrieve a note by its ID
      * @param id The ID of the item to retrieve
@@ -40,4 +63,16 @@ public interface DatabaseOperations<T> {
      * @throws DatabaseException if retrieval operation fails
      */
     List<T> getAll() throws DatabaseException;
+    
+    /**
+     * Retrieve one page of notes, newest first, using a keyset cursor
+     * Pass Long.MAX_VALUE and Integer.MAX_VALUE to fetch the first page, then the
+     * modified time and ID of the last item of each page to fetch the next one
+     * @param afterModified Modified time (epoch millis) of the last item already seen
+     * @param afterId ID of the last item already seen
+     * @param limit Maximum number of items to return
+     * @return Items strictly after the cursor; fewer than limit means the end was reached
+     * @throws DatabaseException if retrieval operation fails
+     */
+    List<T> getPage(long afterModified, int afterId, int limit) throws DatabaseException;
 }
@@ -0,0 +1,396 @@
+import javax.imageio.ImageIO;
+import javax.swing.JComponent;
+import javax.swing.JPanel;
+import javax.swing.RepaintManager;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.event.InputEvent;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseListener;
+import java.awt.event.MouseMotionListener;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark harness for the drawing engine, run headless
+ * Drives the real DrawingPanel from NotesApp (the one in NotesAppWithDB is an inner class
+ * of the frame and cannot exist without a display) on canvases from 800x600 up to 8K:
+ * - fill: flood fills of an empty canvas, the largest region of a canvas cut up by random
+ *   lines (long, jagged borders), and a small closed shape
+ * - stroke: synthetic mouse strokes at 125 Hz and about 1000 px/s, fed to the panel's listeners,
+ *   alone and followed by painting the region the panel asked to repaint, as one frame
+ * - resize: window-drag sequences growing the panel from half to full size; the canvas only
+ *   ever grows, so each sequence starts over on a new blank half-size canvas
+ * - codec: encoding and decoding the canvas cut up by random lines with DrawingCodec, as the
+ *   stroke log checkpoints it, against ImageIO's PNG writer and reader, with the encoded size
+ * Reports ops/s, latency percentiles and bytes allocated per operation as JSON. The codec
+ * works on the common fork-join pool, whose allocations are not counted.
+ *
+ * Usage: java -Xmx4g -cp "../lib/*:." DrawingBenchmark [--sizes 800x600,1920x1080,3840x2160,7680x4320]
+ *        [--warmup-ms 1000] [--measure-ms 3000] [--out drawing-benchmark-results.json]
+ * Demonstrates the Reflection API and the management (JMX) API
+ */
+public class DrawingBenchmark {
+    // Mouse events arrive about every 8 ms; at 1000 px/s that is 8 px between samples
+    private static final int MOUSE_HZ = 125;
+    private static final int STROKE_SPEED_PX_PER_S = 1000;
+    private static final int EVENTS_PER_STROKE = 250;
+    private static final int RESIZE_STEP_PX = 16;
+    private static final int RANDOM_LINES = 60;
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    private final long warmupMs;
+    private final long measureMs;
+    private final List<String> results = new ArrayList<>();
+
+    private final Constructor<?> panelConstructor;
+    private final Method floodFill;
+    private final Field panelCanvas;
+    private final DirtyRegionRecorder repaints = new DirtyRegionRecorder();
+
+    /**
+     * One timed operation
+     */
+    private interface Operation {
+        void run() throws Exception;
+    }
+
+    private DrawingBenchmark(long warmupMs, long measureMs) throws ReflectiveOperationException {
+        this.warmupMs = warmupMs;
+        this.measureMs = measureMs;
+        Class<?> panelClass = Class.forName("NotesApp$DrawingPanel");
+        panelConstructor = panelClass.getDeclaredConstructor();
+        panelConstructor.setAccessible(true);
+        floodFill = panelClass.getDeclaredMethod("floodFill", int.class, int.class, Color.class);
+        floodFill.setAccessible(true);
+        panelCanvas = panelClass.getDeclaredField("canvas");
+        panelCanvas.setAccessible(true);
+        RepaintManager.setCurrentManager(repaints);
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String[] sizes = {"800x600", "1920x1080", "3840x2160", "7680x4320"};
+        long warmupMs = 1000, measureMs = 3000;
+        Path out = Paths.get("drawing-benchmark-results.json");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes": sizes = args[i + 1].split(","); break;
+                case "--warmup-ms": warmupMs = Long.parseLong(args[i + 1]); break;
+                case "--measure-ms": measureMs = Long.parseLong(args[i + 1]); break;
+                case "--out": out = Paths.get(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        DrawingBenchmark benchmark = new DrawingBenchmark(warmupMs, measureMs);
+        for (String size : sizes) {
+            String[] parts = size.split("x");
+            benchmark.runSize(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+        }
+        BenchmarkSupport.writeJson(out, Collections.singletonMap("maxHeapBytes", Runtime.getRuntime().maxMemory()),
+                benchmark.warmupMs, benchmark.measureMs, benchmark.results);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    private void runSize(int width, int height) throws Exception {
+        String size = width + "x" + height;
+
+        // Fill: alternate two colors so every fill repaints the same region
+        JPanel emptyPanel = newPanel(width, height);
+        run(size, "fill-empty", alternatingFill(emptyPanel, width / 2, height / 2));
+
+        JPanel linesPanel = newPanel(width, height);
+        TiledCanvas linesCanvas = canvasOf(linesPanel);
+        linesCanvas.paint(new Rectangle(0, 0, width, height), g -> drawRandomLines(g, width, height, new Random(42)));
+        int[] seed = largestRegionSeed(linesCanvas.toImage());
+        run(size, "fill-lines", alternatingFill(linesPanel, seed[0], seed[1]));
+
+        JPanel shapePanel = newPanel(width, height);
+        canvasOf(shapePanel).paint(new Rectangle(0, 0, width, height), g -> {
+            g.setColor(Color.BLACK);
+            g.setStroke(new BasicStroke(3));
+            g.drawOval(width / 2 - 100, height / 2 - 100, 200, 200);
+        });
+        run(size, "fill-small-shape", alternatingFill(shapePanel, width / 2, height / 2));
+
+        // Stroke: one mouse event per operation, in strokes of EVENTS_PER_STROKE events
+        JPanel strokePanel = newPanel(width, height);
+        run(size, "stroke-event", strokeStream(strokePanel, width, height));
+
+        // Frame: a mouse event plus painting what it dirtied into an offscreen frame
+        JPanel framePanel = newPanel(width, height);
+        run(size, "stroke-frame", strokeFrames(framePanel, width, height));
+
+        // Resize: one step of a window drag from half to full size per operation
+        run(size, "resize-step", resizeSequence(width, height));
+
+        // Codec: the canvas with random lines, mostly ink-free tiles with a few long edges
+        byte[] encoded = DrawingCodec.encode(linesCanvas);
+        run(size, "codec-encode", () -> DrawingCodec.encode(linesCanvas), encoded.length);
+        run(size, "codec-decode", () -> DrawingCodec.decode(encoded), encoded.length);
+        BufferedImage linesImage = linesCanvas.toImage();
+        byte[] png = toPng(linesImage);
+        run(size, "png-encode", () -> toPng(linesImage), png.length);
+        run(size, "png-decode", () -> ImageIO.read(new ByteArrayInputStream(png)), png.length);
+    }
+
+    private static byte[] toPng(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    private JPanel newPanel(int width, int height) throws ReflectiveOperationException {
+        JPanel panel = (JPanel) panelConstructor.newInstance();
+        panel.setSize(width, height);
+        canvasOf(panel); // allocate the canvas outside the measurement
+        return panel;
+    }
+
+    private static TiledCanvas canvasOf(JPanel panel) throws ReflectiveOperationException {
+        return (TiledCanvas) panel.getClass().getMethod("getCanvas").invoke(panel);
+    }
+
+    private static void drawRandomLines(Graphics2D g, int w, int h, Random random) {
+        g.setColor(Color.BLACK);
+        g.setStroke(new BasicStroke(2));
+        for (int i = 0; i < RANDOM_LINES; i++) {
+            g.drawLine(random.nextInt(w), random.nextInt(h), random.nextInt(w), random.nextInt(h));
+        }
+    }
+
+    /**
+     * Start point for filling the largest white region, found with a throwaway labelling pass
+     */
+    private static int[] largestRegionSeed(BufferedImage canvas) {
+        int w = canvas.getWidth(), h = canvas.getHeight();
+        int[] pixels = canvas.getRGB(0, 0, w, h, null, 0, w);
+        int white = Color.WHITE.getRGB();
+        boolean[] seen = new boolean[pixels.length];
+        int[] queue = new int[pixels.length];
+        int best = 0, bestSize = -1;
+        for (int start = 0; start < pixels.length; start++) {
+            if (seen[start] || pixels[start] != white) continue;
+            int head = 0, tail = 0;
+            queue[tail++] = start;
+            seen[start] = true;
+            while (head < tail) {
+                int p = queue[head++];
+                int x = p % w, y = p / w;
+                if (x > 0 && !seen[p - 1] && pixels[p - 1] == white) { seen[p - 1] = true; queue[tail++] = p - 1; }
+                if (x < w - 1 && !seen[p + 1] && pixels[p + 1] == white) { seen[p + 1] = true; queue[tail++] = p + 1; }
+                if (y > 0 && !seen[p - w] && pixels[p - w] == white) { seen[p - w] = true; queue[tail++] = p - w; }
+                if (y < h - 1 && !seen[p + w] && pixels[p + w] == white) { seen[p + w] = true; queue[tail++] = p + w; }
+            }
+            if (tail > bestSize) {
+                bestSize = tail;
+                best = start;
+            }
+        }
+        return new int[] {best % w, best / w};
+    }
+
+    private Operation alternatingFill(JPanel panel, int x, int y) {
+        Color[] colors = {new Color(0x3366CC), Color.WHITE};
+        int[] next = {0};
+        return () -> {
+            try {
+                floodFill.invoke(panel, x, y, colors[next[0]++ & 1]);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                throw (Exception) e.getCause();
+            }
+        };
+    }
+
+    /**
+     * Press, drags along a wandering path and release, replayed through the panel's own listeners
+     */
+    private static Operation strokeStream(JPanel panel, int width, int height) {
+        MouseListener mouse = panel.getMouseListeners()[0];
+        MouseMotionListener motion = panel.getMouseMotionListeners()[0];
+        Random random = new Random(7);
+        double step = (double) STROKE_SPEED_PX_PER_S / MOUSE_HZ;
+        double[] state = new double[4]; // x, y, heading, event index within the stroke
+        long[] when = {System.currentTimeMillis()};
+        return () -> {
+            int index = (int) state[3];
+            when[0] += 1000 / MOUSE_HZ;
+            if (index == 0) {
+                state[0] = random.nextInt(width);
+                state[1] = random.nextInt(height);
+                state[2] = random.nextDouble() * 2 * Math.PI;
+                mouse.mousePressed(event(panel, MouseEvent.MOUSE_PRESSED, when[0], state));
+            } else if (index == EVENTS_PER_STROKE - 1) {
+                mouse.mouseReleased(event(panel, MouseEvent.MOUSE_RELEASED, when[0], state));
+            } else {
+                state[2] += (random.nextDouble() - 0.5) * 0.5;
+                state[0] = Math.floorMod((int) (state[0] + Math.cos(state[2]) * step), width);
+                state[1] = Math.floorMod((int) (state[1] + Math.sin(state[2]) * step), height);
+                motion.mouseDragged(event(panel, MouseEvent.MOUSE_DRAGGED, when[0], state));
+            }
+            state[3] = (index + 1) % EVENTS_PER_STROKE;
+        };
+    }
+
+    private Operation strokeFrames(JPanel panel, int width, int height) {
+        Operation stroke = strokeStream(panel, width, height);
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        repaints.take();
+        return () -> {
+            stroke.run();
+            Rectangle dirty = repaints.take();
+            if (dirty.isEmpty()) return;
+            Graphics2D g = frame.createGraphics();
+            g.setClip(dirty);
+            panel.paint(g);
+            g.dispose();
+        };
+    }
+
+    private static MouseEvent event(JPanel panel, int id, long when, double[] state) {
+        return new MouseEvent(panel, id, when, InputEvent.BUTTON1_DOWN_MASK,
+                (int) state[0], (int) state[1], 1, false, MouseEvent.BUTTON1);
+    }
+
+    /**
+     * Each operation is one step of the drag; shrinking would leave the grow-only canvas
+     * alone, so the first step of every sequence drops the grown canvas and the panel makes
+     * a new blank one at half size (no tiles allocated), and the rest each grow() it
+     */
+    private Operation resizeSequence(int width, int height) throws ReflectiveOperationException {
+        List<int[]> steps = new ArrayList<>();
+        int minWidth = width / 2, minHeight = height / 2;
+        int count = Math.max(1, Math.max(width - minWidth, height - minHeight) / RESIZE_STEP_PX);
+        for (int i = 0; i <= count; i++) {
+            steps.add(new int[] {minWidth + (width - minWidth) * i / count, minHeight + (height - minHeight) * i / count});
+        }
+        JPanel panel = newPanel(minWidth, minHeight);
+        int[] next = {0};
+        return () -> {
+            int step = next[0]++ % steps.size();
+            if (step == 0) panelCanvas.set(panel, null);
+            int[] size = steps.get(step);
+            panel.setSize(size[0], size[1]);
+            canvasOf(panel);
+        };
+    }
+
+    private void run(String size, String name, Operation operation) {
+        run(size, name, operation, -1);
+    }
+
+    /**
+     * @param outputBytes Size of what the operation produces or reads, reported when not negative
+     */
+    private void run(String size, String name, Operation operation, long outputBytes) {
+        String error = null;
+        long[] latencies = new long[0];
+        long allocated = -1;
+        long elapsed = 1;
+        try {
+            measure(operation, warmupMs, null);
+            long[] allocatedOut = new long[1];
+            long start = System.nanoTime();
+            latencies = measure(operation, measureMs, allocatedOut);
+            elapsed = System.nanoTime() - start;
+            allocated = allocatedOut[0];
+        } catch (OutOfMemoryError e) {
+            // The canvas-sized work queues can exhaust the heap at 8K; report it instead of aborting the run
+            error = "OutOfMemoryError";
+        } catch (Exception e) {
+            error = e.toString();
+        }
+
+        Arrays.sort(latencies);
+        int ops = latencies.length;
+        double opsPerSecond = ops / (elapsed / 1e9);
+        long allocPerOp = ops > 0 && allocated >= 0 ? allocated / ops : -1;
+
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT,
+                "{\"canvas\": \"%s\", \"benchmark\": \"%s\", \"ops\": %d, \"opsPerSecond\": %.2f, " +
+                "\"allocatedBytesPerOp\": %d, ", size, name, ops, opsPerSecond, allocPerOp));
+        if (outputBytes >= 0) {
+            json.append("\"outputBytes\": ").append(outputBytes).append(", ");
+        }
+        if (error != null) {
+            json.append("\"error\": \"").append(error.replace("\\", "\\\\").replace("\"", "\\\"")).append("\", ");
+        }
+        json.append("\"latencyNs\": {");
+        for (double p : PERCENTILES) {
+            json.append(String.format(Locale.ROOT, "\"p%s\": %d, ",
+                    BenchmarkSupport.formatPercentile(p), BenchmarkSupport.percentile(latencies, p)));
+        }
+        json.append("\"max\": ").append(ops > 0 ? latencies[ops - 1] : 0).append("}}");
+        results.add(json.toString());
+
+        System.out.printf(Locale.ROOT, "%-10s %-17s %,12.1f ops/s  p50 %,12.1f us  p99 %,12.1f us  %,12d B/op%s%n",
+                size, name, opsPerSecond,
+                BenchmarkSupport.percentile(latencies, 50) / 1e3, BenchmarkSupport.percentile(latencies, 99) / 1e3,
+                allocPerOp, error != null ? "  " + error : "");
+    }
+
+    /**
+     * Run the operation repeatedly for durationMs on this thread
+     * @param allocatedOut Receives the bytes this thread allocated, or null to skip
+     * @return The latency of each operation in nanoseconds
+     */
+    private static long[] measure(Operation operation, long durationMs, long[] allocatedOut) throws Exception {
+        com.sun.management.ThreadMXBean threadBean = BenchmarkSupport.allocationBean();
+        long[] latencies = new long[1024];
+        int count = 0;
+        long deadline = System.nanoTime() + durationMs * 1_000_000L;
+        long allocatedBefore = threadBean != null ? BenchmarkSupport.allocatedBytes(threadBean) : -1;
+        do {
+            long begin = System.nanoTime();
+            operation.run();
+            long latency = System.nanoTime() - begin;
+            if (count == latencies.length) latencies = Arrays.copyOf(latencies, count * 2);
+            latencies[count++] = latency;
+        } while (System.nanoTime() < deadline);
+        if (allocatedOut != null) {
+            allocatedOut[0] = threadBean != null ? BenchmarkSupport.allocatedBytes(threadBean) - allocatedBefore : -1;
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * Collects the regions the panels ask to have repainted, so a frame can paint just those
+     */
+    private static final class DirtyRegionRecorder extends RepaintManager {
+        private final Rectangle dirty = new Rectangle();
+
+        @Override
+        public void addDirtyRegion(JComponent c, int x, int y, int w, int h) {
+            if (dirty.isEmpty()) {
+                dirty.setBounds(x, y, w, h);
+            } else {
+                dirty.add(new Rectangle(x, y, w, h));
+            }
+        }
+
+        Rectangle take() {
+            Rectangle taken = new Rectangle(dirty);
+            dirty.setBounds(0, 0, 0, 0);
+            return taken;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raster format for drawing canvases, used for the checkpoints of a StrokeLog
+ * Each tile of a TiledCanvas is run-length encoded, as runs of one color and stretches of
+ * literal pixels, and the runs are deflated at the fastest level. Blank tiles take one byte.
+ * Tiles are independent, so they are encoded and decoded in parallel. A mostly white
+ * drawing shrinks to little more than its ink, several times faster than ImageIO's PNG writer
+ *
+ * Layout: "NDRW", version byte, varint width, height, tile size, then per tile in row-major
+ * order varint deflated length (0 for a blank tile), varint run bytes and the deflated runs.
+ * Runs: varint (count << 1 | 1) and a 4-byte color, or varint (count << 1) and count 4-byte pixels
+ */
+public final class DrawingCodec {
+    private static final byte[] MAGIC = {'N', 'D', 'R', 'W'};
+    private static final int VERSION = 1;
+    // Shorter repeats are cheaper as literals than as a run
+    private static final int MIN_RUN = 3;
+
+    private DrawingCodec() {
+    }
+
+    /**
+     * Whether the data starts like an encoded canvas
+     */
+    public static boolean isEncoded(byte[] data) {
+        return data != null && data.length > MAGIC.length
+                && Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC);
+    }
+
+    /**
+     * Encode the canvas; pass a snapshot() to encode off the Event Dispatch Thread
+     */
+    public static byte[] encode(TiledCanvas canvas) {
+        int rows = canvas.getRows(), columns = canvas.getColumns();
+        byte[][] tiles = IntStream.range(0, rows * columns).parallel()
+                .mapToObj(i -> encodeTile(canvas.tilePixels(i / columns, i % columns)))
+                .toArray(byte[][]::new);
+
+        StrokeLog.Bytes out = new StrokeLog.Bytes(64 + Arrays.stream(tiles).mapToInt(t -> t.length).sum());
+        out.write(MAGIC, 0, MAGIC.length);
+        out.writeByte(VERSION);
+        out.writeVarint(canvas.getWidth());
+        out.writeVarint(canvas.getHeight());
+        out.writeVarint(TiledCanvas.TILE_SIZE);
+        for (byte[] tile : tiles) {
+            out.write(tile, 0, tile.length);
+        }
+        return out.toArray();
+    }
+
+    public static TiledCanvas decode(byte[] data) throws IOException {
+        if (!isEncoded(data)) {
+            throw new IOException("Not an encoded drawing");
+        }
+        StrokeLog.Reader in = new StrokeLog.Reader(data, MAGIC.length);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported drawing codec version " + version);
+        }
+        int width = in.readVarint(), height = in.readVarint(), tileSize = in.readVarint();
+        if (width <= 0 || height <= 0 || tileSize != TiledCanvas.TILE_SIZE) {
+            throw new IOException("Invalid drawing header " + width + "x" + height + ", tile size " + tileSize);
+        }
+        TiledCanvas canvas = new TiledCanvas(width, height);
+        int rows = canvas.getRows(), columns = canvas.getColumns();
+
+        // Find the tiles and allocate them here; the parallel pass only fills in pixels
+        int[] offsets = new int[rows * columns];
+        int[] lengths = new int[rows * columns];
+        int[] runLengths = new int[rows * columns];
+        int[][] targets = new int[rows * columns][];
+        for (int i = 0; i < offsets.length; i++) {
+            lengths[i] = in.readVarint();
+            if (lengths[i] == 0) continue;
+            runLengths[i] = in.readVarint();
+            offsets[i] = in.position();
+            in.readBytes(lengths[i]); // skip, checking the data is all there
+            targets[i] = canvas.writableTilePixels(i / columns, i % columns);
+        }
+        try {
+            IntStream.range(0, targets.length).parallel()
+                    .filter(i -> targets[i] != null)
+                    .forEach(i -> decodeTile(data, offsets[i], lengths[i], runLengths[i], targets[i]));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return canvas;
+    }
+
+    private static byte[] encodeTile(int[] pixels) {
+        if (pixels == null || isBlank(pixels)) {
+            return new byte[] {0};
+        }
+        StrokeLog.Bytes runs = new StrokeLog.Bytes(4096);
+        int i = 0, n = pixels.length;
+        while (i < n) {
+            int color = pixels[i];
+            int end = i + 1;
+            while (end < n && pixels[end] == color) end++;
+            if (end - i >= MIN_RUN) {
+                runs.writeVarint((end - i) << 1 | 1);
+                runs.writeInt(color);
+                i = end;
+                continue;
+            }
+            // Literal pixels up to where the next run starts
+            int start = i;
+            while (i < n && !(i + MIN_RUN <= n && pixels[i] == pixels[i + 1] && pixels[i] == pixels[i + 2])) i++;
+            runs.writeVarint((i - start) << 1);
+            for (int k = start; k < i; k++) runs.writeInt(pixels[k]);
+        }
+
+        byte[] raw = runs.toArray();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[Math.max(64, raw.length / 2)];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            StrokeLog.Bytes tile = new StrokeLog.Bytes(length + 10);
+            tile.writeVarint(length);
+            tile.writeVarint(raw.length);
+            tile.write(buffer, 0, length);
+            return tile.toArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isBlank(int[] pixels) {
+        for (int pixel : pixels) {
+            if (pixel != 0xFFFFFFFF) return false;
+        }
+        return true;
+    }
+
+    private static void decodeTile(byte[] data, int offset, int length, int runLength, int[] pixels) {
+        try {
+            byte[] raw = new byte[runLength];
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data, offset, length);
+                int read = 0;
+                while (read < runLength && !inflater.finished()) {
+                    int n = inflater.inflate(raw, read, runLength - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    read += n;
+                }
+                if (read != runLength) throw new IOException("Truncated drawing tile");
+            } finally {
+                inflater.end();
+            }
+
+            StrokeLog.Reader runs = new StrokeLog.Reader(raw, 0);
+            int i = 0;
+            while (runs.position() < runLength) {
+                int header = runs.readVarint();
+                int count = header >>> 1;
+                if (count > pixels.length - i) throw new IOException("Corrupt drawing tile");
+                if ((header & 1) != 0) {
+                    Arrays.fill(pixels, i, i + count, runs.readInt());
+                } else {
+                    for (int k = 0; k < count; k++) pixels[i + k] = runs.readInt();
+                }
+                i += count;
+            }
+            if (i != pixels.length) throw new IOException("Corrupt drawing tile");
+        } catch (IOException | DataFormatException e) {
+            throw new UncheckedIOException(e instanceof IOException ? (IOException) e : new IOException(e));
+        }
+    }
+}
@@ -1,3 +1,4 @@
+import java.util.Arrays;
 import java.util.Date;
 
 /**
@@ -5,7 +6,7 @@ import java.util.Date;
  * Demonstrates Inheritance from abstract Note class
  */
 public class DrawingNote extends Note {
-    private byte[] imageData;
+    protected byte[] imageData;
     
     public DrawingNote() {
         super();
@@ -32,8 +33,9 @@ public class DrawingNote extends Note {
     }
     
     public void setImageData(byte[] imageData) {
+        if (imageData == this.imageData || Arrays.equals(imageData, this.imageData)) return;
         this.imageData = imageData;
-        this.modifiedDate = new Date();
+        markDirty();
     }
     
     @Override
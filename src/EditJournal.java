@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only journal of note edits made since they were last saved
+ * Every keystroke, title change and content replacement is appended with a log sequence
+ * number (LSN) and made durable by a background thread that fsyncs whatever accumulated
+ * since its last fsync (group commit), so typing never waits on the disk or on SQLite.
+ *
+ * A note remembers the LSN of its last journaled change, and NoteDAO stores it in the
+ * notes.journal_lsn column in the same transaction that writes the note. On startup,
+ * records newer than that column are replayed into the database before the UI opens.
+ *
+ * The journal only has to hold the un-checkpointed tail: once every note with records in
+ * the file has been stored with its latest LSN (or deleted), and the file has grown past
+ * CHECKPOINT_SIZE, the flusher truncates it back to a header, so a long session does not
+ * keep every CONTENT copy of a note's text around until the next start.
+ *
+ * Layout: a 16-byte header (magic, version, first LSN), then records of
+ * [int payload length][int CRC32 of payload][payload]. A torn record at the tail,
+ * left by a crash mid-write, fails its length or CRC check and ends the replay.
+ * Demonstrates Multithreading, Synchronization and NIO FileChannel I/O
+ */
+public class EditJournal implements NoteChangeListener {
+    private static final int MAGIC = 0x4E4A524E; // "NJRN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private static final long CHECKPOINT_SIZE = 1024 * 1024;
+
+    private static final byte EDIT = 1;
+    private static final byte TITLE = 2;
+    private static final byte CONTENT = 3;
+
+    private final FileChannel channel;
+    private final Thread flusher;
+    private final CRC32 crc = new CRC32();
+
+    // Records appended but not yet handed to the flusher; swapped with writeBuffer per batch
+    private ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(64 * 1024);
+    private long nextLsn;
+    private long durableLsn;
+    // Notes whose records the database may not have yet, with the LSN of their last record
+    private final Map<Integer, Long> unstored = new HashMap<>();
+    // Bytes in the file, written by the flusher
+    private long fileSize = HEADER_SIZE;
+    private boolean closed;
+    private IOException failure;
+
+    private EditJournal(FileChannel channel, long firstLsn) {
+        this.channel = channel;
+        this.nextLsn = firstLsn;
+        this.durableLsn = firstLsn - 1;
+        this.flusher = new Thread(this::runFlusher, "JournalThread");
+        flusher.setDaemon(true);
+    }
+
+    /**
+     * Open the journal, first replaying any edits the database does not have yet
+     * Replayed notes are written through dao.update; the journal then starts over empty
+     */
+    public static EditJournal open(Path file, NoteDAO dao) throws IOException, DatabaseException {
+        long lastLsn = replay(file, dao);
+        long firstLsn = Math.max(lastLsn, dao.getMaxJournalLsn()) + 1;
+
+        // Start a fresh file; LSNs keep counting up so stored checkpoints stay comparable
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(firstLsn).flip();
+            while (header.hasRemaining()) {
+                out.write(header);
+            }
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // Not APPEND: a checkpoint rewrites the header and truncates
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        EditJournal journal = new EditJournal(channel, firstLsn);
+        journal.flusher.start();
+        return journal;
+    }
+
+    /**
+     * Apply a typed edit to the note and journal it, atomically with respect to NoteDAO's
+     * snapshot of the note, so a stored journal_lsn always matches the stored text
+     */
+    public void applyEdit(TextNote note, TextEdit edit) {
+        synchronized (note) {
+            note.applyEdit(edit);
+            if (note.getId() > 0 && !edit.isNoOp()) {
+                byte[] inserted = edit.getInserted().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = newRecord(EDIT, note.getId(), 12 + inserted.length);
+                record.putInt(edit.getPosition()).putInt(edit.getRemoved());
+                record.putInt(inserted.length).put(inserted);
+                note.setJournalLsn(append(record));
+            }
+        }
+    }
+
+    /**
+     * Change the note's title and journal it
+     */
+    public void setTitle(Note note, String title) {
+        synchronized (note) {
+            if (Objects.equals(title, note.getTitle())) return;
+            note.setTitle(title);
+            if (note.getId() > 0) {
+                journalTitle(note);
+            }
+        }
+    }
+
+    /**
+     * Replace the note's text and journal it in full
+     */
+    public void setContent(TextNote note, String content) {
+        synchronized (note) {
+            if (content.equals(note.getContent())) return;
+            note.setContent(content);
+            if (note.getId() > 0) {
+                journalContent(note);
+            }
+        }
+    }
+
+    private void journalTitle(Note note) {
+        journalString(note, TITLE, note.getTitle() != null ? note.getTitle() : "");
+    }
+
+    private void journalContent(TextNote note) {
+        journalString(note, CONTENT, note.getContent());
+    }
+
+    private void journalString(Note note, byte type, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = newRecord(type, note.getId(), 4 + bytes.length);
+        record.putInt(bytes.length).put(bytes);
+        note.setJournalLsn(append(record));
+    }
+
+    /**
+     * A new note got its ID; edits made while it was being inserted were not journaled,
+     * so journal its whole current state to give later edits a base to replay onto
+     */
+    @Override
+    public void noteSaved(Note note) {
+        synchronized (note) {
+            if (!note.isDirty()) return;
+            journalTitle(note);
+            if (note instanceof TextNote && note.isContentLoaded()) {
+                journalContent((TextNote) note);
+            }
+        }
+    }
+
+    /**
+     * The update stored the note's journal_lsn; if nothing changed since, the database has
+     * every record of the note and they no longer hold back a checkpoint
+     */
+    @Override
+    public void noteUpdated(Note note) {
+        synchronized (note) {
+            if (note.isDirty()) return; // a later change is journaled but not stored yet
+            stored(note.getId(), note.getJournalLsn());
+        }
+    }
+
+    /**
+     * Records for a deleted note are skipped on replay, so they never hold back a checkpoint
+     */
+    @Override
+    public void noteDeleted(int id) {
+        stored(id, Long.MAX_VALUE);
+    }
+
+    private synchronized void stored(int noteId, long storedLsn) {
+        Long last = unstored.get(noteId);
+        if (last == null || last > storedLsn) return;
+        unstored.remove(noteId);
+        if (isCheckpointDue()) notifyAll();
+    }
+
+    /**
+     * Whether the file only holds records the database already has, and enough of them
+     * to be worth dropping; the caller holds the lock
+     */
+    private boolean isCheckpointDue() {
+        return unstored.isEmpty() && pending.position() == 0 && fileSize >= CHECKPOINT_SIZE;
+    }
+
+    private static ByteBuffer newRecord(byte type, int noteId, int bodySize) {
+        ByteBuffer record = ByteBuffer.allocate(8 + 1 + 4 + bodySize);
+        record.putLong(0); // LSN, filled in by append
+        record.put(type).putInt(noteId);
+        return record;
+    }
+
+    private synchronized long append(ByteBuffer record) {
+        long lsn = nextLsn++;
+        if (closed || failure != null) return lsn; // journaling stopped; the database still saves
+        record.putLong(0, lsn).flip();
+        crc.reset();
+        crc.update(record.duplicate());
+        int size = 8 + record.remaining();
+        if (pending.remaining() < size) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        unstored.put(record.getInt(9), lsn);
+        pending.putInt(record.remaining()).putInt((int) crc.getValue()).put(record);
+        notifyAll();
+        return lsn;
+    }
+
+    /**
+     * Group commit: write and fsync everything appended since the last fsync
+     * Records that arrive during an fsync go out together in the next one.
+     * With nothing to write, truncates the file when a checkpoint is due
+     */
+    private void runFlusher() {
+        while (true) {
+            long batchLsn;
+            boolean checkpoint;
+            synchronized (this) {
+                while (pending.position() == 0 && !closed && !isCheckpointDue()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                checkpoint = pending.position() == 0;
+                if (checkpoint && closed) return; // closed and drained
+                if (checkpoint) {
+                    batchLsn = nextLsn; // first LSN the truncated file can hold
+                } else {
+                    ByteBuffer batch = pending;
+                    pending = writeBuffer;
+                    writeBuffer = batch;
+                    batchLsn = nextLsn - 1;
+                }
+            }
+            long written = 0;
+            try {
+                if (checkpoint) {
+                    truncate(batchLsn);
+                } else {
+                    writeBuffer.flip();
+                    written = writeBuffer.remaining();
+                    while (writeBuffer.hasRemaining()) {
+                        channel.write(writeBuffer);
+                    }
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                System.err.println("Edit journal disabled after write failure: " + e.getMessage());
+                return;
+            } finally {
+                writeBuffer.clear();
+            }
+            synchronized (this) {
+                if (checkpoint) {
+                    fileSize = HEADER_SIZE;
+                } else {
+                    fileSize += written;
+                    durableLsn = batchLsn;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Drop every record; only called when the database has all of them. A crash part way
+     * leaves either the old records, which replay skips, or an empty file
+     */
+    private void truncate(long firstLsn) throws IOException {
+        channel.truncate(HEADER_SIZE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(firstLsn).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.position(HEADER_SIZE);
+        channel.force(false);
+        System.out.println("Edit journal checkpointed; records before LSN " + firstLsn + " dropped");
+    }
+
+    /**
+     * Wait until every record appended so far is on disk
+     */
+    public synchronized void sync() throws IOException {
+        long target = nextLsn - 1;
+        while (durableLsn < target && failure == null && flusher.isAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    /**
+     * Flush outstanding records and close the file
+     * The records stay until the next start, which skips those already in the database
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            flusher.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        synchronized (this) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Replay records the database is missing
+     * The file is read onto the heap rather than mapped: open() replaces it right after,
+     * and a file that is still mapped cannot be replaced on every platform
+     * @return The last valid LSN in the file, or 0 if it is missing or empty
+     */
+    private static long replay(Path file, NoteDAO dao) throws IOException, DatabaseException {
+        if (!Files.exists(file)) return 0;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) return 0;
+            if (size > Integer.MAX_VALUE) throw new IOException("Edit journal too large: " + size + " bytes");
+            buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // keep reading until the whole file is in
+            }
+            buffer.flip();
+        }
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            System.err.println("Ignoring edit journal with unknown format: " + file);
+            return 0;
+        }
+        long lastLsn = buffer.getLong() - 1;
+
+        // Group by note, keeping file order, which is LSN order
+        Map<Integer, List<ByteBuffer>> byNote = new LinkedHashMap<>();
+        CRC32 check = new CRC32();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length < 13 || length > MAX_RECORD_SIZE || length > buffer.remaining()) break;
+            ByteBuffer payload = buffer.slice();
+            payload.limit(length);
+            check.reset();
+            check.update(payload.duplicate());
+            if ((int) check.getValue() != expectedCrc) break; // torn write at the tail
+            buffer.position(buffer.position() + length);
+            lastLsn = payload.getLong(0);
+            byNote.computeIfAbsent(payload.getInt(9), id -> new ArrayList<>()).add(payload);
+        }
+
+        int replayed = 0;
+        for (Map.Entry<Integer, List<ByteBuffer>> entry : byNote.entrySet()) {
+            if (replayNote(dao, entry.getKey(), entry.getValue())) {
+                replayed++;
+            }
+        }
+        if (replayed > 0) {
+            System.out.println("Recovered unsaved edits for " + replayed + " note(s) from the edit journal");
+        }
+        return lastLsn;
+    }
+
+    private static boolean replayNote(NoteDAO dao, int noteId, List<ByteBuffer> records) throws DatabaseException {
+        long lastRecordLsn = records.get(records.size() - 1).getLong(0);
+        Long storedLsn = dao.getJournalLsn(noteId);
+        if (storedLsn == null || storedLsn >= lastRecordLsn) return false; // deleted, or already saved
+
+        Note note = dao.getById(noteId);
+        String title = note.getTitle();
+        StringBuilder text = new StringBuilder(note instanceof TextNote ? note.getContent() : "");
+        long appliedLsn = storedLsn;
+        try {
+            for (ByteBuffer record : records) {
+                long lsn = record.getLong(0);
+                if (lsn <= storedLsn) continue;
+                record.position(13);
+                byte type = record.get(8);
+                if (type == EDIT) {
+                    int position = record.getInt();
+                    int removed = record.getInt();
+                    new TextEdit(position, removed, getString(record)).applyTo(text);
+                } else if (type == TITLE) {
+                    title = getString(record);
+                } else if (type == CONTENT) {
+                    text.setLength(0);
+                    text.append(getString(record));
+                }
+                appliedLsn = lsn;
+            }
+        } catch (RuntimeException e) {
+            // An edit that does not fit means the base is not what was journaled; keep what is stored
+            System.err.println("Skipping journal replay for note " + noteId + ": " + e.getMessage());
+            return false;
+        }
+
+        note.setTitle(title);
+        if (note instanceof TextNote) {
+            note.setContent(text.toString());
+        }
+        note.setJournalLsn(appliedLsn);
+        dao.update(note);
+        return true;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,228 @@
+import javax.swing.SwingUtilities;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Watchdog for Event Dispatch Thread stalls
+ * A background thread posts an empty probe to the EDT every probe interval and times how long
+ * it takes to run. A probe still waiting after the threshold means the EDT is stuck in some
+ * event handler; from then until the probe runs, the EDT's stack is sampled every millisecond.
+ *
+ * Each stall is appended to the stall log with its duration and the application frames
+ * (classes starting with the given prefix) the samples found innermost, by time spent, so
+ * the log names the handler that blocked. The samples of all stalls are also kept in
+ * collapsed-stack form, one "frame;frame;frame microseconds" line per distinct stack,
+ * ready for flamegraph.pl or speedscope.
+ * Probe latencies and stalls are recorded in Metrics as ui.edtResponse and ui.edtStall
+ * Demonstrates Multithreading and the Thread stack trace API
+ */
+public class EdtWatchdog {
+    private static final Metrics.Histogram RESPONSE_LATENCY = Metrics.histogram("ui.edtResponse");
+    private static final Metrics.Histogram STALL_DURATION = Metrics.histogram("ui.edtStall");
+    private static final LongAdder STALLS = Metrics.counter("ui.edtStalls");
+
+    private static final long PROBE_INTERVAL_MS = 100;
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // Application frames listed per stall in the log
+    private static final int TOP_FRAMES = 5;
+
+    private final Path stallLog;
+    private final Path collapsedStacks;
+    private final long thresholdNanos;
+    private final String appClassPrefix;
+
+    // Sampled time in microseconds per collapsed stack, over all stalls; watchdog thread only
+    private final Map<String, Long> collapsed = new HashMap<>();
+    private volatile Thread edt;
+    private volatile boolean running;
+    private Thread thread;
+
+    /**
+     * @param stallLog Text log a summary of each stall is appended to
+     * @param collapsedStacks Collapsed-stack file, rewritten after each stall
+     * @param thresholdMs EDT response time that counts as a stall
+     * @param appClassPrefix Frames of classes starting with this are blamed for stalls
+     */
+    public EdtWatchdog(Path stallLog, Path collapsedStacks, long thresholdMs, String appClassPrefix) {
+        if (thresholdMs <= 0) {
+            throw new IllegalArgumentException("Stall threshold must be positive: " + thresholdMs);
+        }
+        this.stallLog = stallLog;
+        this.collapsedStacks = collapsedStacks;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+        this.appClassPrefix = appClassPrefix;
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread = new Thread(this::run, "EdtWatchdogThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stop probing; a stall being sampled is dropped
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            CountDownLatch answered = new CountDownLatch(1);
+            long[] answeredAt = new long[1];
+            long posted = System.nanoTime();
+            SwingUtilities.invokeLater(() -> {
+                edt = Thread.currentThread();
+                answeredAt[0] = System.nanoTime();
+                answered.countDown();
+            });
+            try {
+                if (!answered.await(thresholdNanos, TimeUnit.NANOSECONDS)) {
+                    Stall stall = sampleUntil(answered);
+                    if (answered.getCount() > 0) return; // stopped mid-stall
+                    stalled(answeredAt[0] - posted, stall);
+                }
+                RESPONSE_LATENCY.record(answeredAt[0] - posted);
+                Thread.sleep(PROBE_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sample the EDT's stack until the probe runs
+     * Each sample is weighted by the time since the one before
+     */
+    private Stall sampleUntil(CountDownLatch answered) {
+        Stall stall = new Stall();
+        Thread target = edt != null ? edt : findEdt();
+        long last = System.nanoTime();
+        while (running && answered.getCount() > 0) {
+            StackTraceElement[] stack = target != null ? target.getStackTrace() : new StackTraceElement[0];
+            long now = System.nanoTime();
+            long micros = TimeUnit.NANOSECONDS.toMicros(now - last);
+            last = now;
+            stall.sampledMicros += micros;
+            stall.stacks.merge(collapse(stack), micros, Long::sum);
+            // The innermost application frame is the code path that holds up the EDT
+            for (StackTraceElement frame : stack) {
+                if (frame.getClassName().startsWith(appClassPrefix)) {
+                    String name = frame.getClassName() + "." + frame.getMethodName() +
+                            "(" + frame.getFileName() + ":" + frame.getLineNumber() + ")";
+                    stall.appFrames.merge(name, micros, Long::sum);
+                    break;
+                }
+            }
+            LockSupport.parkNanos(SAMPLE_INTERVAL_NANOS);
+        }
+        return stall;
+    }
+
+    // Before the first probe has run the EDT is only known by name
+    private static Thread findEdt() {
+        for (Thread candidate : Thread.getAllStackTraces().keySet()) {
+            if (candidate.getName().startsWith("AWT-EventQueue")) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * Frames root first, as "Class.method", separated by semicolons
+     */
+    private static String collapse(StackTraceElement[] stack) {
+        if (stack.length == 0) return "[unknown]";
+        StringBuilder line = new StringBuilder(stack.length * 48);
+        for (int i = stack.length - 1; i >= 0; i--) {
+            String className = stack[i].getClassName();
+            // Lambda classes carry an address that changes every run; drop it so runs aggregate
+            int address = className.indexOf("/0x");
+            line.append(address >= 0 ? className.substring(0, address) : className)
+                    .append('.').append(stack[i].getMethodName());
+            if (i > 0) line.append(';');
+        }
+        return line.toString();
+    }
+
+    private void stalled(long durationNanos, Stall stall) {
+        STALL_DURATION.record(durationNanos);
+        STALLS.increment();
+        stall.stacks.forEach((stack, micros) -> collapsed.merge(stack, micros, Long::sum));
+
+        List<Map.Entry<String, Long>> blamed = new ArrayList<>(stall.appFrames.entrySet());
+        blamed.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        long durationMs = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        System.err.println("EDT stalled for " + durationMs + " ms" +
+                (blamed.isEmpty() ? "" : " in " + blamed.get(0).getKey()));
+        try {
+            writeStall(durationMs, stall.sampledMicros, blamed);
+            writeCollapsed();
+        } catch (IOException e) {
+            System.err.println("Failed to write EDT stall report: " + e.getMessage());
+        }
+    }
+
+    private void writeStall(long durationMs, long sampledMicros, List<Map.Entry<String, Long>> blamed)
+            throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(stallLog, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            out.printf("%s EDT stalled for %d ms (%d ms sampled after the %d ms threshold)%n",
+                    new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()), durationMs,
+                    sampledMicros / 1000, TimeUnit.NANOSECONDS.toMillis(thresholdNanos));
+            if (blamed.isEmpty()) {
+                out.println("    no " + appClassPrefix + " frame on the EDT stack");
+            }
+            for (int i = 0; i < Math.min(TOP_FRAMES, blamed.size()); i++) {
+                out.printf("    %6d ms  %s%n", blamed.get(i).getValue() / 1000, blamed.get(i).getKey());
+            }
+        }
+    }
+
+    private void writeCollapsed() throws IOException {
+        Path parent = collapsedStacks.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, collapsedStacks.getFileName().toString(), ".tmp");
+        try {
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(temp, StandardCharsets.UTF_8))) {
+                for (Map.Entry<String, Long> e : collapsed.entrySet()) {
+                    out.println(e.getKey() + " " + e.getValue());
+                }
+            }
+            Files.move(temp, collapsedStacks, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Samples taken during one stall, in microseconds
+     */
+    private static final class Stall {
+        final Map<String, Long> stacks = new HashMap<>();
+        final Map<String, Long> appFrames = new HashMap<>();
+        long sampledMicros;
+    }
+}
@@ -0,0 +1,317 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Scanline flood fill for the drawing canvases of NotesApp and NotesAppWithDB
+ * Fills whole horizontal spans at a time, straight on the image's int[] pixel array (or the
+ * tiles of a TiledCanvas), and
+ * keeps pending seeds on a primitive int stack, so a full-canvas fill touches each pixel
+ * a small constant number of times and allocates almost nothing.
+ *
+ * With a tolerance, pixels whose channels all lie within that distance of the clicked
+ * pixel are filled too. With smooth edges, the pixels just outside the fill that are
+ * close to the clicked color (typically the anti-aliased rim of a brush stroke) are
+ * blended toward the fill color, so no halo of the old color is left behind.
+ */
+public final class FloodFill {
+    private FloodFill() {
+    }
+
+    /**
+     * Fill the region connected to (x, y)
+     * @param tolerance 0 for an exact color match, up to 255 to fill everything
+     * @param smoothEdges Blend the pixels bordering the filled region
+     * @return Number of pixels filled
+     */
+    public static int fill(BufferedImage image, int x, int y, int fillRgb, int tolerance, boolean smoothEdges) {
+        int width = image.getWidth(), height = image.getHeight();
+        if (x < 0 || x >= width || y < 0 || y >= height) return 0;
+        if (tolerance < 0 || tolerance > 255) {
+            throw new IllegalArgumentException("Tolerance must be between 0 and 255: " + tolerance);
+        }
+
+        WritableRaster raster = image.getRaster();
+        boolean direct = image.getType() == BufferedImage.TYPE_INT_ARGB
+                && raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getDataBuffer().getNumBanks() == 1
+                && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+        int[] pixels = direct
+                ? ((DataBufferInt) raster.getDataBuffer()).getData()
+                : image.getRGB(0, 0, width, height, null, 0, width);
+        int filled = fill(pixels, width, height, x, y, fillRgb, tolerance, smoothEdges);
+        if (!direct && filled > 0) {
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return filled;
+    }
+
+    /**
+     * Fill on a packed ARGB array of width * height pixels, row by row
+     */
+    static int fill(int[] pixels, int width, int height, int x, int y, int fillRgb, int tolerance,
+            boolean smoothEdges) {
+        return fill(new ArrayPixels(pixels, width, height), x, y, fillRgb, tolerance, smoothEdges);
+    }
+
+    /**
+     * Fill on any pixel storage, such as the tiles of a TiledCanvas
+     */
+    static int fill(Pixels pixels, int x, int y, int fillRgb, int tolerance, boolean smoothEdges) {
+        int width = pixels.width, height = pixels.height;
+        int target = pixels.get(x, y);
+        if (target == fillRgb) return 0;
+
+        // Filled pixels stop matching unless the fill color is itself within tolerance;
+        // only then does the fill need to remember where it has been
+        long[] visited = distance(fillRgb, target) <= tolerance ? new long[(int) (((long) width * height + 63) >>> 6)] : null;
+        IntStack seeds = new IntStack();
+        IntStack edges = smoothEdges ? new IntStack() : null;
+        // The common case, an exact fill without edge blending, compares whole runs at a time
+        boolean exact = tolerance == 0 && edges == null;
+        int filled = 0;
+
+        seeds.push(y * width + x);
+        while (!seeds.isEmpty()) {
+            int seed = seeds.pop();
+            int row = seed / width;
+            int column = seed - row * width;
+            if (!matches(pixels, visited, column, row, target, tolerance)) continue;
+
+            // Grow the span left and right from the seed
+            int left = column, right = column;
+            if (exact) {
+                left = pixels.runStart(row, column, target);
+                right = pixels.runEnd(row, column, width - 1, target);
+            } else {
+                while (left > 0 && matches(pixels, visited, left - 1, row, target, tolerance)) left--;
+                while (right < width - 1 && matches(pixels, visited, right + 1, row, target, tolerance)) right++;
+            }
+            pixels.fillSpan(row, left, right, fillRgb);
+            if (visited != null) {
+                for (int i = row * width + left; i <= row * width + right; i++) visited[i >>> 6] |= 1L << i;
+            }
+            filled += right - left + 1;
+            if (edges != null) {
+                if (left > 0) edges.push(row * width + left - 1);
+                if (right < width - 1) edges.push(row * width + right + 1);
+            }
+
+            // One seed per run of matching pixels in the rows above and below
+            if (exact) {
+                if (row > 0) scanRowExact(pixels, row - 1, left, right, target, seeds);
+                if (row < height - 1) scanRowExact(pixels, row + 1, left, right, target, seeds);
+            } else {
+                if (row > 0) scanRow(pixels, visited, row - 1, left, right, target, tolerance, fillRgb, seeds, edges);
+                if (row < height - 1) scanRow(pixels, visited, row + 1, left, right, target, tolerance, fillRgb, seeds, edges);
+            }
+        }
+
+        if (edges != null) {
+            blendEdges(pixels, edges, target, tolerance, fillRgb);
+        }
+        return filled;
+    }
+
+    private static void scanRow(Pixels pixels, long[] visited, int row, int from, int to, int target, int tolerance,
+            int fillRgb, IntStack seeds, IntStack edges) {
+        boolean inRun = false;
+        for (int x = from; x <= to; x++) {
+            if (matches(pixels, visited, x, row, target, tolerance)) {
+                if (!inRun) {
+                    seeds.push(row * pixels.width + x);
+                    inRun = true;
+                }
+            } else {
+                inRun = false;
+                if (edges != null && !isFilled(pixels, visited, x, row, fillRgb)) edges.push(row * pixels.width + x);
+            }
+        }
+    }
+
+    private static void scanRowExact(Pixels pixels, int row, int from, int to, int target, IntStack seeds) {
+        int x = pixels.find(row, from, to, target);
+        while (x >= 0) {
+            seeds.push(row * pixels.width + x);
+            int end = pixels.runEnd(row, x, to, target);
+            x = end < to ? pixels.find(row, end + 1, to, target) : -1;
+        }
+    }
+
+    private static boolean matches(Pixels pixels, long[] visited, int x, int y, int target, int tolerance) {
+        if (visited != null) {
+            int i = y * pixels.width + x;
+            if ((visited[i >>> 6] & (1L << i)) != 0) return false;
+        }
+        int pixel = pixels.get(x, y);
+        return pixel == target || (tolerance > 0 && distance(pixel, target) <= tolerance);
+    }
+
+    private static boolean isFilled(Pixels pixels, long[] visited, int x, int y, int fillRgb) {
+        if (visited != null) {
+            int i = y * pixels.width + x;
+            return (visited[i >>> 6] & (1L << i)) != 0;
+        }
+        return pixels.get(x, y) == fillRgb;
+    }
+
+    /**
+     * Blend each bordering pixel once, by how close it is to the color that was filled
+     */
+    private static void blendEdges(Pixels pixels, IntStack edges, int target, int tolerance, int fillRgb) {
+        int[] positions = edges.toSortedArray();
+        int previous = -1;
+        for (int i : positions) {
+            if (i == previous) continue;
+            previous = i;
+            int x = i % pixels.width, y = i / pixels.width;
+            int pixel = pixels.get(x, y);
+            // A rim pixel halfway between the old color and the stroke gets half the fill
+            int closeness = 255 - distance(pixel, target);
+            if (closeness <= 0 || pixel == fillRgb) continue;
+            pixels.set(x, y, mix(pixel, fillRgb, Math.min(closeness, 255 - tolerance), 255 - tolerance));
+        }
+    }
+
+    /**
+     * Largest difference between corresponding ARGB channels
+     */
+    private static int distance(int a, int b) {
+        int d = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            d = Math.max(d, Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)));
+        }
+        return d;
+    }
+
+    private static int mix(int from, int to, int weight, int total) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int a = (from >>> shift) & 0xFF, b = (to >>> shift) & 0xFF;
+            result |= ((a * (total - weight) + b * weight) / total) << shift;
+        }
+        return result;
+    }
+
+    /**
+     * Pixel storage a fill can work on
+     */
+    abstract static class Pixels {
+        final int width;
+        final int height;
+
+        Pixels(int width, int height) {
+            this.width = width;
+            this.height = height;
+        }
+
+        abstract int get(int x, int y);
+
+        abstract void set(int x, int y, int rgb);
+
+        void fillSpan(int y, int fromX, int toX, int rgb) {
+            for (int x = fromX; x <= toX; x++) set(x, y, rgb);
+        }
+
+        /**
+         * Leftmost x of the run of target pixels that ends at (x, y)
+         */
+        int runStart(int y, int x, int target) {
+            while (x > 0 && get(x - 1, y) == target) x--;
+            return x;
+        }
+
+        /**
+         * Rightmost x, at most limit, of the run of target pixels that starts at (x, y)
+         */
+        int runEnd(int y, int x, int limit, int target) {
+            while (x < limit && get(x + 1, y) == target) x++;
+            return x;
+        }
+
+        /**
+         * First x in [fromX, toX] holding the target, or -1
+         */
+        int find(int y, int fromX, int toX, int target) {
+            for (int x = fromX; x <= toX; x++) {
+                if (get(x, y) == target) return x;
+            }
+            return -1;
+        }
+    }
+
+    private static final class ArrayPixels extends Pixels {
+        private final int[] data;
+
+        ArrayPixels(int[] data, int width, int height) {
+            super(width, height);
+            this.data = data;
+        }
+
+        @Override
+        int get(int x, int y) {
+            return data[y * width + x];
+        }
+
+        @Override
+        void set(int x, int y, int rgb) {
+            data[y * width + x] = rgb;
+        }
+
+        @Override
+        void fillSpan(int y, int fromX, int toX, int rgb) {
+            Arrays.fill(data, y * width + fromX, y * width + toX + 1, rgb);
+        }
+
+        @Override
+        int runStart(int y, int x, int target) {
+            int rowStart = y * width, i = rowStart + x;
+            while (i > rowStart && data[i - 1] == target) i--;
+            return i - rowStart;
+        }
+
+        @Override
+        int runEnd(int y, int x, int limit, int target) {
+            int rowStart = y * width, i = rowStart + x, end = rowStart + limit;
+            while (i < end && data[i + 1] == target) i++;
+            return i - rowStart;
+        }
+
+        @Override
+        int find(int y, int fromX, int toX, int target) {
+            int rowStart = y * width;
+            for (int i = rowStart + fromX; i <= rowStart + toX; i++) {
+                if (data[i] == target) return i - rowStart;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Growable stack of pixel indices
+     */
+    private static final class IntStack {
+        private int[] items = new int[256];
+        private int size;
+
+        void push(int value) {
+            if (size == items.length) items = Arrays.copyOf(items, size * 2);
+            items[size++] = value;
+        }
+
+        int pop() {
+            return items[--size];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        int[] toSortedArray() {
+            int[] sorted = Arrays.copyOf(items, size);
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,870 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory inverted index over note titles and text content
+ * Kept current by listening to NoteDAO, so searching never touches the database
+ * Supports prefix and "quoted phrase" queries ranked with BM25
+ *
+ * Postings hold, per term, a sorted docId array and delta/varint-encoded positions; in the
+ * segment file the docIds are varint deltas as well. Title tokens take positions from 0 and
+ * content tokens from CONTENT_BASE, so a title-only change rewrites only the title terms' postings.
+ *
+ * A content change re-tokenizes the note's whole text: the cost of an update is linear in the
+ * size of that note, though not in the size of the index. The index keeps no text and the
+ * edit log records only how many characters an edit removed, so the old tokens around an
+ * edit cannot be recovered to diff just the changed range; and since positions are token
+ * ordinals, inserting a word shifts the positions of every later term anyway. Only postings
+ * whose encoding changed are written back.
+ * Demonstrates Collections, Generics and Synchronization with a read/write lock
+ */
+public class InvertedIndex implements NoteChangeListener {
+    private static final int MAGIC = 0x4E494458; // "NIDX"
+    private static final int FORMAT_VERSION = 2;
+    private static final int CONTENT_BASE = 1 << 16;
+    // A prefix query scores at most this many of the matching terms, the ones in the most
+    // notes; a note matching only rarer expansions of a short prefix is not returned
+    private static final int MAX_PREFIX_EXPANSION = 256;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final Pattern QUERY_PART = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+    /**
+     * A ranked search hit
+     */
+    public static class Hit {
+        private final NoteSummary summary;
+        private final double score;
+
+        Hit(NoteSummary summary, double score) {
+            this.summary = summary;
+            this.score = score;
+        }
+
+        /**
+         * Metadata of the matching note; payload sizes are not tracked by the index
+         */
+        public NoteSummary getSummary() {
+            return summary;
+        }
+
+        /**
+         * BM25 score; higher is a better match
+         */
+        public double getScore() {
+            return score;
+        }
+    }
+
+    private final TreeMap<String, PostingList> dictionary = new TreeMap<>();
+    private final Map<Integer, DocEntry> docs = new HashMap<>();
+    private long totalLength;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // --- NoteChangeListener: keep the index current with NoteDAO writes ---
+
+    @Override
+    public void noteSaved(Note note) {
+        indexNote(note);
+    }
+
+    @Override
+    public void noteUpdated(Note note) {
+        indexNote(note);
+    }
+
+    @Override
+    public void noteDeleted(int id) {
+        lock.writeLock().lock();
+        try {
+            removeDoc(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Index or re-index one note
+     * A note whose payload was never loaded cannot have new content, so only its title is re-indexed
+     */
+    public void indexNote(Note note) {
+        String content = null;
+        if (note instanceof TextNote && note.isContentLoaded()) {
+            content = note.getContent();
+        } else if (note instanceof DrawingNote) {
+            content = ""; // drawings are searchable by title only
+        }
+        index(note.getId(), note.getTitle(), note.getType(), note.getCreatedDate(), note.getModifiedDate(), content);
+    }
+
+    /**
+     * Bring the index up to date with the database after startup
+     * Only notes added, changed or deleted since the index was saved are touched
+     * @return Number of notes re-indexed or removed
+     */
+    public int catchUp(List<NoteSummary> summaries, NoteContentLoader loader) throws DatabaseException {
+        int changed = 0;
+        Set<Integer> present = new HashSet<>();
+        for (NoteSummary summary : summaries) {
+            present.add(summary.getId());
+            DocEntry entry;
+            lock.readLock().lock();
+            try {
+                entry = docs.get(summary.getId());
+            } finally {
+                lock.readLock().unlock();
+            }
+            if (entry != null && !entry.partial && entry.modified == summary.getModifiedDate().getTime()) {
+                continue;
+            }
+            String content = "TEXT".equals(summary.getType()) ? loader.loadContent(summary.getId()) : "";
+            index(summary.getId(), summary.getTitle(), summary.getType(),
+                    summary.getCreatedDate(), summary.getModifiedDate(), content);
+            changed++;
+        }
+
+        lock.writeLock().lock();
+        try {
+            for (Integer id : new ArrayList<>(docs.keySet())) {
+                if (!present.contains(id)) {
+                    removeDoc(id);
+                    changed++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return changed;
+    }
+
+    /**
+     * Number of indexed notes
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return docs.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Indexing ---
+
+    /**
+     * @param content Full text content, or null to keep the indexed content and change only the title
+     */
+    private void index(int id, String title, String type, Date created, Date modified, String content) {
+        if (id <= 0) return;
+        Map<String, IntList> titleTokens = tokenize(title, 0);
+        Map<String, IntList> contentTokens = content != null ? tokenize(content, CONTENT_BASE) : null;
+
+        lock.writeLock().lock();
+        try {
+            DocEntry old = docs.get(id);
+            Set<String> affected = new HashSet<>(titleTokens.keySet());
+            if (old != null) {
+                Collections.addAll(affected, old.titleTerms);
+            }
+            if (contentTokens != null) {
+                affected.addAll(contentTokens.keySet());
+                if (old != null) {
+                    Collections.addAll(affected, old.contentTerms);
+                }
+            }
+
+            for (String term : affected) {
+                PostingList postings = dictionary.get(term);
+                IntList positions = new IntList();
+                IntList titlePositions = titleTokens.get(term);
+                if (titlePositions != null) {
+                    positions.addAll(titlePositions);
+                }
+                if (contentTokens != null) {
+                    IntList contentPositions = contentTokens.get(term);
+                    if (contentPositions != null) {
+                        positions.addAll(contentPositions);
+                    }
+                } else if (postings != null) {
+                    // Title-only change: keep the content positions already indexed
+                    byte[] existing = postings.get(id);
+                    if (existing != null) {
+                        for (int position : decodePositions(existing)) {
+                            if (position >= CONTENT_BASE) positions.add(position);
+                        }
+                    }
+                }
+
+                if (positions.size == 0) {
+                    if (postings != null && postings.remove(id) && postings.docFrequency() == 0) {
+                        dictionary.remove(term);
+                    }
+                    continue;
+                }
+                byte[] encoded = encodePositions(positions);
+                if (postings == null) {
+                    postings = new PostingList();
+                    dictionary.put(term, postings);
+                } else if (Arrays.equals(postings.get(id), encoded)) {
+                    continue; // this term did not change in this note
+                }
+                postings.put(id, encoded);
+            }
+
+            DocEntry entry = new DocEntry();
+            entry.title = title != null ? title : "";
+            entry.type = type;
+            entry.created = created != null ? created.getTime() : 0;
+            entry.modified = modified != null ? modified.getTime() : 0;
+            entry.titleLength = countTokens(titleTokens);
+            entry.titleTerms = internTerms(titleTokens.keySet());
+            if (contentTokens != null) {
+                entry.contentLength = countTokens(contentTokens);
+                entry.contentTerms = internTerms(contentTokens.keySet());
+                entry.partial = false;
+            } else if (old != null) {
+                entry.contentLength = old.contentLength;
+                entry.contentTerms = old.contentTerms;
+                entry.partial = old.partial;
+            } else {
+                entry.contentTerms = new String[0];
+                entry.partial = true; // content still needs indexing on the next catch-up
+            }
+            if (old != null) {
+                totalLength -= old.titleLength + old.contentLength;
+            }
+            totalLength += entry.titleLength + entry.contentLength;
+            docs.put(id, entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Caller holds the write lock
+    private void removeDoc(int id) {
+        DocEntry old = docs.remove(id);
+        if (old == null) return;
+        totalLength -= old.titleLength + old.contentLength;
+        Set<String> terms = new HashSet<>();
+        Collections.addAll(terms, old.titleTerms);
+        Collections.addAll(terms, old.contentTerms);
+        for (String term : terms) {
+            PostingList postings = dictionary.get(term);
+            if (postings != null && postings.remove(id) && postings.docFrequency() == 0) {
+                dictionary.remove(term);
+            }
+        }
+    }
+
+    // Reuse the dictionary's String instances so each term is stored once
+    private String[] internTerms(Set<String> terms) {
+        String[] result = new String[terms.size()];
+        int i = 0;
+        for (String term : terms) {
+            String key = dictionary.ceilingKey(term);
+            result[i++] = term.equals(key) ? key : term;
+        }
+        return result;
+    }
+
+    private static int countTokens(Map<String, IntList> tokens) {
+        int count = 0;
+        for (IntList positions : tokens.values()) {
+            count += positions.size;
+        }
+        return count;
+    }
+
+    /**
+     * Split text into lower-case letter/digit runs with their positions
+     */
+    private static Map<String, IntList> tokenize(String text, int basePosition) {
+        Map<String, IntList> tokens = new LinkedHashMap<>();
+        if (text == null) return tokens;
+        int position = basePosition;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                String term = text.substring(start, i).toLowerCase(Locale.ROOT);
+                tokens.computeIfAbsent(term, t -> new IntList()).add(position++);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static List<String> orderedTokens(String text) {
+        List<String> result = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                result.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return result;
+    }
+
+    // --- Searching ---
+
+    /**
+     * Search the index: every word must match, "quoted words" must appear as a phrase,
+     * and a trailing word (or one ending in *) matches as a prefix
+     * @param query Text typed by the user
+     * @param limit Maximum number of hits
+     * @return Hits ordered by descending BM25 score
+     */
+    public List<Hit> search(String query, int limit) {
+        List<Clause> clauses = parse(query);
+        if (clauses.isEmpty() || limit <= 0) return new ArrayList<>();
+
+        lock.readLock().lock();
+        try {
+            if (docs.isEmpty()) return new ArrayList<>();
+            double avgLength = Math.max(1.0, (double) totalLength / docs.size());
+
+            Map<Integer, Double> scores = null;
+            for (Clause clause : clauses) {
+                Map<Integer, Double> clauseScores = evaluate(clause, avgLength);
+                if (scores == null) {
+                    scores = clauseScores;
+                } else {
+                    // AND: keep documents matched by every clause, summing their scores
+                    Map<Integer, Double> combined = new HashMap<>();
+                    Map<Integer, Double> small = scores.size() <= clauseScores.size() ? scores : clauseScores;
+                    Map<Integer, Double> large = small == scores ? clauseScores : scores;
+                    for (Map.Entry<Integer, Double> e : small.entrySet()) {
+                        Double other = large.get(e.getKey());
+                        if (other != null) combined.put(e.getKey(), e.getValue() + other);
+                    }
+                    scores = combined;
+                }
+                if (scores.isEmpty()) return new ArrayList<>();
+            }
+
+            PriorityQueue<Map.Entry<Integer, Double>> top =
+                    new PriorityQueue<>((a, b) -> Double.compare(a.getValue(), b.getValue()));
+            for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+                top.offer(e);
+                if (top.size() > limit) top.poll();
+            }
+            List<Hit> hits = new ArrayList<>(top.size());
+            while (!top.isEmpty()) {
+                Map.Entry<Integer, Double> e = top.poll();
+                DocEntry entry = docs.get(e.getKey());
+                NoteSummary summary = new NoteSummary(e.getKey(), entry.title, entry.type,
+                        new Date(entry.created), new Date(entry.modified), 0, 0);
+                hits.add(new Hit(summary, e.getValue()));
+            }
+            Collections.reverse(hits);
+            return hits;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Map<Integer, Double> evaluate(Clause clause, double avgLength) {
+        Map<Integer, Double> scores = new HashMap<>();
+        if (clause.terms.size() == 1) {
+            String term = clause.terms.get(0);
+            if (clause.prefix) {
+                // Keep the most frequent expansions rather than the alphabetically first
+                PriorityQueue<PostingList> expansions = new PriorityQueue<>(
+                        (a, b) -> Integer.compare(a.docFrequency(), b.docFrequency()));
+                for (PostingList postings :
+                        dictionary.subMap(term, true, term + Character.MAX_VALUE, false).values()) {
+                    expansions.offer(postings);
+                    if (expansions.size() > MAX_PREFIX_EXPANSION) expansions.poll();
+                }
+                for (PostingList postings : expansions) {
+                    addTermScores(postings, avgLength, scores);
+                }
+            } else {
+                PostingList postings = dictionary.get(term);
+                if (postings != null) addTermScores(postings, avgLength, scores);
+            }
+            return scores;
+        }
+
+        // Phrase: walk the rarest term's documents and verify consecutive positions
+        List<PostingList> lists = new ArrayList<>();
+        for (String term : clause.terms) {
+            PostingList postings = dictionary.get(term);
+            if (postings == null) return scores;
+            lists.add(postings);
+        }
+        PostingList rarest = lists.get(0);
+        for (PostingList postings : lists) {
+            if (postings.docFrequency() < rarest.docFrequency()) rarest = postings;
+        }
+        rarest.decode();
+        for (int i = 0; i < rarest.size; i++) {
+            int docId = rarest.docIds[i];
+            int[][] positions = new int[lists.size()][];
+            boolean inAll = true;
+            for (int t = 0; t < lists.size() && inAll; t++) {
+                byte[] encoded = lists.get(t).get(docId);
+                if (encoded == null) inAll = false;
+                else positions[t] = decodePositions(encoded);
+            }
+            if (!inAll || !containsPhrase(positions)) continue;
+            double score = 0;
+            for (int t = 0; t < lists.size(); t++) {
+                score += bm25(positions[t].length, lists.get(t).docFrequency(), docId, avgLength);
+            }
+            scores.put(docId, score);
+        }
+        return scores;
+    }
+
+    private static boolean containsPhrase(int[][] positions) {
+        for (int start : positions[0]) {
+            boolean match = true;
+            for (int t = 1; t < positions.length && match; t++) {
+                match = Arrays.binarySearch(positions[t], start + t) >= 0;
+            }
+            if (match) return true;
+        }
+        return false;
+    }
+
+    private void addTermScores(PostingList postings, double avgLength, Map<Integer, Double> scores) {
+        postings.decode();
+        int df = postings.size;
+        for (int i = 0; i < postings.size; i++) {
+            int tf = positionCount(postings.positions[i]);
+            scores.merge(postings.docIds[i], bm25(tf, df, postings.docIds[i], avgLength), Double::sum);
+        }
+    }
+
+    private double bm25(int tf, int df, int docId, double avgLength) {
+        DocEntry entry = docs.get(docId);
+        int length = entry.titleLength + entry.contentLength;
+        double idf = Math.log(1 + (docs.size() - df + 0.5) / (df + 0.5));
+        return idf * (tf * (K1 + 1)) / (tf + K1 * (1 - B + B * length / avgLength));
+    }
+
+    private static List<Clause> parse(String query) {
+        List<Clause> clauses = new ArrayList<>();
+        if (query == null) return clauses;
+        boolean endsMidWord = !query.isEmpty() && !Character.isWhitespace(query.charAt(query.length() - 1));
+        Matcher m = QUERY_PART.matcher(query);
+        while (m.find()) {
+            boolean quoted = m.group(1) != null;
+            String text = quoted ? m.group(1) : m.group(2);
+            boolean starred = !quoted && text.endsWith("*");
+            List<String> terms = orderedTokens(text);
+            if (terms.isEmpty()) continue;
+            Clause clause = new Clause();
+            clause.terms = terms;
+            // The word still being typed, or an explicit trailing *, matches as a prefix
+            clause.prefix = terms.size() == 1 && !quoted && (starred || (endsMidWord && m.end() == query.length()));
+            clauses.add(clause);
+        }
+        return clauses;
+    }
+
+    // --- Persistence ---
+
+    /**
+     * Write the index to a new segment file and point the given file at it
+     * The segment this index was loaded from may still be mapped, and a mapped file cannot
+     * be replaced on every platform, so each save gets a fresh name ("<file>.<n>"); the
+     * small pointer file is what gets replaced atomically. Older segments are deleted when
+     * they can be; one still mapped is left for a later save
+     */
+    public void save(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        long sequence = System.currentTimeMillis();
+        Path segment;
+        while (Files.exists(segment = file.resolveSibling(name + "." + sequence))) {
+            sequence++;
+        }
+        Path temp = file.resolveSibling(name + ".tmp");
+        lock.readLock().lock();
+        try (OutputStream fileOut = Files.newOutputStream(segment);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            Map<String, Integer> ordinals = new HashMap<>();
+            out.writeInt(dictionary.size());
+            for (Map.Entry<String, PostingList> e : dictionary.entrySet()) {
+                ordinals.put(e.getKey(), ordinals.size());
+                writeString(out, e.getKey());
+                e.getValue().writeTo(out);
+            }
+
+            out.writeInt(docs.size());
+            for (Map.Entry<Integer, DocEntry> e : docs.entrySet()) {
+                DocEntry entry = e.getValue();
+                out.writeInt(e.getKey());
+                // A partial entry is saved as stale so the next catch-up re-indexes it
+                out.writeLong(entry.partial ? -1 : entry.modified);
+                out.writeLong(entry.created);
+                writeString(out, entry.title);
+                writeString(out, entry.type);
+                out.writeInt(entry.titleLength);
+                out.writeInt(entry.contentLength);
+                writeOrdinals(out, entry.titleTerms, ordinals);
+                writeOrdinals(out, entry.contentTerms, ordinals);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        Files.write(temp, segment.getFileName().toString().getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        deleteOldSegments(file, segment);
+    }
+
+    private static void deleteOldSegments(Path file, Path current) {
+        String prefix = file.getFileName() + ".";
+        Path dir = file.toAbsolutePath().getParent();
+        DirectoryStream.Filter<Path> segments = p -> {
+            String n = p.getFileName().toString();
+            return n.startsWith(prefix) && n.length() > prefix.length()
+                    && n.substring(prefix.length()).chars().allMatch(Character::isDigit);
+        };
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(dir, segments)) {
+            for (Path p : old) {
+                if (p.getFileName().equals(current.getFileName())) continue;
+                try {
+                    Files.deleteIfExists(p);
+                } catch (IOException e) {
+                    // Still mapped by this process; the next save deletes it
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to delete old search index segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Memory-map the segment file the given pointer file names
+     * The dictionary and document table are read eagerly; each term's postings stay in
+     * the mapped file until a query or update first touches them
+     * @return The loaded index, or an empty index if a file is missing or unreadable
+     */
+    public static InvertedIndex load(Path file) {
+        InvertedIndex index = new InvertedIndex();
+        if (!Files.exists(file)) return index;
+        Path segment;
+        try {
+            // A pointer holds one file name; anything larger is a segment from an older version
+            String name = Files.size(file) > 1024 ? ""
+                    : new String(Files.readAllBytes(file), StandardCharsets.UTF_8).trim();
+            if (!name.startsWith(file.getFileName() + ".") || name.contains("/") || name.contains("\\")) {
+                System.err.println("Ignoring search index with unknown format: " + file);
+                return index;
+            }
+            segment = file.resolveSibling(name);
+        } catch (IOException e) {
+            System.err.println("Failed to load search index, rebuilding: " + e.getMessage());
+            return index;
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+                System.err.println("Ignoring search index with unknown format: " + segment);
+                return index;
+            }
+
+            int termCount = buffer.getInt();
+            String[] terms = new String[termCount];
+            for (int i = 0; i < termCount; i++) {
+                terms[i] = readString(buffer);
+                index.dictionary.put(terms[i], PostingList.mapped(buffer));
+            }
+
+            int docCount = buffer.getInt();
+            for (int i = 0; i < docCount; i++) {
+                int id = buffer.getInt();
+                DocEntry entry = new DocEntry();
+                entry.modified = buffer.getLong();
+                entry.created = buffer.getLong();
+                entry.title = readString(buffer);
+                entry.type = readString(buffer);
+                entry.titleLength = buffer.getInt();
+                entry.contentLength = buffer.getInt();
+                entry.titleTerms = readOrdinals(buffer, terms);
+                entry.contentTerms = readOrdinals(buffer, terms);
+                index.docs.put(id, entry);
+                index.totalLength += entry.titleLength + entry.contentLength;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to load search index, rebuilding: " + e.getMessage());
+            return new InvertedIndex();
+        }
+        return index;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeOrdinals(DataOutputStream out, String[] terms, Map<String, Integer> ordinals)
+            throws IOException {
+        out.writeInt(terms.length);
+        for (String term : terms) {
+            out.writeInt(ordinals.get(term));
+        }
+    }
+
+    private static String[] readOrdinals(ByteBuffer buffer, String[] terms) {
+        String[] result = new String[buffer.getInt()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = terms[buffer.getInt()];
+        }
+        return result;
+    }
+
+    // --- Compact encoding: positions as a varint count then varint deltas, docIds as varint deltas ---
+
+    private static byte[] encodePositions(IntList positions) {
+        Arrays.sort(positions.values, 0, positions.size);
+        byte[] out = new byte[5 * (positions.size + 1)];
+        int n = writeVarint(out, 0, positions.size);
+        int previous = 0;
+        for (int i = 0; i < positions.size; i++) {
+            n = writeVarint(out, n, positions.values[i] - previous);
+            previous = positions.values[i];
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static int[] decodePositions(byte[] encoded) {
+        int[] cursor = {0};
+        int count = readVarint(encoded, cursor);
+        int[] positions = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarint(encoded, cursor);
+            positions[i] = previous;
+        }
+        return positions;
+    }
+
+    private static int positionCount(byte[] encoded) {
+        return readVarint(encoded, new int[]{0});
+    }
+
+    private static int writeVarint(byte[] out, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            out[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out[offset++] = (byte) value;
+        return offset;
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static int readVarint(byte[] in, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in[cursor[0]++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    // --- Internal structures ---
+
+    private static class Clause {
+        List<String> terms;
+        boolean prefix;
+    }
+
+    private static class DocEntry {
+        String title;
+        String type;
+        long created;
+        long modified;
+        int titleLength;
+        int contentLength;
+        String[] titleTerms;
+        String[] contentTerms;
+        boolean partial;
+    }
+
+    /**
+     * Growable int array, avoids boxing while tokenizing
+     */
+    private static class IntList {
+        int[] values = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        void addAll(IntList other) {
+            for (int i = 0; i < other.size; i++) add(other.values[i]);
+        }
+    }
+
+    /**
+     * Postings of one term: sorted document IDs, each with its encoded positions
+     * A list loaded from disk stays as a slice of the mapped file until first decoded; once
+     * decoded, the IDs are a plain int array so updates can binary-search and insert in place
+     */
+    private static class PostingList {
+        private static final int[] NO_DOCS = new int[0];
+        private static final byte[][] NO_POSITIONS = new byte[0][];
+
+        private ByteBuffer mapped;
+        private int mappedDocCount;
+        int[] docIds = NO_DOCS;
+        byte[][] positions = NO_POSITIONS;
+        int size;
+
+        static PostingList mapped(ByteBuffer buffer) {
+            PostingList list = new PostingList();
+            list.mappedDocCount = buffer.getInt();
+            int length = buffer.getInt();
+            ByteBuffer slice = buffer.slice();
+            slice.limit(length);
+            buffer.position(buffer.position() + length);
+            list.mapped = slice;
+            return list;
+        }
+
+        synchronized int docFrequency() {
+            return mapped != null ? mappedDocCount : size;
+        }
+
+        // Synchronized because concurrent searches may decode under the shared read lock
+        synchronized void decode() {
+            if (mapped == null) return;
+            ByteBuffer in = mapped.duplicate();
+            docIds = new int[mappedDocCount];
+            positions = new byte[mappedDocCount][];
+            int previous = 0;
+            for (int i = 0; i < mappedDocCount; i++) {
+                previous += readVarint(in);
+                docIds[i] = previous;
+                positions[i] = new byte[readVarint(in)];
+                in.get(positions[i]);
+            }
+            size = mappedDocCount;
+            mapped = null;
+        }
+
+        byte[] get(int docId) {
+            decode();
+            int i = Arrays.binarySearch(docIds, 0, size, docId);
+            return i >= 0 ? positions[i] : null;
+        }
+
+        void put(int docId, byte[] encoded) {
+            decode();
+            int i = Arrays.binarySearch(docIds, 0, size, docId);
+            if (i >= 0) {
+                positions[i] = encoded;
+                return;
+            }
+            int at = -i - 1;
+            if (size == docIds.length) {
+                int capacity = Math.max(4, size + (size >> 1));
+                docIds = Arrays.copyOf(docIds, capacity);
+                positions = Arrays.copyOf(positions, capacity);
+            }
+            System.arraycopy(docIds, at, docIds, at + 1, size - at);
+            System.arraycopy(positions, at, positions, at + 1, size - at);
+            docIds[at] = docId;
+            positions[at] = encoded;
+            size++;
+        }
+
+        boolean remove(int docId) {
+            decode();
+            int i = Arrays.binarySearch(docIds, 0, size, docId);
+            if (i < 0) return false;
+            System.arraycopy(docIds, i + 1, docIds, i, size - i - 1);
+            System.arraycopy(positions, i + 1, positions, i, size - i - 1);
+            positions[--size] = null;
+            return true;
+        }
+
+        /**
+         * Doc count, byte length, then per document a varint docId delta, varint positions
+         * length and the positions
+         */
+        void writeTo(DataOutputStream out) throws IOException {
+            decode();
+            byte[] header = new byte[10];
+            int length = 0;
+            int previous = 0;
+            for (int i = 0; i < size; i++) {
+                length += writeVarint(header, 0, docIds[i] - previous) + writeVarint(header, 0, positions[i].length)
+                        + positions[i].length;
+                previous = docIds[i];
+            }
+            out.writeInt(size);
+            out.writeInt(length);
+            previous = 0;
+            for (int i = 0; i < size; i++) {
+                int n = writeVarint(header, 0, docIds[i] - previous);
+                n = writeVarint(header, n, positions[i].length);
+                out.write(header, 0, n);
+                out.write(positions[i]);
+                previous = docIds[i];
+            }
+        }
+    }
+}
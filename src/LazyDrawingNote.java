@@ -0,0 +1,60 @@
+import java.util.Date;
+
+/**
+ * Drawing note whose image data is fetched from the database on first access
+ * Demonstrates Inheritance - only the loading behaviour differs from DrawingNote
+ */
+public class LazyDrawingNote extends DrawingNote {
+    private final NoteContentLoader loader;
+    private final long storedImageSize;
+    private volatile boolean loaded;
+    
+    public LazyDrawingNote(int id, String title, Date createdDate, Date modifiedDate,
+                           long storedImageSize, NoteContentLoader loader) {
+        super(id, title, null, createdDate, modifiedDate);
+        this.storedImageSize = storedImageSize;
+        this.loader = loader;
+    }
+    
+    @Override
+    public String getContent() {
+        // Describing the drawing only needs its size, which the summary already has
+        if (!loaded) {
+            return storedImageSize > 0 ? "Drawing with " + storedImageSize + " bytes" : "Empty drawing";
+        }
+        return super.getContent();
+    }
+    
+    @Override
+    public byte[] getImageData() {
+        ensureLoaded();
+        return super.getImageData();
+    }
+    
+    @Override
+    public synchronized void setImageData(byte[] imageData) {
+        if (!loaded) {
+            // The stored image is unknown, so replacing it always counts as a change
+            this.imageData = imageData;
+            loaded = true;
+            markDirty();
+            return;
+        }
+        super.setImageData(imageData);
+    }
+    
+    @Override
+    public boolean isContentLoaded() {
+        return loaded;
+    }
+    
+    private synchronized void ensureLoaded() {
+        if (loaded) return;
+        try {
+            imageData = loader.loadImageData(id);
+            loaded = true;
+        } catch (DatabaseException e) {
+            throw new IllegalStateException("Failed to load image data of note " + id, e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Date;
+
+/**
+ * Text note whose content is fetched from the database on first access
+ * Demonstrates Inheritance - only the loading behaviour differs from TextNote
+ */
+public class LazyTextNote extends TextNote {
+    private final NoteContentLoader loader;
+    private volatile boolean loaded;
+    
+    public LazyTextNote(int id, String title, Date createdDate, Date modifiedDate, NoteContentLoader loader) {
+        super(id, title, "", createdDate, modifiedDate);
+        this.loader = loader;
+    }
+    
+    @Override
+    public String getContent() {
+        ensureLoaded();
+        return super.getContent();
+    }
+    
+    @Override
+    public synchronized void setContent(String content) {
+        if (!loaded) {
+            // The stored content is unknown, so replacing it always counts as a change
+            if (content == null) {
+                throw new IllegalArgumentException("Content cannot be null");
+            }
+            this.content = content;
+            loaded = true;
+            forgetUnsavedEdits();
+            markDirty();
+            return;
+        }
+        super.setContent(content);
+    }
+    
+    @Override
+    public synchronized void applyEdit(TextEdit edit) {
+        ensureLoaded(); // edit positions refer to the stored text
+        super.applyEdit(edit);
+    }
+    
+    @Override
+    public boolean isContentLoaded() {
+        return loaded;
+    }
+    
+    private synchronized void ensureLoaded() {
+        if (loaded) return;
+        try {
+            content = loader.loadContent(id);
+            loaded = true;
+        } catch (DatabaseException e) {
+            throw new IllegalStateException("Failed to load content of note " + id, e);
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Process-wide registry of latency histograms, counters and gauges
+ * Instrumented classes look up their metrics once, into static fields, and record into
+ * them from any thread without locking. The registry is published through JMX as
+ * NotesApp:type=Metrics and can be written to a JSON snapshot file periodically, so
+ * p50/p99 latencies can be read from a running app without attaching a profiler.
+ *
+ * Names are dotted, grouped by subsystem: dao.* for NoteDAO, cache.*, autosave.*, ui.*
+ * Demonstrates Multithreading with atomic variables and the management (JMX) API
+ */
+public final class Metrics {
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    // Sorted, so the snapshot and JMX tables list related metrics together
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentSkipListMap<>();
+
+    private static ScheduledExecutorService snapshotExecutor;
+    private static Path snapshotFile;
+
+    private Metrics() {
+    }
+
+    /**
+     * The latency histogram with this name, created on first use
+     */
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * The counter with this name, created on first use
+     */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * Sample a value whenever metrics are read, e.g. a queue's current size
+     * A later gauge with the same name replaces the earlier one
+     */
+    public static void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    /**
+     * Register the JMX view of the registry with the platform MBean server
+     * Failures are logged; the app works the same without JMX
+     */
+    public static void registerMBean() {
+        try {
+            ObjectName name = new ObjectName("NotesApp:type=Metrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new View(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Failed to register metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Rewrite a JSON snapshot of the registry every period on a background thread
+     */
+    public static synchronized void startSnapshots(Path file, long period, TimeUnit unit) {
+        if (snapshotExecutor != null) return;
+        snapshotFile = file;
+        snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "MetricsSnapshotThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotExecutor.scheduleAtFixedRate(Metrics::writeSnapshotQuietly, period, period, unit);
+    }
+
+    /**
+     * Stop the periodic snapshots, writing a last one so the file covers the whole run
+     */
+    public static synchronized void stopSnapshots() {
+        if (snapshotExecutor == null) return;
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        snapshotExecutor = null;
+        writeSnapshotQuietly();
+    }
+
+    /**
+     * Write the snapshot atomically, so a reader never sees half a file
+     */
+    public static void writeSnapshot(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temp, toJson().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static void writeSnapshotQuietly() {
+        try {
+            writeSnapshot(snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Failed to write metrics snapshot: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The whole registry as a JSON object; latencies are in microseconds
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        json.append("  \"counters\": {");
+        appendLongs(json, snapshotCounters());
+        json.append("},\n  \"gauges\": {");
+        appendLongs(json, snapshotGauges());
+        json.append("},\n  \"latencyMicros\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            json.append(separator).append("    \"").append(e.getKey()).append("\": {\"count\": ").append(h.getCount());
+            json.append(String.format(Locale.ROOT, ", \"mean\": %.1f", h.getMean() / 1e3));
+            for (double p : PERCENTILES) {
+                json.append(", \"").append(percentileKey(p)).append("\": ").append(micros(h.getPercentile(p)));
+            }
+            json.append(", \"max\": ").append(micros(h.getMax())).append('}');
+            separator = ",\n";
+        }
+        json.append(histograms.isEmpty() ? "" : "\n  ").append("}\n}\n");
+        return json.toString();
+    }
+
+    private static void appendLongs(StringBuilder json, Map<String, Long> values) {
+        String separator = "";
+        for (Map.Entry<String, Long> e : values.entrySet()) {
+            json.append(separator).append('"').append(e.getKey()).append("\": ").append(e.getValue());
+            separator = ", ";
+        }
+    }
+
+    private static Map<String, Long> snapshotCounters() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    private static Map<String, Long> snapshotGauges() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    private static String percentileKey(double p) {
+        return p == Math.rint(p) ? "p" + (int) p : "p" + String.valueOf(p).replace(".", "");
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    /**
+     * Latency histogram with logarithmic buckets, in the style of HdrHistogram
+     * Each power of two is split into 8 linear sub-buckets, so any recorded value is
+     * reported within 12.5% from a fixed 500 counters, however many values are recorded.
+     * Recording is a few atomic increments and never blocks
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        private Histogram() {
+        }
+
+        /**
+         * Record one duration in nanoseconds; negative values count as zero
+         */
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            buckets.incrementAndGet(bucketOf(value));
+            count.increment();
+            total.add(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // another thread raised the maximum meanwhile; compare again
+            }
+        }
+
+        /**
+         * Record the time elapsed since a System.nanoTime() reading
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) total.sum() / n;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Upper bound of the bucket holding the given percentile, in nanoseconds
+         * Concurrent recordings may or may not be included
+         */
+        public long getPercentile(double percentile) {
+            long[] snapshot = new long[BUCKETS];
+            long n = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = buckets.get(i);
+                n += snapshot[i];
+            }
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) return Math.min(upperBound(i), getMax());
+            }
+            return getMax();
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            total.reset();
+            max.set(0);
+        }
+
+        static int bucketOf(long value) {
+            if (value < SUB_COUNT) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+            return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+        }
+
+        static long lowerBound(int bucket) {
+            if (bucket < SUB_COUNT) return bucket;
+            int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+            return (1L << exponent) | ((long) (bucket % SUB_COUNT) << (exponent - SUB_BITS));
+        }
+
+        static long upperBound(int bucket) {
+            return bucket + 1 < BUCKETS ? lowerBound(bucket + 1) - 1 : Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * The MXBean registered by registerMBean()
+     */
+    private static final class View implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            return snapshotCounters();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return snapshotGauges();
+        }
+
+        @Override
+        public Map<String, Long> getLatencyMicros() {
+            Map<String, Long> values = new LinkedHashMap<>();
+            histograms.forEach((name, h) -> {
+                values.put(name + ".count", h.getCount());
+                for (double p : PERCENTILES) {
+                    values.put(name + "." + percentileKey(p), micros(h.getPercentile(p)));
+                }
+                values.put(name + ".max", micros(h.getMax()));
+            });
+            return values;
+        }
+
+        @Override
+        public String getSnapshotJson() {
+            return toJson();
+        }
+
+        @Override
+        public void reset() {
+            histograms.values().forEach(Histogram::reset);
+            counters.values().forEach(LongAdder::reset);
+        }
+    }
+}
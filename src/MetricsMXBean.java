@@ -0,0 +1,33 @@
+import java.util.Map;
+
+/**
+ * JMX view of the Metrics registry, registered as NotesApp:type=Metrics
+ * Browse it with jconsole or VisualVM; maps show up as tables keyed by metric name
+ */
+public interface MetricsMXBean {
+    /**
+     * Counter values, such as bytes written or cache hits
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Current values of sampled quantities, such as queue depth
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * Latency summaries in microseconds, keyed "name.p50", "name.p99", "name.max" and so on,
+     * plus "name.count" for the number of recordings
+     */
+    Map<String, Long> getLatencyMicros();
+
+    /**
+     * Everything above as the JSON written to the snapshot file
+     */
+    String getSnapshotJson();
+
+    /**
+     * Start all histograms and counters from zero
+     */
+    void reset();
+}
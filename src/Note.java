@@ -1,8 +1,10 @@
 import java.util.Date;
+import java.util.Objects;
 
 /**
  * Abstract base class for all note types
  * Demonstrates Inheritance and Polymorphism in OOP
+ * Tracks unsaved changes so clean notes are never written again
  */
 public abstract class Note {
     protected int id;
@@ -10,9 +12,17 @@ public abstract class Note {
     protected Date createdDate;
     protected Date modifiedDate;
     
+    // Dirty tracking: the note is dirty while changeCount is ahead of savedChangeCount
+    private int changeCount;
+    private int savedChangeCount;
+    // LSN of the last change recorded in the EditJournal, stored with the note on save
+    private long journalLsn;
+    
     public Note() {
         this.createdDate = new Date();
         this.modifiedDate = new Date();
+        // A new note has never been stored, so it starts out dirty
+        this.changeCount = 1;
     }
     
     public Note(int id, String title, Date createdDate, Date modifiedDate) {
@@ -36,8 +46,9 @@ public abstract class Note {
     }
     
     public void setTitle(String title) {
+        if (Objects.equals(this.title, title)) return;
         this.title = title;
-        this.modifiedDate = new Date();
+        markDirty();
     }
     
     public Date getCreatedDate() {
@@ -56,6 +67,51 @@ public abstract class Note {
         this.modifiedDate = modifiedDate;
     }
     
+    /**
+     * Record a change to the note's persisted state
+     * Subclasses call this from setters that actually change something
+     */
+    protected synchronized void markDirty() {
+        changeCount++;
+        this.modifiedDate = new Date();
+    }
+    
+    /**
+     * Whether the note has changes that have not been written to the database
+     */
+    public synchronized boolean isDirty() {
+        return changeCount != savedChangeCount;
+    }
+    
+    /**
+     * Current change counter; capture it before writing the note
+     */
+    public synchronized int getChangeCount() {
+        return changeCount;
+    }
+    
+    /**
+     * Mark the note clean up to the given change counter
+     * Edits made while the write was in flight keep the note dirty
+     * @param writtenChangeCount Value of getChangeCount() taken before the write
+     */
+    public synchronized void markSaved(int writtenChangeCount) {
+        if (writtenChangeCount - savedChangeCount > 0) {
+            savedChangeCount = writtenChangeCount;
+        }
+    }
+    
+    /**
+     * Journal position of the last change to this note, or 0 if none was journaled
+     */
+    public synchronized long getJournalLsn() {
+        return journalLsn;
+    }
+    
+    public synchronized void setJournalLsn(long journalLsn) {
+        this.journalLsn = journalLsn;
+    }
+    
     /**
      * Abstract method to get note content
      * Demonstrates Polymorphism - each subclass will implement this differently
@@ -72,6 +128,14 @@ public abstract class Note {
      */
     public abstract String getType();
     
+    /**
+     * Whether the note's content or image data is held in memory
+     * Lazy subclasses return false until their payload is first accessed
+     */
+    public boolean isContentLoaded() {
+        return true;
+    }
+    
     @Override
     public String toString() {
         return getType() + ": " + title + " (ID: " + id + ")";
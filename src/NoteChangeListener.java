@@ -0,0 +1,21 @@
+/**
+ * Callback for notes written through NoteDAO
+ * Called on the writing thread after the change has been committed
+ */
+public interface NoteChangeListener {
+    /**
+     * A new note was inserted and has its generated ID
+     */
+    void noteSaved(Note note);
+    
+    /**
+     * An existing note was updated
+     * If the note's payload was never loaded, only its metadata changed
+     */
+    void noteUpdated(Note note);
+    
+    /**
+     * A note was deleted
+     */
+    void noteDeleted(int id);
+}
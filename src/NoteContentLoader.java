@@ -0,0 +1,21 @@
+/**
+ * Source of note payloads that are loaded on demand
+ * Implemented by NoteDAO so lazy notes can fetch their content on first access
+ */
+public interface NoteContentLoader {
+    /**
+     * Load the text content of a note
+     * @param id The ID of the note
+     * @return The stored content, or an empty string if none is stored
+     * @throws DatabaseException if the content cannot be read
+     */
+    String loadContent(int id) throws DatabaseException;
+    
+    /**
+     * Load the image data of a drawing note
+     * @param id The ID of the note
+     * @return The stored image bytes, or null if none are stored
+     * @throws DatabaseException if the image data cannot be read
+     */
+    byte[] loadImageData(int id) throws DatabaseException;
+}
@@ -1,31 +1,124 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Data Access Object for Note operations using JDBC
  * Demonstrates Database Connectivity (JDBC) and implementation of DatabaseOperations interface
  * Uses Collections and Generics with List<Note>
- * Implements thread-safe operations with synchronization
+ * Thread-safe: writes are serialized on the pool's single writer connection,
+ * reads run concurrently on the WAL reader connections
+ * Listing uses the NoteSummary projection so payloads are only read on demand
+ * Fixed queries run on prepared statements cached per pooled connection
+ * Drawing images live in a content-addressed BlobStore; rows hold only the image hash
+ * Text edits are appended to a per-note edit log and folded back into content periodically
  */
-public class NoteDAO implements DatabaseOperations<Note> {
+public class NoteDAO implements DatabaseOperations<Note>, NoteContentLoader {
     private static final String DB_URL = "jdbc:sqlite:notesapp.db";
+    private static final String BLOB_DIR = "notesapp-blobs";
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    // Fold a note's edit log into its content once it has this many edits...
+    private static final int MAX_LOGGED_EDITS = 500;
+    // ...or once the logged text exceeds a quarter of the content, but never below this size
+    private static final int MIN_COMPACTION_SIZE = 16 * 1024;
+    
+    private static final String INSERT_SQL =
+            "INSERT INTO notes (title, content, type, image_hash, created_date, modified_date) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_SQL =
+            "UPDATE notes SET title = ?, content = ?, image_hash = ?, image_data = NULL, modified_date = ?, " +
+            "journal_lsn = max(journal_lsn, ?) WHERE id = ?";
+    private static final String UPDATE_METADATA_SQL =
+            "UPDATE notes SET title = ?, modified_date = ?, journal_lsn = max(journal_lsn, ?) WHERE id = ?";
+    private static final String INSERT_RETURNING_SQL = INSERT_SQL + " RETURNING id";
+    private static final String DELETE_SQL = "DELETE FROM notes WHERE id = ?";
+    private static final String INSERT_BLOB_SQL =
+            "INSERT INTO blobs (hash, size, ref_count) VALUES (?, ?, 0) ON CONFLICT (hash) DO NOTHING";
+    private static final String INSERT_EDIT_SQL =
+            "INSERT INTO note_edits (note_id, seq, position, removed, inserted) VALUES (?, ?, ?, ?, ?)";
+    private static final String SELECT_EDITS_SQL =
+            "SELECT position, removed, inserted FROM note_edits WHERE note_id = ? ORDER BY seq";
+    private static final String EDIT_LOG_STATS_SQL =
+            "SELECT count(*), coalesce(max(seq), 0), total(length(inserted)), " +
+            "(SELECT length(content) FROM notes WHERE id = ?) FROM note_edits WHERE note_id = ?";
+    // Size of the drawing's image without reading it; used by the summary projections
+    private static final String IMAGE_SIZE_SQL = "(SELECT size FROM blobs WHERE blobs.hash = notes.image_hash)";
+    
+    // Latency of each operation, failures included, and payload traffic; see Metrics
+    private static final Metrics.Histogram SAVE_LATENCY = Metrics.histogram("dao.save");
+    private static final Metrics.Histogram SAVE_ALL_LATENCY = Metrics.histogram("dao.saveAll");
+    private static final Metrics.Histogram UPDATE_LATENCY = Metrics.histogram("dao.update");
+    private static final Metrics.Histogram UPDATE_ALL_LATENCY = Metrics.histogram("dao.updateAll");
+    private static final Metrics.Histogram DELETE_LATENCY = Metrics.histogram("dao.delete");
+    private static final Metrics.Histogram DELETE_ALL_LATENCY = Metrics.histogram("dao.deleteAll");
+    private static final Metrics.Histogram COMPACT_ALL_EDITS_LATENCY = Metrics.histogram("dao.compactAllEdits");
+    private static final Metrics.Histogram GET_BY_ID_LATENCY = Metrics.histogram("dao.getById");
+    private static final Metrics.Histogram GET_JOURNAL_LSN_LATENCY = Metrics.histogram("dao.getJournalLsn");
+    private static final Metrics.Histogram GET_MAX_JOURNAL_LSN_LATENCY = Metrics.histogram("dao.getMaxJournalLsn");
+    private static final Metrics.Histogram GET_MAX_ID_LATENCY = Metrics.histogram("dao.getMaxId");
+    private static final Metrics.Histogram GET_ALL_LATENCY = Metrics.histogram("dao.getAll");
+    private static final Metrics.Histogram FOR_EACH_NOTE_LATENCY = Metrics.histogram("dao.forEachNote");
+    private static final Metrics.Histogram GET_ALL_SUMMARIES_LATENCY = Metrics.histogram("dao.getAllSummaries");
+    private static final Metrics.Histogram GET_SUMMARY_PAGE_LATENCY = Metrics.histogram("dao.getSummaryPage");
+    private static final Metrics.Histogram SEARCH_LATENCY = Metrics.histogram("dao.search");
+    private static final Metrics.Histogram LOAD_CONTENT_LATENCY = Metrics.histogram("dao.loadContent");
+    private static final Metrics.Histogram LOAD_IMAGE_DATA_LATENCY = Metrics.histogram("dao.loadImageData");
+    // Text is counted in characters; images in bytes, as stored in the BlobStore
+    private static final LongAdder TEXT_CHARS_READ = Metrics.counter("dao.textCharsRead");
+    private static final LongAdder TEXT_CHARS_WRITTEN = Metrics.counter("dao.textCharsWritten");
+    private static final LongAdder BLOB_BYTES_READ = Metrics.counter("dao.blobBytesRead");
+    private static final LongAdder BLOB_BYTES_WRITTEN = Metrics.counter("dao.blobBytesWritten");
+    
     private static NoteDAO instance;
-    private Connection connection;
+    private final ConnectionPool pool;
+    private final BlobStore blobStore;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private final List<NoteChangeListener> listeners = new CopyOnWriteArrayList<>();
+    // Unreferenced blobs waiting for older readers to finish, with the read generation they wait for
+    private final Map<String, Long> collectedBlobs = new ConcurrentHashMap<>();
+    
+    /**
+     * Receives the rows of forEachNote() one at a time
+     */
+    @FunctionalInterface
+    public interface RowHandler {
+        void accept(NoteRow row) throws IOException;
+    }
     
     // Private constructor for singleton pattern with exception handling
     private NoteDAO() throws DatabaseException {
+        this(DB_URL, Paths.get(BLOB_DIR));
+    }
+    
+    /**
+     * Open a separate database, e.g. for benchmarks; the application uses getInstance()
+     */
+    NoteDAO(String dbUrl, Path blobDir) throws DatabaseException {
+        blobStore = new BlobStore(blobDir);
         try {
             // Load SQLite JDBC driver
             Class.forName("org.sqlite.JDBC");
-            connection = DriverManager.getConnection(DB_URL);
-            initializeDatabase();
+            pool = new ConnectionPool(dbUrl, ConnectionPool.defaultReaderCount());
         } catch (ClassNotFoundException e) {
             throw new DatabaseException("SQLite JDBC driver not found", e);
         } catch (SQLException e) {
             throw new DatabaseException("Failed to connect to database", e);
         }
+        initializeDatabase();
+        // Blobs left unreferenced when the last run ended are safe to delete now
+        collectUnreferencedBlobs();
     }
     
     /**
@@ -49,98 +142,343 @@ public class NoteDAO implements DatabaseOperations<Note> {
                 "content TEXT, " +
                 "type TEXT NOT NULL, " +
                 "image_data BLOB, " +
+                "image_hash TEXT, " +
+                "journal_lsn INTEGER NOT NULL DEFAULT 0, " +
                 "created_date INTEGER NOT NULL, " +
                 "modified_date INTEGER NOT NULL)";
         
-        try (Statement stmt = connection.createStatement()) {
-            stmt.execute(createTableSQL);
+        // One row per stored image file; ref_count is maintained by the triggers below
+        String createBlobsSQL = "CREATE TABLE IF NOT EXISTS blobs (" +
+                "hash TEXT PRIMARY KEY, " +
+                "size INTEGER NOT NULL, " +
+                "ref_count INTEGER NOT NULL) WITHOUT ROWID";
+        String createGarbageIndexSQL =
+                "CREATE INDEX IF NOT EXISTS idx_blobs_unreferenced ON blobs (ref_count) WHERE ref_count <= 0";
+        
+        // Edits typed into text notes since their content was last written in full
+        String createEditsSQL = "CREATE TABLE IF NOT EXISTS note_edits (" +
+                "note_id INTEGER NOT NULL, " +
+                "seq INTEGER NOT NULL, " +
+                "position INTEGER NOT NULL, " +
+                "removed INTEGER NOT NULL, " +
+                "inserted TEXT NOT NULL, " +
+                "PRIMARY KEY (note_id, seq)) WITHOUT ROWID";
+        String[] editTriggerSQL = {
+                "CREATE TRIGGER IF NOT EXISTS note_edits_delete AFTER DELETE ON notes BEGIN " +
+                "DELETE FROM note_edits WHERE note_id = old.id; END",
+                // Writing the full content folds every logged edit into it
+                "CREATE TRIGGER IF NOT EXISTS note_edits_reset AFTER UPDATE OF content ON notes BEGIN " +
+                "DELETE FROM note_edits WHERE note_id = new.id; END"
+        };
+        
+        String[] blobTriggerSQL = {
+                "CREATE TRIGGER IF NOT EXISTS blobs_ref_insert AFTER INSERT ON notes " +
+                "WHEN new.image_hash IS NOT NULL BEGIN " +
+                "UPDATE blobs SET ref_count = ref_count + 1 WHERE hash = new.image_hash; END",
+                "CREATE TRIGGER IF NOT EXISTS blobs_ref_delete AFTER DELETE ON notes " +
+                "WHEN old.image_hash IS NOT NULL BEGIN " +
+                "UPDATE blobs SET ref_count = ref_count - 1 WHERE hash = old.image_hash; END",
+                "CREATE TRIGGER IF NOT EXISTS blobs_ref_update AFTER UPDATE OF image_hash ON notes " +
+                "WHEN old.image_hash IS NOT new.image_hash BEGIN " +
+                "UPDATE blobs SET ref_count = ref_count + 1 WHERE hash = new.image_hash; " +
+                "UPDATE blobs SET ref_count = ref_count - 1 WHERE hash = old.image_hash; END"
+        };
+        
+        // Serves ORDER BY modified_date DESC, id DESC and the keyset cursor in getPage
+        String createIndexSQL = "CREATE INDEX IF NOT EXISTS idx_notes_modified_id ON notes (modified_date, id)";
+        
+        // External-content FTS5 index over title and content, kept in sync by triggers
+        String createFtsSQL = "CREATE VIRTUAL TABLE IF NOT EXISTS notes_fts USING fts5(" +
+                "title, content, content='notes', content_rowid='id', " +
+                "tokenize='unicode61 remove_diacritics 2', prefix='2 3')";
+        String[] ftsTriggerSQL = {
+                "CREATE TRIGGER IF NOT EXISTS notes_fts_insert AFTER INSERT ON notes BEGIN " +
+                "INSERT INTO notes_fts (rowid, title, content) VALUES (new.id, new.title, new.content); END",
+                "CREATE TRIGGER IF NOT EXISTS notes_fts_delete AFTER DELETE ON notes BEGIN " +
+                "INSERT INTO notes_fts (notes_fts, rowid, title, content) VALUES ('delete', old.id, old.title, old.content); END",
+                "CREATE TRIGGER IF NOT EXISTS notes_fts_update AFTER UPDATE OF title, content ON notes " +
+                "WHEN old.title IS NOT new.title OR old.content IS NOT new.content BEGIN " +
+                "INSERT INTO notes_fts (notes_fts, rowid, title, content) VALUES ('delete', old.id, old.title, old.content); " +
+                "INSERT INTO notes_fts (rowid, title, content) VALUES (new.id, new.title, new.content); END"
+        };
+        
+        try {
+            pool.inTransaction(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(createTableSQL);
+                    stmt.execute(createIndexSQL);
+                    
+                    if (!hasColumn(stmt, "notes", "image_hash")) {
+                        stmt.execute("ALTER TABLE notes ADD COLUMN image_hash TEXT");
+                    }
+                    // Last EditJournal record each note's stored state includes
+                    if (!hasColumn(stmt, "notes", "journal_lsn")) {
+                        stmt.execute("ALTER TABLE notes ADD COLUMN journal_lsn INTEGER NOT NULL DEFAULT 0");
+                    }
+                    stmt.execute(createBlobsSQL);
+                    stmt.execute(createGarbageIndexSQL);
+                    for (String triggerSQL : blobTriggerSQL) {
+                        stmt.execute(triggerSQL);
+                    }
+                    moveInlineImagesToBlobStore(conn);
+                    
+                    stmt.execute(createEditsSQL);
+                    for (String triggerSQL : editTriggerSQL) {
+                        stmt.execute(triggerSQL);
+                    }
+                    
+                    boolean ftsExisted;
+                    try (ResultSet rs = stmt.executeQuery(
+                            "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'notes_fts'")) {
+                        ftsExisted = rs.next();
+                    }
+                    stmt.execute(createFtsSQL);
+                    for (String triggerSQL : ftsTriggerSQL) {
+                        stmt.execute(triggerSQL);
+                    }
+                    if (!ftsExisted) {
+                        // Title matches weigh more than body matches in ORDER BY rank
+                        stmt.execute("INSERT INTO notes_fts (notes_fts, rank) VALUES ('rank', 'bm25(10.0, 1.0)')");
+                        // Index notes stored before the search index existed
+                        stmt.execute("INSERT INTO notes_fts (notes_fts) VALUES ('rebuild')");
+                    }
+                }
+                return null;
+            });
         } catch (SQLException e) {
             throw new DatabaseException("Failed to initialize database", e);
         }
     }
     
+    private static boolean hasColumn(Statement stmt, String table, String column) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * One-time migration of images stored inline in notes.image_data into the BlobStore
+     * The update trigger counts each moved image's reference
+     */
+    private void moveInlineImagesToBlobStore(Connection conn) throws SQLException {
+        String selectSQL = "SELECT id, image_data FROM notes WHERE image_data IS NOT NULL AND image_hash IS NULL";
+        String updateSQL = "UPDATE notes SET image_hash = ?, image_data = NULL WHERE id = ?";
+        int moved = 0;
+        try (PreparedStatement select = conn.prepareStatement(selectSQL);
+             PreparedStatement update = conn.prepareStatement(updateSQL);
+             ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                update.setString(1, storeBlob(conn, rs.getBytes("image_data"), new ArrayList<>()));
+                update.setInt(2, rs.getInt("id"));
+                update.executeUpdate();
+                moved++;
+            }
+        }
+        if (moved > 0) {
+            System.out.println("Moved " + moved + " inline image(s) to the blob store");
+        }
+    }
+    
     /**
      * Save a note to database
      * Demonstrates Exception Handling and JDBC operations
      */
     @Override
-    public synchronized void save(Note note) throws DatabaseException {
-        String sql = "INSERT INTO notes (title, content, type, image_data, created_date, modified_date) " +
-                     "VALUES (?, ?, ?, ?, ?, ?)";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, note.getTitle());
-            
-            if (note instanceof TextNote) {
-                pstmt.setString(2, note.getContent());
-                pstmt.setString(3, "TEXT");
-                pstmt.setNull(4, Types.BLOB);
-            } else if (note instanceof DrawingNote) {
-                pstmt.setNull(2, Types.VARCHAR);
-                pstmt.setString(3, "DRAWING");
-                DrawingNote drawingNote = (DrawingNote) note;
-                if (drawingNote.getImageData() != null) {
-                    pstmt.setBytes(4, drawingNote.getImageData());
-                } else {
-                    pstmt.setNull(4, Types.BLOB);
-                }
-            }
-            
-            pstmt.setLong(5, note.getCreatedDate().getTime());
-            pstmt.setLong(6, note.getModifiedDate().getTime());
-            
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new DatabaseException("Creating note failed, no rows affected.");
-            }
-            
-            // Get the last inserted row ID using SQLite-specific function
-            try (Statement stmt = connection.createStatement();
-                 ResultSet rs = stmt.executeQuery("SELECT last_insert_rowid()")) {
-                if (rs.next()) {
+    public void save(Note note) throws DatabaseException {
+        List<String> newBlobs = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            pool.write(conn -> {
+                // RETURNING hands back the new ID in the same round trip as the insert
+                PreparedStatement pstmt = pool.prepare(conn, INSERT_RETURNING_SQL);
+                int changeCount = note.getChangeCount();
+                bindInsert(conn, pstmt, note, newBlobs);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Creating note failed, no ID obtained.");
+                    }
                     note.setId(rs.getInt(1));
-                } else {
-                    throw new DatabaseException("Creating note failed, no ID obtained.");
                 }
-            }
+                markContentSaved(note, changeCount);
+                return null;
+            });
         } catch (SQLException e) {
+            discardBlobFiles(newBlobs);
             throw new DatabaseException("Failed to save note", e);
+        } finally {
+            SAVE_LATENCY.recordSince(start);
+        }
+        for (NoteChangeListener listener : listeners) {
+            listener.noteSaved(note);
         }
     }
     
     /**
-     * Update an existing note
-     * Demonstrates JDBC UPDATE operations with synchronization
+     * Save many notes in a single transaction using JDBC batching
+     * One commit (and one fsync) covers the whole collection instead of one per note
      */
     @Override
-    public synchronized void update(Note note) throws DatabaseException {
-        String sql = "UPDATE notes SET title = ?, content = ?, image_data = ?, modified_date = ? WHERE id = ?";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setString(1, note.getTitle());
-            
-            if (note instanceof TextNote) {
-                pstmt.setString(2, note.getContent());
-                pstmt.setNull(3, Types.BLOB);
-            } else if (note instanceof DrawingNote) {
-                pstmt.setNull(2, Types.VARCHAR);
-                DrawingNote drawingNote = (DrawingNote) note;
-                if (drawingNote.getImageData() != null) {
-                    pstmt.setBytes(3, drawingNote.getImageData());
-                } else {
-                    pstmt.setNull(3, Types.BLOB);
+    public void saveAll(Collection<Note> notes) throws DatabaseException {
+        if (notes.isEmpty()) return;
+        List<Note> pending = new ArrayList<>(notes);
+        int[] changeCounts = new int[pending.size()];
+        int chunkSize = batchSize;
+        List<String> newBlobs = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            pool.inTransaction(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, INSERT_SQL);
+                pstmt.clearBatch();
+                for (int from = 0; from < pending.size(); from += chunkSize) {
+                    List<Note> chunk = pending.subList(from, Math.min(from + chunkSize, pending.size()));
+                    for (int i = 0; i < chunk.size(); i++) {
+                        changeCounts[from + i] = chunk.get(i).getChangeCount();
+                        bindInsert(conn, pstmt, chunk.get(i), newBlobs);
+                        pstmt.addBatch();
+                    }
+                    requireAllAffected(pstmt.executeBatch(), "Creating note failed, no rows affected.");
+                    
+                    // AUTOINCREMENT hands out consecutive IDs to rows inserted by the single
+                    // writer inside one transaction, so the chunk's IDs end at last_insert_rowid()
+                    long lastId = lastInsertRowId(conn);
+                    long firstId = lastId - chunk.size() + 1;
+                    for (int i = 0; i < chunk.size(); i++) {
+                        chunk.get(i).setId((int) (firstId + i));
+                    }
                 }
+                return null;
+            });
+        } catch (SQLException e) {
+            // Rolled back, so none of the IDs assigned above refer to stored rows
+            for (Note note : pending) {
+                note.setId(0);
             }
-            
-            pstmt.setLong(4, note.getModifiedDate().getTime());
-            pstmt.setInt(5, note.getId());
-            
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new DatabaseException("Updating note failed, note not found.");
+            discardBlobFiles(newBlobs);
+            throw new DatabaseException("Failed to save notes", e);
+        } finally {
+            SAVE_ALL_LATENCY.recordSince(start);
+        }
+        markAllSaved(pending, changeCounts);
+        for (NoteChangeListener listener : listeners) {
+            for (Note note : pending) {
+                listener.noteSaved(note);
             }
+        }
+    }
+    
+    /**
+     * Update an existing note
+     * Demonstrates JDBC UPDATE operations on the serialized writer connection
+     */
+    @Override
+    public void update(Note note) throws DatabaseException {
+        WriteSnapshot snapshot = WriteSnapshot.of(note);
+        String sql = snapshot.writesContent ? UPDATE_SQL : UPDATE_METADATA_SQL;
+        
+        List<String> newBlobs = new ArrayList<>();
+        int affectedRows;
+        long start = System.nanoTime();
+        try {
+            affectedRows = pool.inTransaction(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                bindUpdate(conn, pstmt, note, snapshot, newBlobs);
+                int rows = pstmt.executeUpdate();
+                if (rows > 0) {
+                    appendEdits(conn, note.getId(), snapshot.edits);
+                }
+                return rows;
+            });
         } catch (SQLException e) {
+            discardBlobFiles(newBlobs);
             throw new DatabaseException("Failed to update note", e);
+        } finally {
+            UPDATE_LATENCY.recordSince(start);
+        }
+        if (affectedRows == 0) {
+            discardBlobFiles(newBlobs);
+            throw new DatabaseException("Updating note failed, note not found.");
+        }
+        snapshot.markSaved(note);
+        if (note instanceof DrawingNote && note.isContentLoaded()) {
+            collectUnreferencedBlobs();
+        }
+        for (NoteChangeListener listener : listeners) {
+            listener.noteUpdated(note);
+        }
+    }
+    
+    /**
+     * Update many notes in a single transaction using JDBC batching
+     */
+    @Override
+    public void updateAll(Collection<Note> notes) throws DatabaseException {
+        if (notes.isEmpty()) return;
+        List<Note> pending = new ArrayList<>(notes);
+        WriteSnapshot[] snapshots = new WriteSnapshot[pending.size()];
+        int chunkSize = batchSize;
+        List<String> newBlobs = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            pool.inTransaction(conn -> {
+                PreparedStatement full = pool.prepare(conn, UPDATE_SQL);
+                PreparedStatement metadata = pool.prepare(conn, UPDATE_METADATA_SQL);
+                full.clearBatch();
+                metadata.clearBatch();
+                int pendingFull = 0, pendingMetadata = 0;
+                for (int i = 0; i < pending.size(); i++) {
+                    Note note = pending.get(i);
+                    snapshots[i] = WriteSnapshot.of(note);
+                    if (snapshots[i].writesContent) {
+                        bindUpdate(conn, full, note, snapshots[i], newBlobs);
+                        full.addBatch();
+                        pendingFull++;
+                    } else {
+                        bindUpdate(conn, metadata, note, snapshots[i], newBlobs);
+                        metadata.addBatch();
+                        pendingMetadata++;
+                        appendEdits(conn, note.getId(), snapshots[i].edits);
+                    }
+                    if (pendingFull == chunkSize) {
+                        requireAllAffected(full.executeBatch(), "Updating note failed, note not found.");
+                        pendingFull = 0;
+                    }
+                    if (pendingMetadata == chunkSize) {
+                        requireAllAffected(metadata.executeBatch(), "Updating note failed, note not found.");
+                        pendingMetadata = 0;
+                    }
+                }
+                if (pendingFull > 0) {
+                    requireAllAffected(full.executeBatch(), "Updating note failed, note not found.");
+                }
+                if (pendingMetadata > 0) {
+                    requireAllAffected(metadata.executeBatch(), "Updating note failed, note not found.");
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            discardBlobFiles(newBlobs);
+            throw new DatabaseException("Failed to update notes", e);
+        } finally {
+            UPDATE_ALL_LATENCY.recordSince(start);
+        }
+        for (int i = 0; i < pending.size(); i++) {
+            snapshots[i].markSaved(pending.get(i));
+        }
+        for (Note note : pending) {
+            if (note instanceof DrawingNote && note.isContentLoaded()) {
+                collectUnreferencedBlobs();
+                break;
+            }
+        }
+        for (NoteChangeListener listener : listeners) {
+            for (Note note : pending) {
+                listener.noteUpdated(note);
+            }
         }
     }
     
@@ -149,17 +487,454 @@ public class NoteDAO implements DatabaseOperations<Note> {
      * Demonstrates JDBC DELETE operations
      */
     @Override
-    public synchronized void delete(int id) throws DatabaseException {
-        String sql = "DELETE FROM notes WHERE id = ?";
-        
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            int affectedRows = pstmt.executeUpdate();
-            if (affectedRows == 0) {
-                throw new DatabaseException("Deleting note failed, note not found.");
-            }
+    public void delete(int id) throws DatabaseException {
+        int affectedRows;
+        long start = System.nanoTime();
+        try {
+            affectedRows = pool.write(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, DELETE_SQL);
+                pstmt.setInt(1, id);
+                return pstmt.executeUpdate();
+            });
         } catch (SQLException e) {
             throw new DatabaseException("Failed to delete note", e);
+        } finally {
+            DELETE_LATENCY.recordSince(start);
+        }
+        if (affectedRows == 0) {
+            throw new DatabaseException("Deleting note failed, note not found.");
+        }
+        collectUnreferencedBlobs();
+        for (NoteChangeListener listener : listeners) {
+            listener.noteDeleted(id);
+        }
+    }
+    
+    /**
+     * Delete many notes in a single transaction using JDBC batching
+     */
+    @Override
+    public void deleteAll(int[] ids) throws DatabaseException {
+        if (ids.length == 0) return;
+        int chunkSize = batchSize;
+        long start = System.nanoTime();
+        try {
+            pool.inTransaction(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, DELETE_SQL);
+                pstmt.clearBatch();
+                for (int from = 0; from < ids.length; from += chunkSize) {
+                    int to = Math.min(from + chunkSize, ids.length);
+                    for (int i = from; i < to; i++) {
+                        pstmt.setInt(1, ids[i]);
+                        pstmt.addBatch();
+                    }
+                    requireAllAffected(pstmt.executeBatch(), "Deleting note failed, note not found.");
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to delete notes", e);
+        } finally {
+            DELETE_ALL_LATENCY.recordSince(start);
+        }
+        collectUnreferencedBlobs();
+        for (NoteChangeListener listener : listeners) {
+            for (int id : ids) {
+                listener.noteDeleted(id);
+            }
+        }
+    }
+    
+    /**
+     * Register a listener told about every committed save, update and delete
+     * Demonstrates the Observer pattern
+     */
+    public void addChangeListener(NoteChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeChangeListener(NoteChangeListener listener) {
+        listeners.remove(listener);
+    }
+    
+    /**
+     * Set how many rows are sent per JDBC batch by saveAll, updateAll and deleteAll
+     * All chunks still commit together in one transaction
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+    
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    private void bindInsert(Connection conn, PreparedStatement pstmt, Note note, List<String> newBlobs)
+            throws SQLException {
+        pstmt.setString(1, note.getTitle());
+        
+        if (note instanceof DrawingNote) {
+            pstmt.setNull(2, Types.VARCHAR);
+            pstmt.setString(3, "DRAWING");
+            setImageHash(conn, pstmt, 4, (DrawingNote) note, newBlobs);
+        } else {
+            pstmt.setString(2, note.getContent());
+            countChars(TEXT_CHARS_WRITTEN, note.getContent());
+            pstmt.setString(3, "TEXT");
+            pstmt.setNull(4, Types.VARCHAR);
+        }
+        
+        pstmt.setLong(5, note.getCreatedDate().getTime());
+        pstmt.setLong(6, note.getModifiedDate().getTime());
+    }
+    
+    /**
+     * Bind UPDATE_SQL, or UPDATE_METADATA_SQL when the note's content is not written
+     * Title and text come from the snapshot, so they match the journal LSN stored with them
+     */
+    private void bindUpdate(Connection conn, PreparedStatement pstmt, Note note, WriteSnapshot snapshot,
+            List<String> newBlobs) throws SQLException {
+        pstmt.setString(1, snapshot.title);
+        if (!snapshot.writesContent) {
+            pstmt.setLong(2, note.getModifiedDate().getTime());
+            pstmt.setLong(3, snapshot.journalLsn);
+            pstmt.setInt(4, note.getId());
+            return;
+        }
+        
+        if (note instanceof DrawingNote) {
+            pstmt.setNull(2, Types.VARCHAR);
+            setImageHash(conn, pstmt, 3, (DrawingNote) note, newBlobs);
+        } else {
+            pstmt.setString(2, snapshot.content);
+            countChars(TEXT_CHARS_WRITTEN, snapshot.content);
+            pstmt.setNull(3, Types.VARCHAR);
+        }
+        
+        pstmt.setLong(4, note.getModifiedDate().getTime());
+        pstmt.setLong(5, snapshot.journalLsn);
+        pstmt.setInt(6, note.getId());
+    }
+    
+    private void setImageHash(Connection conn, PreparedStatement pstmt, int index, DrawingNote drawingNote,
+            List<String> newBlobs) throws SQLException {
+        if (drawingNote.getImageData() != null) {
+            pstmt.setString(index, storeBlob(conn, drawingNote.getImageData(), newBlobs));
+        } else {
+            pstmt.setNull(index, Types.VARCHAR);
+        }
+    }
+    
+    /**
+     * Make sure the image is in the BlobStore and has a blobs row, and return its hash
+     * An image that is already stored (unchanged, or shared with another note) is not written again
+     * Runs on the writer connection, so it cannot race with collectUnreferencedBlobs
+     * @param newBlobs Receives the hash if a new file was written, so it can be removed on rollback
+     */
+    private String storeBlob(Connection conn, byte[] data, List<String> newBlobs) throws SQLException {
+        String hash = BlobStore.hash(data);
+        collectedBlobs.remove(hash); // referenced again; a later collection marks it afresh
+        try {
+            if (blobStore.put(hash, data)) {
+                newBlobs.add(hash);
+                BLOB_BYTES_WRITTEN.add(data.length);
+            }
+        } catch (IOException e) {
+            throw new SQLException("Failed to store image blob " + hash, e);
+        }
+        PreparedStatement pstmt = pool.prepare(conn, INSERT_BLOB_SQL);
+        pstmt.setString(1, hash);
+        pstmt.setLong(2, data.length);
+        pstmt.executeUpdate();
+        return hash;
+    }
+    
+    private byte[] readBlob(String hash) throws SQLException {
+        if (hash == null) {
+            return null;
+        }
+        try {
+            byte[] data = blobStore.get(hash);
+            if (data != null) BLOB_BYTES_READ.add(data.length);
+            return data;
+        } catch (IOException e) {
+            throw new SQLException("Failed to read image blob " + hash, e);
+        }
+    }
+    
+    /**
+     * Run a read that loads blob files, once more if a file was gone
+     * Collection waits for older reads, but a read that fetched a hash in an earlier call can
+     * still be late; the second attempt reads the row again and gets its current image
+     */
+    private <R> R readLoadingBlobs(ConnectionPool.SqlWork<R> work) throws SQLException {
+        try {
+            return pool.read(work);
+        } catch (SQLException e) {
+            if (!isMissingBlob(e)) throw e;
+            return pool.read(work);
+        }
+    }
+    
+    private static boolean isMissingBlob(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NoSuchFileException) return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Delete blobs no note refers to any more, rows and files both
+     * A read that started before the write dropping the last reference may still see the old
+     * image hash, so an unreferenced blob is first only marked with a new read generation;
+     * this or a later call deletes it once every read older than that has finished. Its row
+     * stays until then, so after a crash the next start collects it.
+     * Failures only leave garbage behind, so they are logged rather than thrown
+     */
+    private void collectUnreferencedBlobs() {
+        try {
+            pool.write(conn -> {
+                long generation = pool.nextGeneration();
+                try (ResultSet rs = pool.prepare(conn, "SELECT hash FROM blobs WHERE ref_count <= 0").executeQuery()) {
+                    while (rs.next()) {
+                        collectedBlobs.putIfAbsent(rs.getString(1), generation);
+                    }
+                }
+                PreparedStatement delete = pool.prepare(conn, "DELETE FROM blobs WHERE hash = ? AND ref_count <= 0");
+                Iterator<Map.Entry<String, Long>> pending = collectedBlobs.entrySet().iterator();
+                while (pending.hasNext()) {
+                    Map.Entry<String, Long> blob = pending.next();
+                    if (!pool.readersReached(blob.getValue())) continue;
+                    pending.remove();
+                    delete.setString(1, blob.getKey());
+                    if (delete.executeUpdate() > 0) {
+                        deleteBlobFile(blob.getKey());
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to collect unreferenced blobs: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Remove files written by a transaction that rolled back, unless another write stored them since
+     */
+    private void discardBlobFiles(List<String> hashes) {
+        if (hashes.isEmpty()) return;
+        try {
+            pool.write(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, "SELECT 1 FROM blobs WHERE hash = ?");
+                for (String hash : hashes) {
+                    pstmt.setString(1, hash);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        if (!rs.next()) {
+                            deleteBlobFile(hash);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            System.err.println("Failed to discard image blobs: " + e.getMessage());
+        }
+    }
+    
+    private void deleteBlobFile(String hash) {
+        try {
+            blobStore.delete(hash);
+        } catch (IOException e) {
+            System.err.println("Failed to delete image blob " + hash + ": " + e.getMessage());
+        }
+    }
+    
+    // Get the last inserted row ID using SQLite-specific function
+    private long lastInsertRowId(Connection conn) throws SQLException {
+        try (ResultSet rs = pool.prepare(conn, "SELECT last_insert_rowid()").executeQuery()) {
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+            throw new SQLException("Creating note failed, no ID obtained.");
+        }
+    }
+    
+    private void markAllSaved(List<Note> notes, int[] changeCounts) {
+        for (int i = 0; i < notes.size(); i++) {
+            markContentSaved(notes.get(i), changeCounts[i]);
+        }
+    }
+    
+    private static void markContentSaved(Note note, int changeCount) {
+        note.markSaved(changeCount);
+        if (note instanceof TextNote) {
+            ((TextNote) note).markContentSaved(changeCount);
+        }
+    }
+    
+    /**
+     * What an update writes for one note, captured atomically with its change counter
+     * A loaded text note with an intact edit log only appends its new edits; any other
+     * loaded note is written in full, and an unloaded one only has its metadata written
+     */
+    private static class WriteSnapshot {
+        final int changeCount;
+        final long journalLsn;
+        final String title;
+        final boolean writesContent;
+        final String content;
+        final List<TextEdit> edits;
+        
+        private WriteSnapshot(Note note, boolean writesContent, String content, List<TextEdit> edits) {
+            this.changeCount = note.getChangeCount();
+            this.journalLsn = note.getJournalLsn();
+            this.title = note.getTitle();
+            this.writesContent = writesContent;
+            this.content = content;
+            this.edits = edits;
+        }
+        
+        static WriteSnapshot of(Note note) {
+            synchronized (note) {
+                if (!note.isContentLoaded()) {
+                    return new WriteSnapshot(note, false, null, null);
+                }
+                if (!(note instanceof TextNote)) {
+                    return new WriteSnapshot(note, true, null, null);
+                }
+                List<TextEdit> edits = ((TextNote) note).sealUnsavedEdits();
+                return new WriteSnapshot(note, edits == null, edits == null ? note.getContent() : null, edits);
+            }
+        }
+        
+        void markSaved(Note note) {
+            if (edits != null) {
+                note.markSaved(changeCount);
+                ((TextNote) note).markEditsSaved(edits.size());
+            } else if (writesContent) {
+                markContentSaved(note, changeCount);
+            } else {
+                note.markSaved(changeCount);
+            }
+        }
+    }
+    
+    /**
+     * Append a text note's new edits to its edit log, folding the log into the
+     * content once it grows past MAX_LOGGED_EDITS or a quarter of the content size
+     */
+    private void appendEdits(Connection conn, int noteId, List<TextEdit> edits) throws SQLException {
+        if (edits == null || edits.isEmpty()) return;
+        
+        long loggedEdits, lastSeq, loggedSize, contentSize;
+        PreparedStatement stats = pool.prepare(conn, EDIT_LOG_STATS_SQL);
+        stats.setInt(1, noteId);
+        stats.setInt(2, noteId);
+        try (ResultSet rs = stats.executeQuery()) {
+            rs.next();
+            loggedEdits = rs.getLong(1);
+            lastSeq = rs.getLong(2);
+            loggedSize = rs.getLong(3);
+            contentSize = rs.getLong(4);
+        }
+        
+        PreparedStatement insert = pool.prepare(conn, INSERT_EDIT_SQL);
+        insert.clearBatch();
+        for (TextEdit edit : edits) {
+            insert.setInt(1, noteId);
+            insert.setLong(2, ++lastSeq);
+            insert.setInt(3, edit.getPosition());
+            insert.setInt(4, edit.getRemoved());
+            insert.setString(5, edit.getInserted());
+            insert.addBatch();
+            loggedSize += edit.getInserted().codePointCount(0, edit.getInserted().length());
+            countChars(TEXT_CHARS_WRITTEN, edit.getInserted());
+        }
+        insert.executeBatch();
+        loggedEdits += edits.size();
+        
+        if (loggedEdits > MAX_LOGGED_EDITS || loggedSize > Math.max(MIN_COMPACTION_SIZE, contentSize / 4)) {
+            compactEdits(conn, noteId);
+        }
+    }
+    
+    /**
+     * Rewrite a note's content with its logged edits applied; the note_edits_reset trigger clears the log
+     */
+    private void compactEdits(Connection conn, int noteId) throws SQLException {
+        String base;
+        PreparedStatement select = pool.prepare(conn, "SELECT content FROM notes WHERE id = ?");
+        select.setInt(1, noteId);
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) return;
+            base = rs.getString(1);
+        }
+        PreparedStatement update = pool.prepare(conn, "UPDATE notes SET content = ? WHERE id = ?");
+        update.setString(1, applyLoggedEdits(conn, noteId, base));
+        update.setInt(2, noteId);
+        update.executeUpdate();
+    }
+    
+    /**
+     * Fold every note's edit log into its content
+     * Called on shutdown so the full-text index, which sees only stored content, catches up
+     */
+    public void compactAllEdits() throws DatabaseException {
+        long start = System.nanoTime();
+        try {
+            pool.inTransaction(conn -> {
+                List<Integer> noteIds = new ArrayList<>();
+                try (ResultSet rs = pool.prepare(conn, "SELECT DISTINCT note_id FROM note_edits").executeQuery()) {
+                    while (rs.next()) {
+                        noteIds.add(rs.getInt(1));
+                    }
+                }
+                for (int noteId : noteIds) {
+                    compactEdits(conn, noteId);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to compact note edits", e);
+        } finally {
+            COMPACT_ALL_EDITS_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Stored content of a text note with its edit log applied
+     */
+    private String applyLoggedEdits(Connection conn, int noteId, String base) throws SQLException {
+        StringBuilder text = null;
+        PreparedStatement pstmt = pool.prepare(conn, SELECT_EDITS_SQL);
+        pstmt.setInt(1, noteId);
+        try (ResultSet rs = pstmt.executeQuery()) {
+            while (rs.next()) {
+                if (text == null) {
+                    text = new StringBuilder(base != null ? base : "");
+                }
+                try {
+                    new TextEdit(rs.getInt(1), rs.getInt(2), rs.getString(3)).applyTo(text);
+                } catch (IndexOutOfBoundsException e) {
+                    throw new SQLException("Edit log of note " + noteId + " does not match its content", e);
+                }
+            }
+        }
+        return text != null ? text.toString() : base;
+    }
+    
+    private static void countChars(LongAdder counter, String text) {
+        if (text != null) counter.add(text.length());
+    }
+    
+    private void requireAllAffected(int[] counts, String message) throws SQLException {
+        for (int count : counts) {
+            if (count == 0) {
+                throw new SQLException(message);
+            }
         }
     }
     
@@ -168,20 +943,87 @@ public class NoteDAO implements DatabaseOperations<Note> {
      * Demonstrates JDBC SELECT operations and Polymorphism
      */
     @Override
-    public synchronized Note getById(int id) throws DatabaseException {
+    public Note getById(int id) throws DatabaseException {
         String sql = "SELECT * FROM notes WHERE id = ?";
         
-        try (PreparedStatement pstmt = connection.prepareStatement(sql)) {
-            pstmt.setInt(1, id);
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return createNoteFromResultSet(rs);
-                } else {
-                    throw new DatabaseException("Note with ID " + id + " not found");
+        Note note;
+        long start = System.nanoTime();
+        try {
+            note = readLoadingBlobs(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? createNoteFromResultSet(conn, rs) : null;
                 }
-            }
+            });
         } catch (SQLException e) {
             throw new DatabaseException("Failed to retrieve note", e);
+        } finally {
+            GET_BY_ID_LATENCY.recordSince(start);
+        }
+        if (note == null) {
+            throw new DatabaseException("Note with ID " + id + " not found");
+        }
+        return note;
+    }
+    
+    /**
+     * Last EditJournal LSN included in the stored note
+     * @return The LSN, or null if there is no such note
+     */
+    public Long getJournalLsn(int id) throws DatabaseException {
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, "SELECT journal_lsn FROM notes WHERE id = ?");
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read journal position", e);
+        } finally {
+            GET_JOURNAL_LSN_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Highest EditJournal LSN stored with any note, so a new journal continues after it
+     */
+    public long getMaxJournalLsn() throws DatabaseException {
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                try (ResultSet rs = pool.prepare(conn, "SELECT coalesce(max(journal_lsn), 0) FROM notes").executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read journal position", e);
+        } finally {
+            GET_MAX_JOURNAL_LSN_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Highest note ID handed out so far, 0 for an empty table
+     * IDs only grow (AUTOINCREMENT), so a larger value means a write committed since
+     */
+    public long getMaxId() throws DatabaseException {
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                try (ResultSet rs = pool.prepare(conn, "SELECT coalesce(max(id), 0) FROM notes").executeQuery()) {
+                    rs.next();
+                    return rs.getLong(1);
+                }
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read the highest note ID", e);
+        } finally {
+            GET_MAX_ID_LATENCY.recordSince(start);
         }
     }
     
@@ -190,56 +1032,324 @@ public class NoteDAO implements DatabaseOperations<Note> {
      * Demonstrates Collections & Generics with List<Note>
      */
     @Override
-    public synchronized List<Note> getAll() throws DatabaseException {
-        List<Note> notes = new ArrayList<>();
-        String sql = "SELECT * FROM notes ORDER BY modified_date DESC";
+    public List<Note> getAll() throws DatabaseException {
+        String sql = "SELECT * FROM notes ORDER BY modified_date DESC, id DESC";
         
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            while (rs.next()) {
-                notes.add(createNoteFromResultSet(rs));
-            }
+        long start = System.nanoTime();
+        try {
+            return readLoadingBlobs(conn -> {
+                List<Note> notes = new ArrayList<>();
+                try (ResultSet rs = pool.prepare(conn, sql).executeQuery()) {
+                    while (rs.next()) {
+                        notes.add(createNoteFromResultSet(conn, rs));
+                    }
+                }
+                return notes;
+            });
         } catch (SQLException e) {
             throw new DatabaseException("Failed to retrieve notes", e);
+        } finally {
+            GET_ALL_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Pass every note to the handler, in ID order, while a forward-only cursor walks the table
+     * Unlike getAll() nothing is collected, so the whole store can be visited in the memory of
+     * one note; images are left in the BlobStore for the handler to stream (NoteRow.openImage).
+     * The rows come from one read snapshot, which keeps a reader connection busy until done.
+     * Images stay readable for the whole walk, as blob collection waits for the read to end
+     */
+    public void forEachNote(RowHandler handler) throws DatabaseException, IOException {
+        String sql = "SELECT id, title, type, content, image_hash, created_date, modified_date, " +
+                     IMAGE_SIZE_SQL + " AS image_size FROM notes ORDER BY id";
+        
+        long start = System.nanoTime();
+        try {
+            pool.read(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setFetchSize(256);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        int id = rs.getInt("id");
+                        String type = rs.getString("type");
+                        String content = "";
+                        if ("TEXT".equals(type)) {
+                            String text = applyLoggedEdits(conn, id, rs.getString("content"));
+                            content = text != null ? text : "";
+                            countChars(TEXT_CHARS_READ, content);
+                        }
+                        String imageHash = "DRAWING".equals(type) ? rs.getString("image_hash") : null;
+                        long imageSize = imageHash != null ? rs.getLong("image_size") : 0;
+                        BLOB_BYTES_READ.add(imageSize);
+                        NoteRow row = new NoteRow(id, rs.getString("title"), type,
+                                new Date(rs.getLong("created_date")), new Date(rs.getLong("modified_date")),
+                                content, imageHash, imageSize, blobStore);
+                        try {
+                            handler.accept(row);
+                        } catch (IOException e) {
+                            // SqlWork can only throw SQLException; carried out and unwrapped below
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to read notes", e);
+        } finally {
+            FOR_EACH_NOTE_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Get summaries of all notes for listing
+     * Only metadata and payload sizes are read; content and image BLOBs stay on disk
+     */
+    public List<NoteSummary> getAllSummaries() throws DatabaseException {
+        String sql = "SELECT id, title, type, created_date, modified_date, " +
+                     "octet_length(content) AS content_size, " + IMAGE_SIZE_SQL + " AS image_size " +
+                     "FROM notes ORDER BY modified_date DESC, id DESC";
+        
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                List<NoteSummary> summaries = new ArrayList<>();
+                try (ResultSet rs = pool.prepare(conn, sql).executeQuery()) {
+                    while (rs.next()) {
+                        summaries.add(createSummaryFromResultSet(rs));
+                    }
+                }
+                return summaries;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to retrieve note summaries", e);
+        } finally {
+            GET_ALL_SUMMARIES_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Get one page of note summaries after the (modified_date, id) cursor
+     * Seeks into idx_notes_modified_id, so page cost does not grow with table size
+     */
+    public List<NoteSummary> getSummaryPage(long afterModified, int afterId, int limit) throws DatabaseException {
+        String sql = "SELECT id, title, type, created_date, modified_date, " +
+                     "octet_length(content) AS content_size, " + IMAGE_SIZE_SQL + " AS image_size " +
+                     "FROM notes WHERE (modified_date, id) < (?, ?) " +
+                     "ORDER BY modified_date DESC, id DESC LIMIT ?";
+        
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                List<NoteSummary> summaries = new ArrayList<>();
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setLong(1, afterModified);
+                pstmt.setInt(2, afterId);
+                pstmt.setInt(3, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        summaries.add(createSummaryFromResultSet(rs));
+                    }
+                }
+                return summaries;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to retrieve note page", e);
+        } finally {
+            GET_SUMMARY_PAGE_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Get one page of notes, newest first, with payloads loaded lazily
+     * Demonstrates keyset pagination - no OFFSET, so deep pages are as cheap as the first
+     */
+    @Override
+    public List<Note> getPage(long afterModified, int afterId, int limit) throws DatabaseException {
+        List<Note> notes = new ArrayList<>();
+        for (NoteSummary summary : getSummaryPage(afterModified, afterId, limit)) {
+            notes.add(summary.toLazyNote(this));
         }
+        return notes;
+    }
+    
+    /**
+     * Full-text search over note titles and content, best matches first
+     * Each word of the query must match, and the last characters typed may be a prefix,
+     * so the search box can query as the user types
+     * @param query Words typed by the user; FTS5 syntax characters are treated as text
+     * @param limit Maximum number of results
+     */
+    public List<SearchResult> search(String query, int limit) throws DatabaseException {
+        String matchExpression = toMatchExpression(query);
+        if (matchExpression.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // Ranking and LIMIT run inside FTS5; snippets and the join only touch the top hits
+        String sql = "SELECT n.id, n.title, n.type, n.created_date, n.modified_date, " +
+                     "octet_length(n.content) AS content_size, " +
+                     "(SELECT size FROM blobs WHERE blobs.hash = n.image_hash) AS image_size, " +
+                     "hits.snippet, hits.rank " +
+                     "FROM (SELECT rowid, rank, snippet(notes_fts, -1, ?, ?, '...', 12) AS snippet " +
+                     "      FROM notes_fts WHERE notes_fts MATCH ? ORDER BY rank LIMIT ?) AS hits " +
+                     "JOIN notes n ON n.id = hits.rowid ORDER BY hits.rank";
         
+        long start = System.nanoTime();
+        try {
+            return pool.read(conn -> {
+                List<SearchResult> results = new ArrayList<>();
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setString(1, SearchResult.HIGHLIGHT_START);
+                pstmt.setString(2, SearchResult.HIGHLIGHT_END);
+                pstmt.setString(3, matchExpression);
+                pstmt.setInt(4, limit);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        results.add(new SearchResult(createSummaryFromResultSet(rs),
+                                rs.getString("snippet"), rs.getDouble("rank")));
+                    }
+                }
+                return results;
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to search notes", e);
+        } finally {
+            SEARCH_LATENCY.recordSince(start);
+        }
+    }
+    
+    /**
+     * Turn free text into an FTS5 MATCH expression: every word quoted, the last one as a prefix
+     */
+    private static String toMatchExpression(String query) {
+        StringBuilder expression = new StringBuilder();
+        String[] words = query.trim().split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            String word = words[i].replace("\"", "");
+            if (word.isEmpty()) continue;
+            if (expression.length() > 0) expression.append(' ');
+            expression.append('"').append(word).append('"');
+            if (i == words.length - 1) expression.append('*');
+        }
+        return expression.toString();
+    }
+    
+    /**
+     * Get all notes with their payloads loaded lazily on first access
+     * Demonstrates Polymorphism - LazyTextNote and LazyDrawingNote are used as plain Notes
+     */
+    public List<Note> getAllLazy() throws DatabaseException {
+        List<Note> notes = new ArrayList<>();
+        for (NoteSummary summary : getAllSummaries()) {
+            notes.add(summary.toLazyNote(this));
+        }
         return notes;
     }
     
+    @Override
+    public String loadContent(int id) throws DatabaseException {
+        String sql = "SELECT content FROM notes WHERE id = ?";
+        
+        long start = System.nanoTime();
+        try {
+            String content = pool.read(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setInt(1, id);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Note with ID " + id + " not found");
+                    }
+                    // Read the edit log while rs is open, so both come from the same snapshot
+                    return applyLoggedEdits(conn, id, rs.getString(1));
+                }
+            });
+            countChars(TEXT_CHARS_READ, content);
+            return content != null ? content : "";
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to load note content", e);
+        } finally {
+            LOAD_CONTENT_LATENCY.recordSince(start);
+        }
+    }
+    
+    @Override
+    public byte[] loadImageData(int id) throws DatabaseException {
+        String sql = "SELECT image_hash FROM notes WHERE id = ?";
+        
+        long start = System.nanoTime();
+        try {
+            // Only the hash comes from the database; the image is read from the BlobStore while
+            // the reader is still held, so collection cannot delete it in between
+            return readLoadingBlobs(conn -> {
+                PreparedStatement pstmt = pool.prepare(conn, sql);
+                pstmt.setInt(1, id);
+                String hash;
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        throw new SQLException("Note with ID " + id + " not found");
+                    }
+                    hash = rs.getString(1);
+                }
+                return readBlob(hash);
+            });
+        } catch (SQLException e) {
+            throw new DatabaseException("Failed to load note image data", e);
+        } finally {
+            LOAD_IMAGE_DATA_LATENCY.recordSince(start);
+        }
+    }
+    
+    private NoteSummary createSummaryFromResultSet(ResultSet rs) throws SQLException {
+        return new NoteSummary(
+                rs.getInt("id"),
+                rs.getString("title"),
+                rs.getString("type"),
+                new Date(rs.getLong("created_date")),
+                new Date(rs.getLong("modified_date")),
+                rs.getLong("content_size"),
+                rs.getLong("image_size"));
+    }
+    
     /**
      * Helper method to create Note object from ResultSet
      * Demonstrates Polymorphism - returns correct subclass based on type
      */
-    private Note createNoteFromResultSet(ResultSet rs) throws SQLException {
+    private Note createNoteFromResultSet(Connection conn, ResultSet rs) throws SQLException {
         int id = rs.getInt("id");
         String title = rs.getString("title");
         String type = rs.getString("type");
         Date createdDate = new Date(rs.getLong("created_date"));
         Date modifiedDate = new Date(rs.getLong("modified_date"));
         
+        Note note;
         if ("TEXT".equals(type)) {
-            String content = rs.getString("content");
+            String content = applyLoggedEdits(conn, id, rs.getString("content"));
             // Use empty string if content is null
             String safeContent = (content != null) ? content : "";
-            return new TextNote(id, title, safeContent, createdDate, modifiedDate);
+            countChars(TEXT_CHARS_READ, safeContent);
+            note = new TextNote(id, title, safeContent, createdDate, modifiedDate);
         } else if ("DRAWING".equals(type)) {
-            byte[] imageData = rs.getBytes("image_data");
-            return new DrawingNote(id, title, imageData, createdDate, modifiedDate);
+            byte[] imageData = readBlob(rs.getString("image_hash"));
+            note = new DrawingNote(id, title, imageData, createdDate, modifiedDate);
         } else {
             // Default to text note if type is unknown
-            return new TextNote(id, title, "", createdDate, modifiedDate);
+            note = new TextNote(id, title, "", createdDate, modifiedDate);
         }
+        note.setJournalLsn(rs.getLong("journal_lsn"));
+        return note;
     }
     
     /**
-     * Close database connection
+     * Close all pooled database connections
      */
-    public synchronized void close() throws DatabaseException {
+    public void close() throws DatabaseException {
+        // Delete what collection was still holding back for readers that have finished now
+        collectUnreferencedBlobs();
         try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-            }
+            pool.close();
         } catch (SQLException e) {
             throw new DatabaseException("Failed to close database connection", e);
         }
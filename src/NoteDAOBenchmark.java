@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Benchmark harness for the NoteDAO persistence path
+ * Seeds a fresh database per size with a mix of text and drawing notes, then measures
+ * save, update, getById, getAll and delete, each single-threaded and contended.
+ * Reports throughput, latency percentiles, allocated bytes per operation and GC
+ * activity, and writes everything as JSON so runs can be compared over time.
+ *
+ * Usage: java -Xmx4g -cp "../lib/*:." NoteDAOBenchmark [--sizes 1000,100000,1000000]
+ *        [--threads 4] [--warmup-ms 2000] [--measure-ms 5000] [--out benchmark-results.json]
+ * getAll materializes every note, so the 1M run needs a few GB of heap
+ * Demonstrates Multithreading, Collections and the management (JMX) API
+ */
+public class NoteDAOBenchmark {
+    private static final double DRAWING_SHARE = 0.05;
+    private static final int DISTINCT_IMAGES = 256;
+    private static final int IMAGE_SIZE = 4 * 1024;
+    private static final int SEED_CHUNK = 10_000;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+
+    private final int threads;
+    private final long warmupMs;
+    private final long measureMs;
+    private final List<String> results = new ArrayList<>();
+
+    /**
+     * One timed operation; the ThreadLocalRandom of the calling thread picks its input
+     */
+    private interface Operation {
+        /**
+         * @return false if there is nothing left to do, which ends the thread's run
+         */
+        boolean run(ThreadLocalRandom random) throws DatabaseException;
+    }
+
+    private NoteDAOBenchmark(int threads, long warmupMs, long measureMs) {
+        this.threads = threads;
+        this.warmupMs = warmupMs;
+        this.measureMs = measureMs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = {1_000, 100_000, 1_000_000};
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        long warmupMs = 2000, measureMs = 5000;
+        Path out = Paths.get("benchmark-results.json");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--sizes": sizes = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--warmup-ms": warmupMs = Long.parseLong(args[i + 1]); break;
+                case "--measure-ms": measureMs = Long.parseLong(args[i + 1]); break;
+                case "--out": out = Paths.get(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        NoteDAOBenchmark benchmark = new NoteDAOBenchmark(threads, warmupMs, measureMs);
+        for (int size : sizes) {
+            benchmark.runSize(size);
+        }
+        BenchmarkSupport.writeJson(out,
+                Collections.singletonMap("availableProcessors", Runtime.getRuntime().availableProcessors()),
+                benchmark.warmupMs, benchmark.measureMs, benchmark.results);
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    private void runSize(int size) throws Exception {
+        Path dbFile = Paths.get("bench-" + size + ".db");
+        Path blobDir = Paths.get("bench-" + size + "-blobs");
+        deleteDatabase(dbFile, blobDir);
+
+        NoteDAO dao = new NoteDAO("jdbc:sqlite:" + dbFile, blobDir);
+        try {
+            long start = System.nanoTime();
+            int[] idRange = seed(dao, size);
+            System.out.printf(Locale.ROOT, "Seeded %,d notes in %.1f s%n", size, (System.nanoTime() - start) / 1e9);
+            int firstId = idRange[0], lastId = idRange[1];
+
+            // Saved notes are collected so the delete benchmark removes only what save added
+            ConcurrentLinkedQueue<Integer> savedIds = new ConcurrentLinkedQueue<>();
+            Operation save = random -> {
+                Note note = newNote(random);
+                dao.save(note);
+                savedIds.add(note.getId());
+                return true;
+            };
+            Operation update = random -> {
+                Note note = dao.getById(randomId(random, firstId, lastId));
+                if (note instanceof TextNote) {
+                    // Typing a word: goes through the edit log like the editor does
+                    ((TextNote) note).applyEdit(TextEdit.insert(0, "edit "));
+                } else {
+                    note.setTitle("Drawing " + random.nextInt());
+                }
+                dao.update(note);
+                return true;
+            };
+            Operation getById = random -> dao.getById(randomId(random, firstId, lastId)) != null;
+            Operation getAll = random -> dao.getAll() != null;
+            Operation delete = random -> {
+                Integer id = savedIds.poll();
+                if (id == null) return false;
+                dao.delete(id);
+                return true;
+            };
+
+            for (int threadCount : new int[] {1, threads}) {
+                run(size, "save", threadCount, save);
+                run(size, "update", threadCount, update);
+                run(size, "getById", threadCount, getById);
+                run(size, "getAll", threadCount, getAll);
+                run(size, "delete", threadCount, delete);
+            }
+        } finally {
+            dao.close();
+        }
+    }
+
+    /**
+     * Fill the database in batched transactions
+     * @return The first and last IDs assigned
+     */
+    private static int[] seed(NoteDAO dao, int size) throws DatabaseException {
+        int firstId = -1, lastId = -1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int from = 0; from < size; from += SEED_CHUNK) {
+            List<Note> chunk = new ArrayList<>();
+            for (int i = from; i < Math.min(size, from + SEED_CHUNK); i++) {
+                chunk.add(newNote(random));
+            }
+            dao.saveAll(chunk);
+            if (firstId < 0) firstId = chunk.get(0).getId();
+            lastId = chunk.get(chunk.size() - 1).getId();
+        }
+        return new int[] {firstId, lastId};
+    }
+
+    private static Note newNote(ThreadLocalRandom random) {
+        if (random.nextDouble() < DRAWING_SHARE) {
+            DrawingNote drawing = new DrawingNote();
+            drawing.setTitle("Drawing " + random.nextInt(1_000_000));
+            // A bounded pool of images, so identical drawings share blobs as they would in use
+            byte[] image = new byte[IMAGE_SIZE];
+            new Random(random.nextInt(DISTINCT_IMAGES)).nextBytes(image);
+            drawing.setImageData(image);
+            return drawing;
+        }
+        TextNote text = new TextNote();
+        text.setTitle("Note " + random.nextInt(1_000_000));
+        StringBuilder content = new StringBuilder();
+        int words = 20 + random.nextInt(60);
+        for (int i = 0; i < words; i++) {
+            content.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        text.setContent(content.toString());
+        return text;
+    }
+
+    private static final String[] WORDS = {
+            "meeting", "notes", "shopping", "list", "milk", "bread", "project", "deadline",
+            "draft", "idea", "call", "email", "review", "budget", "travel", "recipe"
+    };
+
+    private static int randomId(ThreadLocalRandom random, int firstId, int lastId) {
+        return firstId + random.nextInt(lastId - firstId + 1);
+    }
+
+    /**
+     * Warm up, then measure one operation on threadCount threads for the measurement time
+     */
+    private void run(int size, String name, int threadCount, Operation operation) throws Exception {
+        runPhase(threadCount, operation, warmupMs, false);
+
+        List<GarbageCollectorMXBean> gcs = ManagementFactory.getGarbageCollectorMXBeans();
+        long gcCountBefore = 0, gcTimeBefore = 0;
+        for (GarbageCollectorMXBean gc : gcs) {
+            gcCountBefore += Math.max(0, gc.getCollectionCount());
+            gcTimeBefore += Math.max(0, gc.getCollectionTime());
+        }
+        long start = System.nanoTime();
+        PhaseResult phase = runPhase(threadCount, operation, measureMs, true);
+        long elapsed = System.nanoTime() - start;
+        long gcCount = -gcCountBefore, gcTime = -gcTimeBefore;
+        for (GarbageCollectorMXBean gc : gcs) {
+            gcCount += Math.max(0, gc.getCollectionCount());
+            gcTime += Math.max(0, gc.getCollectionTime());
+        }
+
+        long[] latencies = phase.latencies;
+        Arrays.sort(latencies);
+        int ops = latencies.length;
+        double opsPerSecond = ops / (elapsed / 1e9);
+        long allocPerOp = ops > 0 && phase.allocatedBytes >= 0 ? phase.allocatedBytes / ops : -1;
+
+        StringBuilder json = new StringBuilder();
+        json.append(String.format(Locale.ROOT,
+                "{\"notes\": %d, \"benchmark\": \"%s\", \"threads\": %d, \"ops\": %d, \"errors\": %d, " +
+                "\"opsPerSecond\": %.1f, \"allocatedBytesPerOp\": %d, \"gcCount\": %d, \"gcTimeMs\": %d, \"latencyNs\": {",
+                size, name, threadCount, ops, phase.errors, opsPerSecond, allocPerOp, gcCount, gcTime));
+        for (double p : PERCENTILES) {
+            json.append(String.format(Locale.ROOT, "\"p%s\": %d, ",
+                    BenchmarkSupport.formatPercentile(p), BenchmarkSupport.percentile(latencies, p)));
+        }
+        json.append("\"max\": ").append(ops > 0 ? latencies[ops - 1] : 0).append("}}");
+        results.add(json.toString());
+
+        System.out.printf(Locale.ROOT, "%,9d notes  %-8s %2d thread(s)  %,10.0f ops/s  p50 %,8.1f us  p99 %,9.1f us  %,8d B/op%n",
+                size, name, threadCount, opsPerSecond, BenchmarkSupport.percentile(latencies, 50) / 1e3,
+                BenchmarkSupport.percentile(latencies, 99) / 1e3, allocPerOp);
+    }
+
+    private static class PhaseResult {
+        long[] latencies;
+        long allocatedBytes;
+        int errors;
+    }
+
+    private static PhaseResult runPhase(int threadCount, Operation operation, long durationMs, boolean record)
+            throws InterruptedException {
+        com.sun.management.ThreadMXBean threadBean = BenchmarkSupport.allocationBean();
+        long deadline = System.nanoTime() + durationMs * 1_000_000L;
+        List<long[]> perThread = new ArrayList<>();
+        long[] counts = new long[threadCount];
+        long[] allocated = new long[threadCount];
+        AtomicInteger errors = new AtomicInteger();
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int index = t;
+            long[] samples = new long[1 << 16];
+            perThread.add(samples);
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long[] buffer = samples;
+                int count = 0;
+                try {
+                    startGate.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long allocatedBefore = threadBean != null ? BenchmarkSupport.allocatedBytes(threadBean) : -1;
+                while (System.nanoTime() < deadline) {
+                    long begin = System.nanoTime();
+                    try {
+                        if (!operation.run(random)) break;
+                    } catch (DatabaseException | RuntimeException e) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    long latency = System.nanoTime() - begin;
+                    if (record) {
+                        if (count == buffer.length) buffer = Arrays.copyOf(buffer, count * 2);
+                        buffer[count++] = latency;
+                    }
+                }
+                allocated[index] = threadBean != null ? BenchmarkSupport.allocatedBytes(threadBean) - allocatedBefore : -1;
+                counts[index] = count;
+                perThread.set(index, buffer);
+            }, "BenchmarkThread-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        startGate.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        PhaseResult result = new PhaseResult();
+        int total = 0;
+        for (long count : counts) total += count;
+        result.latencies = new long[total];
+        int offset = 0;
+        for (int t = 0; t < threadCount; t++) {
+            System.arraycopy(perThread.get(t), 0, result.latencies, offset, (int) counts[t]);
+            offset += counts[t];
+            result.allocatedBytes = allocated[t] < 0 || result.allocatedBytes < 0 ? -1 : result.allocatedBytes + allocated[t];
+        }
+        result.errors = errors.get();
+        return result;
+    }
+
+    private static void deleteDatabase(Path dbFile, Path blobDir) throws IOException {
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            Files.deleteIfExists(Paths.get(dbFile + suffix));
+        }
+        if (Files.exists(blobDir)) {
+            try (Stream<Path> paths = Files.walk(blobDir)) {
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+}
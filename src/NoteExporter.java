@@ -0,0 +1,335 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streaming export of every note in the database
+ * Notes are read through NoteDAO.forEachNote(), so only the note being written is in memory,
+ * never the whole store as with getAll(). Drawing images are copied from the BlobStore in
+ * fixed-size chunks. Heap use therefore depends on the largest note, not on how many there are.
+ *
+ * Two formats:
+ *   NDJSON - one JSON object per line with id, type, title, created, modified and either the
+ *            text content or the stored drawing data (its StrokeLog) in base64
+ *   ZIP    - "<id> <title>.txt" per text note and "<id> <title>.png" per drawing; drawings
+ *            stored as PNG by older versions are copied as-is, stroke logs are rendered
+ *            (one canvas at a time) and encoded as PNG
+ * The export is written to a temporary file through a buffered file channel and moved into
+ * place when complete, so a failed export never leaves a partial file under the target name.
+ * Throughput is printed every few seconds and returned in the Report.
+ *
+ * Usage: java -cp "../lib/*:." NoteExporter <notes.ndjson|notes.zip> [--format ndjson|zip]
+ * Demonstrates NIO channels, streaming JDBC reads and the java.util.zip API
+ */
+public class NoteExporter {
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 20;
+    // A multiple of 3, so base64 chunks join without padding in between
+    private static final int CHUNK_SIZE = 3 * 16 * 1024;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+    private static final int MAX_NAME_LENGTH = 80;
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    public enum Format {
+        NDJSON(".ndjson"), ZIP(".zip");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * The format a file name's extension asks for, or null
+         */
+        public static Format forFileName(String name) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            for (Format format : values()) {
+                if (lower.endsWith(format.extension)) return format;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * What an export wrote and how fast
+     */
+    public static final class Report {
+        private final long notes;
+        private final long drawings;
+        private final long bytes;
+        private final long nanos;
+
+        private Report(long notes, long drawings, long bytes, long nanos) {
+            this.notes = notes;
+            this.drawings = drawings;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        public long getNotes() {
+            return notes;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            double seconds = Math.max(1e-9, nanos / 1e9);
+            return String.format(Locale.ROOT, "%,d notes (%,d drawings), %.1f MB in %.1f s: %,.0f notes/s, %.1f MB/s",
+                    notes, drawings, bytes / 1e6, seconds, notes / seconds, bytes / seconds / 1e6);
+        }
+    }
+
+    private final NoteDAO noteDAO;
+    // Reused for every image chunk; one export runs on one thread
+    private final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+    private long notes;
+    private long drawings;
+    private long lastProgress;
+
+    public NoteExporter(NoteDAO noteDAO) {
+        this.noteDAO = noteDAO;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args[0].startsWith("--")) {
+            System.err.println("Usage: NoteExporter <notes.ndjson|notes.zip> [--format ndjson|zip]");
+            System.exit(2);
+        }
+        Path target = Paths.get(args[0]);
+        Format format = Format.forFileName(args[0]);
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--format": format = Format.valueOf(args[i + 1].toUpperCase(Locale.ROOT)); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (format == null) {
+            System.err.println("Cannot tell the format from " + target + "; name it .ndjson or .zip or pass --format");
+            System.exit(2);
+        }
+
+        NoteDAO noteDAO = NoteDAO.getInstance();
+        try {
+            Report report = new NoteExporter(noteDAO).export(target, format);
+            System.out.println("Exported " + report + " to " + target);
+        } finally {
+            noteDAO.close();
+        }
+    }
+
+    /**
+     * Write every note to the target file, replacing it
+     * Not reentrant: use one NoteExporter per concurrent export
+     */
+    public Report export(Path target, Format format) throws DatabaseException, IOException {
+        long start = System.nanoTime();
+        notes = 0;
+        drawings = 0;
+        lastProgress = start;
+        Path parent = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE);
+                 OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), OUTPUT_BUFFER_SIZE)) {
+                if (format == Format.NDJSON) {
+                    writeNdjson(out);
+                } else {
+                    writeZip(out);
+                }
+            }
+            long bytes = Files.size(temp);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new Report(notes, drawings, bytes, System.nanoTime() - start);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void writeNdjson(OutputStream out) throws DatabaseException, IOException {
+        Writer json = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        noteDAO.forEachNote(row -> {
+            json.write("{\"id\":");
+            json.write(Integer.toString(row.getId()));
+            json.write(",\"type\":");
+            writeString(json, row.getType());
+            json.write(",\"title\":");
+            writeString(json, row.getTitle());
+            json.write(",\"created\":\"");
+            json.write(row.getCreatedDate().toInstant().toString());
+            json.write("\",\"modified\":\"");
+            json.write(row.getModifiedDate().toInstant().toString());
+            json.write('"');
+            if (row.hasImage()) {
+                json.write(",\"image\":\"");
+                writeBase64(json, row);
+                json.write('"');
+            } else if ("TEXT".equals(row.getType())) {
+                json.write(",\"content\":");
+                writeString(json, row.getContent());
+            }
+            json.write("}\n");
+            exported(row);
+        });
+        json.flush();
+    }
+
+    private void writeZip(OutputStream out) throws DatabaseException, IOException {
+        ZipOutputStream zip = new ZipOutputStream(out, StandardCharsets.UTF_8);
+        noteDAO.forEachNote(row -> {
+            String name = row.getId() + " " + safeFileName(row.getTitle());
+            if (row.hasImage()) {
+                ZipEntry entry = new ZipEntry(name + ".png");
+                entry.setLastModifiedTime(FileTime.fromMillis(row.getModifiedDate().getTime()));
+                // Already compressed; deflating it again only costs time
+                zip.setLevel(Deflater.NO_COMPRESSION);
+                if (isPng(row)) {
+                    zip.putNextEntry(entry);
+                    copyImage(zip, row);
+                    zip.closeEntry();
+                } else {
+                    BufferedImage image = render(row);
+                    if (image != null) {
+                        zip.putNextEntry(entry);
+                        ImageIO.write(image, "png", zip);
+                        zip.closeEntry();
+                    }
+                }
+            } else if ("TEXT".equals(row.getType())) {
+                ZipEntry entry = new ZipEntry(name + ".txt");
+                entry.setLastModifiedTime(FileTime.fromMillis(row.getModifiedDate().getTime()));
+                zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+                zip.putNextEntry(entry);
+                zip.write(row.getContent().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            exported(row);
+        });
+        zip.finish();
+    }
+
+    private void exported(NoteRow row) {
+        notes++;
+        if (row.hasImage()) drawings++;
+        long now = System.nanoTime();
+        if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+            lastProgress = now;
+            System.out.println("Exported " + notes + " notes...");
+        }
+    }
+
+    private boolean isPng(NoteRow row) throws IOException {
+        if (row.getImageSize() < PNG_SIGNATURE.length) return false;
+        ByteBuffer head = ByteBuffer.allocate(PNG_SIGNATURE.length);
+        try (FileChannel image = row.openImage()) {
+            while (head.hasRemaining() && image.read(head) >= 0) {
+                // keep reading until the signature is in
+            }
+        }
+        return !head.hasRemaining() && head.flip().equals(ByteBuffer.wrap(PNG_SIGNATURE));
+    }
+
+    private void copyImage(OutputStream out, NoteRow row) throws IOException {
+        try (FileChannel image = row.openImage()) {
+            chunk.clear();
+            while (image.read(chunk) >= 0) {
+                out.write(chunk.array(), 0, chunk.position());
+                chunk.clear();
+            }
+        }
+    }
+
+    /**
+     * Replay a stored stroke log; it has to be read whole, so this holds one drawing's data and canvas
+     * @return The image, or null for a drawing nothing was ever drawn on
+     */
+    private static BufferedImage render(NoteRow row) throws IOException {
+        byte[] data;
+        try (FileChannel image = row.openImage()) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) image.size());
+            while (buffer.hasRemaining() && image.read(buffer) >= 0) {
+                // keep reading until the buffer is full
+            }
+            data = buffer.array();
+        }
+        TiledCanvas canvas = StrokeLog.fromBytes(data).render();
+        return canvas != null ? canvas.toImage() : null;
+    }
+
+    private void writeBase64(Writer out, NoteRow row) throws IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        try (FileChannel image = row.openImage()) {
+            chunk.clear();
+            boolean eof = false;
+            while (!eof) {
+                // Fill the whole chunk, so only the last one can end in padding
+                while (chunk.hasRemaining() && !eof) {
+                    eof = image.read(chunk) < 0;
+                }
+                if (chunk.position() > 0) {
+                    byte[] encoded = encoder.encode(ByteBuffer.wrap(chunk.array(), 0, chunk.position())).array();
+                    out.write(new String(encoded, StandardCharsets.ISO_8859_1));
+                }
+                chunk.clear();
+            }
+        }
+    }
+
+    private static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    /**
+     * A title shortened and stripped of characters file systems reject
+     */
+    static String safeFileName(String title) {
+        StringBuilder name = new StringBuilder(Math.min(title.length(), MAX_NAME_LENGTH));
+        for (int i = 0; i < title.length() && name.length() < MAX_NAME_LENGTH; i++) {
+            char c = title.charAt(i);
+            name.append(c < 0x20 || "/\\:*?\"<>|".indexOf(c) >= 0 ? '_' : c);
+        }
+        return name.toString().trim();
+    }
+}
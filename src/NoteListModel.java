@@ -0,0 +1,266 @@
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List model for the notes sidebar, backed by the in-memory list of loaded notes
+ * Every change fires one event for just the rows it touched, so saving a note repaints
+ * one row instead of rebuilding the list. Together with a fixed cell height on the JList,
+ * the cost of an update does not grow with the number of notes.
+ * Search results can be shown in place of all notes without touching the full list.
+ * The time each change takes, listeners included, is recorded as ui.listUpdate
+ * Used on the Event Dispatch Thread only
+ * Demonstrates the Swing model/view split and Collections
+ */
+public class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+    private static final Metrics.Histogram UPDATE_LATENCY = Metrics.histogram("ui.listUpdate");
+
+    private final List<Note> notes = new ArrayList<>();
+    private final List<Note> readOnlyNotes = Collections.unmodifiableList(notes);
+    // Search results shown instead of all notes, or null
+    private List<Note> results;
+
+    // A key per note that never changes while it is listed: -1, -2, ... for notes added at
+    // the top, 0, 1, ... for notes appended, so keys sort like rows. A note's row is the
+    // number of keys below its own, minus the removed ones, counted in the tombstone trees
+    private final Map<Note, Integer> keys = new IdentityHashMap<>();
+    private int frontKeys;
+    private int backKeys;
+    private final Tombstones removedFront = new Tombstones(); // by -key
+    private final Tombstones removedBack = new Tombstones();  // by key + 1
+    // Listed notes by ID, so a search hit finds its loaded copy without a scan.
+    // A new note is added once the insert has given it an ID and changed() is called
+    private final Map<Integer, Note> byId = new HashMap<>();
+
+    @Override
+    public int getSize() {
+        return shown().size();
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        return shown().get(index);
+    }
+
+    /**
+     * All loaded notes, newest first, whether or not search results are showing
+     */
+    public List<Note> getNotes() {
+        return readOnlyNotes;
+    }
+
+    public boolean isShowingResults() {
+        return results != null;
+    }
+
+    /**
+     * Show search results in place of all notes
+     */
+    public void showResults(List<Note> searchResults) {
+        replaceShown(new ArrayList<>(searchResults));
+    }
+
+    /**
+     * Go back to showing all notes
+     */
+    public void showAll() {
+        if (results != null) replaceShown(null);
+    }
+
+    /**
+     * Append notes at the bottom, as when the next page is loaded
+     */
+    public void addAll(List<Note> page) {
+        if (page.isEmpty()) return;
+        long start = System.nanoTime();
+        int first = notes.size();
+        for (Note note : page) {
+            keys.put(note, backKeys++);
+            notes.add(note);
+            registerId(note);
+        }
+        if (results == null) fireIntervalAdded(this, first, notes.size() - 1);
+        UPDATE_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Add a new note at the top of the list
+     */
+    public void addFirst(Note note) {
+        long start = System.nanoTime();
+        notes.add(0, note);
+        keys.put(note, -++frontKeys);
+        registerId(note);
+        if (results == null) fireIntervalAdded(this, 0, 0);
+        UPDATE_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Remove a deleted note from the list and from any search results showing
+     */
+    public void remove(Note note) {
+        long start = System.nanoTime();
+        int index = indexInNotes(note);
+        if (index >= 0) {
+            notes.remove(index);
+            byId.remove(note.getId(), note);
+            int key = keys.remove(note);
+            if (key < 0) {
+                removedFront.add(-key);
+            } else {
+                removedBack.add(key + 1);
+            }
+            if (results == null) fireIntervalRemoved(this, index, index);
+        }
+        if (results != null) {
+            int row = indexInResults(note);
+            if (row >= 0) {
+                results.remove(row);
+                fireIntervalRemoved(this, row, row);
+            }
+        }
+        UPDATE_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Repaint the row of a note whose title or type changed
+     */
+    public void changed(Note note) {
+        long start = System.nanoTime();
+        if (indexInNotes(note) >= 0) registerId(note);
+        int row = indexOf(note);
+        if (row >= 0) fireContentsChanged(this, row, row);
+        UPDATE_LATENCY.recordSince(start);
+    }
+
+    /**
+     * Forget all notes, as before reloading them
+     */
+    public void clear() {
+        int size = notes.size();
+        notes.clear();
+        keys.clear();
+        byId.clear();
+        frontKeys = 0;
+        backKeys = 0;
+        removedFront.clear();
+        removedBack.clear();
+        if (results == null && size > 0) fireIntervalRemoved(this, 0, size - 1);
+    }
+
+    /**
+     * Whether the note is among all loaded notes, shown or not
+     */
+    public boolean contains(Note note) {
+        return indexInNotes(note) >= 0;
+    }
+
+    /**
+     * Row of the note in the list as shown, or -1
+     */
+    public int indexOf(Note note) {
+        return results != null ? indexInResults(note) : indexInNotes(note);
+    }
+
+    /**
+     * The listed note with this ID, or null if it is not loaded
+     */
+    public Note getById(int id) {
+        return byId.get(id);
+    }
+
+    private void registerId(Note note) {
+        if (note.getId() > 0) byId.put(note.getId(), note);
+    }
+
+    private List<Note> shown() {
+        return results != null ? results : notes;
+    }
+
+    private void replaceShown(List<Note> shown) {
+        long start = System.nanoTime();
+        int oldSize = getSize();
+        results = shown;
+        int newSize = getSize();
+        // Rows now hold different notes; a removal also drops the selection, as a rebuild would
+        if (oldSize > 0) fireIntervalRemoved(this, 0, oldSize - 1);
+        if (newSize > 0) fireIntervalAdded(this, 0, newSize - 1);
+        UPDATE_LATENCY.recordSince(start);
+    }
+
+    // O(log n): keys below this one, less those removed
+    private int indexInNotes(Note note) {
+        Integer key = keys.get(note);
+        if (key == null) return -1;
+        if (key < 0) {
+            // Front keys below -key's slot are the slots above it, all of them added after it
+            int slot = -key;
+            return (frontKeys - slot) - (removedFront.total() - removedFront.countUpTo(slot));
+        }
+        return frontKeys - removedFront.total() + key - removedBack.countUpTo(key);
+    }
+
+    /**
+     * Fenwick tree over slots 1, 2, ... counting removed notes, growing as slots are used
+     */
+    private static final class Tombstones {
+        private final BitSet removed = new BitSet();
+        private int[] tree = new int[64];
+        private int total;
+
+        void add(int slot) {
+            if (slot >= tree.length) grow(slot);
+            removed.set(slot);
+            total++;
+            for (int i = slot; i < tree.length; i += i & -i) {
+                tree[i]++;
+            }
+        }
+
+        // Removed notes in slots 1..slot
+        int countUpTo(int slot) {
+            int count = 0;
+            for (int i = Math.min(slot, tree.length - 1); i > 0; i -= i & -i) {
+                count += tree[i];
+            }
+            return count;
+        }
+
+        int total() {
+            return total;
+        }
+
+        void clear() {
+            removed.clear();
+            Arrays.fill(tree, 0);
+            total = 0;
+        }
+
+        // Rebuilt in linear time; doubling keeps the cost per removal constant on average
+        private void grow(int slot) {
+            tree = new int[Math.max(tree.length * 2, slot + 1)];
+            for (int i = removed.nextSetBit(1); i >= 0; i = removed.nextSetBit(i + 1)) {
+                tree[i]++;
+            }
+            for (int i = 1; i < tree.length; i++) {
+                int parent = i + (i & -i);
+                if (parent < tree.length) tree[parent] += tree[i];
+            }
+        }
+    }
+
+    // Search results are capped at a few hundred notes; a scan is cheap
+    private int indexInResults(Note note) {
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i) == note) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,85 @@
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * One note as read by NoteDAO.forEachNote(), valid only during the callback it is passed to
+ * Text content is read with the row; a drawing's image is not read at all, only opened as a
+ * channel on request, so a row never costs more memory than the text of one note
+ */
+public class NoteRow {
+    private final int id;
+    private final String title;
+    private final String type;
+    private final Date createdDate;
+    private final Date modifiedDate;
+    private final String content;
+    private final String imageHash;
+    private final long imageSize;
+    private final BlobStore blobStore;
+
+    NoteRow(int id, String title, String type, Date createdDate, Date modifiedDate, String content,
+            String imageHash, long imageSize, BlobStore blobStore) {
+        this.id = id;
+        this.title = title;
+        this.type = type;
+        this.createdDate = createdDate;
+        this.modifiedDate = modifiedDate;
+        this.content = content;
+        this.imageHash = imageHash;
+        this.imageSize = imageSize;
+        this.blobStore = blobStore;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * "TEXT" or "DRAWING", as stored
+     */
+    public String getType() {
+        return type;
+    }
+
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+
+    public Date getModifiedDate() {
+        return modifiedDate;
+    }
+
+    /**
+     * Text with the edit log applied; empty for drawings
+     */
+    public String getContent() {
+        return content;
+    }
+
+    public boolean hasImage() {
+        return imageHash != null;
+    }
+
+    /**
+     * Size of the stored image data in bytes, 0 without an image
+     */
+    public long getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * Open the stored image data (the drawing's StrokeLog, or a raster from older versions)
+     * The caller closes the channel
+     */
+    public FileChannel openImage() throws IOException {
+        if (imageHash == null) {
+            throw new IOException("Note " + id + " has no image");
+        }
+        return blobStore.open(imageHash);
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.Date;
+
+/**
+ * Lightweight projection of a note row used for listing
+ * Holds metadata and payload sizes only - never the content or image bytes
+ */
+public class NoteSummary {
+    private final int id;
+    private final String title;
+    private final String type;
+    private final Date createdDate;
+    private final Date modifiedDate;
+    private final long contentSize;
+    private final long imageSize;
+    
+    public NoteSummary(int id, String title, String type, Date createdDate, Date modifiedDate,
+                       long contentSize, long imageSize) {
+        this.id = id;
+        this.title = title;
+        this.type = type;
+        this.createdDate = createdDate;
+        this.modifiedDate = modifiedDate;
+        this.contentSize = contentSize;
+        this.imageSize = imageSize;
+    }
+    
+    public int getId() {
+        return id;
+    }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public String getType() {
+        return type;
+    }
+    
+    public Date getCreatedDate() {
+        return createdDate;
+    }
+    
+    public Date getModifiedDate() {
+        return modifiedDate;
+    }
+    
+    /**
+     * Size of the stored text content in bytes
+     */
+    public long getContentSize() {
+        return contentSize;
+    }
+    
+    /**
+     * Size of the stored image data in bytes
+     */
+    public long getImageSize() {
+        return imageSize;
+    }
+    
+    /**
+     * Create a Note whose payload is loaded from the loader on first access
+     * Demonstrates Polymorphism - returns the lazy subclass matching the type
+     */
+    public Note toLazyNote(NoteContentLoader loader) {
+        if ("DRAWING".equals(type)) {
+            return new LazyDrawingNote(id, title, createdDate, modifiedDate, imageSize, loader);
+        }
+        return new LazyTextNote(id, title, createdDate, modifiedDate, loader);
+    }
+    
+    @Override
+    public String toString() {
+        return type + ": " + title + " (ID: " + id + ")";
+    }
+}
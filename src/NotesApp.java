@@ -11,12 +11,12 @@ import java.util.Date;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
-import java.awt.Point;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import javax.swing.JSlider;
 import javax.swing.JOptionPane;
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.imageio.ImageIO;
 
 public class NotesApp extends JFrame {
@@ -27,6 +27,15 @@ public class NotesApp extends JFrame {
     private enum Tool {PEN, BRUSH, ERASER, FILL}
     private Tool currentTool = Tool.BRUSH;
     private int brushSize = 6;
+    // Fill tool: how far a color may differ and still be filled, and whether edges are blended
+    private int fillTolerance = 0;
+    private boolean smoothFillEdges = false;
+    // PNG encoding is CPU-heavy file I/O; keep it off the common ForkJoinPool
+    private final ExecutorService imageWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "ImageWriter");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     public NotesApp() {
         // --- Window Setup ---
@@ -167,14 +176,7 @@ public class NotesApp extends JFrame {
                     if (img != null) {
                         // ensure drawing panel exists
                         if (drawingPanel != null) {
-                            BufferedImage canvas = drawingPanel.getCanvasImage();
-                            Graphics2D g = canvas.createGraphics();
-                            // draw image centered
-                            int x = Math.max(0, (canvas.getWidth() - img.getWidth())/2);
-                            int y = Math.max(0, (canvas.getHeight() - img.getHeight())/2);
-                            g.drawImage(img, x, y, null);
-                            g.dispose();
-                            drawingPanel.repaint();
+                            drawingPanel.insertImage(img);
                             // switch to draw tab
                             tabbedPane.setSelectedComponent(drawingPanel);
                         } else {
@@ -310,6 +312,21 @@ public class NotesApp extends JFrame {
         }
         drawMenu.add(sizeMenu);
 
+        // Fill tolerance submenu
+        JMenu toleranceMenu = new JMenu("Fill Tolerance");
+        ButtonGroup toleranceGroup = new ButtonGroup();
+        for (int t : new int[]{0, 16, 32, 64, 128}) {
+            JRadioButtonMenuItem toleranceItem = new JRadioButtonMenuItem(t == 0 ? "Exact" : String.valueOf(t), t==fillTolerance);
+            toleranceItem.addActionListener(ae -> fillTolerance = t);
+            toleranceGroup.add(toleranceItem);
+            toleranceMenu.add(toleranceItem);
+        }
+        drawMenu.add(toleranceMenu);
+
+        JCheckBoxMenuItem smoothFillItem = new JCheckBoxMenuItem("Smooth Fill Edges", smoothFillEdges);
+        smoothFillItem.addActionListener(ae -> smoothFillEdges = smoothFillItem.isSelected());
+        drawMenu.add(smoothFillItem);
+
         JMenuItem colorItem = new JMenuItem("Choose Color");
         colorItem.addActionListener(ae -> {
             Color chosen = JColorChooser.showDialog(this, "Choose Draw Color", drawingPanel.getCurrentColor());
@@ -341,12 +358,19 @@ public class NotesApp extends JFrame {
             if (!f.getName().toLowerCase().endsWith(".png")) {
                 f = new File(f.getParentFile(), f.getName() + ".png");
             }
-            try {
-                ImageIO.write(drawingPanel.getCanvasImage(), "png", f);
-                JOptionPane.showMessageDialog(this, "Saved drawing to " + f.getName());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Failed to save drawing: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            // PNG encoding takes a while on a large canvas; write a snapshot in the background
+            File target = f;
+            TiledCanvas snapshot = drawingPanel.getCanvas().snapshot();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    ImageIO.write(snapshot.toImage(), "png", target);
+                    SwingUtilities.invokeLater(() ->
+                            JOptionPane.showMessageDialog(this, "Saved drawing to " + target.getName()));
+                } catch (IOException ex) {
+                    SwingUtilities.invokeLater(() ->
+                            JOptionPane.showMessageDialog(this, "Failed to save drawing: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE));
+                }
+            }, imageWriter);
         }
     }
 
@@ -397,7 +421,7 @@ public class NotesApp extends JFrame {
 
     // --- DrawingPanel inner class ---
     private static class DrawingPanel extends JPanel {
-        private BufferedImage canvas;
+        private TiledCanvas canvas;
         private Color currentColor = Color.BLACK;
         private int prevX = -1, prevY = -1;
 
@@ -413,16 +437,11 @@ public class NotesApp extends JFrame {
                         int y = e.getY();
                         if (getOuterTool() == Tool.FILL) {
                             floodFill(x, y, currentColor);
+                            repaint();
                         } else {
                             prevX = x; prevY = y;
-                            Graphics2D g = canvas.createGraphics();
-                            if (getOuterTool() == Tool.ERASER) g.setColor(Color.WHITE);
-                            else g.setColor(currentColor);
-                            int s = getOuterBrushSize();
-                            g.fillOval(x - s/2, y - s/2, s, s);
-                            g.dispose();
+                            repaint(canvas.paintDot(getStrokeColor(), getOuterBrushSize(), x, y));
                         }
-                        repaint();
                 }
 
                 @Override
@@ -436,37 +455,28 @@ public class NotesApp extends JFrame {
                 @Override
                 public void mouseDragged(MouseEvent e) {
                     ensureCanvas();
+                        if (prevX == -1) return; // no stroke in progress, e.g. dragging with the fill tool
                         int x = e.getX();
                         int y = e.getY();
-                        Graphics2D g = canvas.createGraphics();
-                        int s = getOuterBrushSize();
-                        if (getOuterTool() == Tool.ERASER) {
-                            g.setColor(Color.WHITE);
-                            g.setStroke(new BasicStroke(s, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                            if (prevX != -1) g.drawLine(prevX, prevY, x, y);
-                        } else {
-                            g.setColor(currentColor);
-                            int stroke = Math.max(1, s);
-                            g.setStroke(new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                            if (prevX != -1) g.drawLine(prevX, prevY, x, y);
-                        }
+                        // Only the segment's bounding box needs repainting
+                        Rectangle dirty = canvas.paintSegment(getStrokeColor(), getOuterBrushSize(), prevX, prevY, x, y);
                         prevX = x;
                         prevY = y;
-                        g.dispose();
-                        repaint();
+                        repaint(dirty);
                 }
             });
         }
 
+        // Grow-only, so making the window smaller never crops the drawing
         private void ensureCanvas() {
-            if (canvas == null || canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight()) {
-                BufferedImage newCanvas = new BufferedImage(Math.max(1, getWidth()), Math.max(1, getHeight()), BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = newCanvas.createGraphics();
-                g.setColor(Color.WHITE);
-                g.fillRect(0, 0, newCanvas.getWidth(), newCanvas.getHeight());
-                if (canvas != null) g.drawImage(canvas, 0, 0, null);
-                g.dispose();
-                canvas = newCanvas;
+            ensureCanvas(getWidth(), getHeight());
+        }
+
+        private void ensureCanvas(int width, int height) {
+            if (canvas == null) {
+                canvas = new TiledCanvas(Math.max(1, width), Math.max(1, height));
+            } else {
+                canvas.grow(width, height); // adds tiles, copies nothing
             }
         }
 
@@ -474,19 +484,36 @@ public class NotesApp extends JFrame {
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
             if (canvas == null) ensureCanvas();
-            g.drawImage(canvas, 0, 0, null);
+            canvas.drawTo(g, g.getClipBounds());
         }
 
         public void clear() {
             ensureCanvas();
-            Graphics2D g = canvas.createGraphics();
-            g.setColor(Color.WHITE);
-            g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            g.dispose();
+            canvas = new TiledCanvas(canvas.getWidth(), canvas.getHeight());
             repaint();
         }
 
+        /**
+         * Draw an image centered on the visible part of the canvas, growing it to fit the image
+         */
+        public void insertImage(BufferedImage img) {
+            ensureCanvas();
+            int x = Math.max(0, (getWidth() - img.getWidth()) / 2);
+            int y = Math.max(0, (getHeight() - img.getHeight()) / 2);
+            ensureCanvas(x + img.getWidth(), y + img.getHeight());
+            repaint(canvas.paint(new Rectangle(x, y, img.getWidth(), img.getHeight()),
+                    g -> g.drawImage(img, x, y, null)));
+        }
+
+        /**
+         * Copy of the drawing as a single image, e.g. for saving it as a PNG
+         */
         public BufferedImage getCanvasImage() {
+            ensureCanvas();
+            return canvas.toImage();
+        }
+
+        public TiledCanvas getCanvas() {
             ensureCanvas();
             return canvas;
         }
@@ -499,6 +526,10 @@ public class NotesApp extends JFrame {
             currentColor = c;
         }
 
+        private Color getStrokeColor() {
+            return getOuterTool() == Tool.ERASER ? Color.WHITE : currentColor;
+        }
+
         // Helpers to access outer class fields
         private Tool getOuterTool() {
             Container p = getParent();
@@ -514,27 +545,24 @@ public class NotesApp extends JFrame {
             return 6;
         }
 
-        // Simple iterative flood fill (BFS) on canvas image
+        private int getOuterFillTolerance() {
+            Container p = getParent();
+            while (p != null && !(p instanceof NotesApp)) p = p.getParent();
+            if (p instanceof NotesApp) return ((NotesApp)p).fillTolerance;
+            return 0;
+        }
+
+        private boolean getOuterSmoothFillEdges() {
+            Container p = getParent();
+            while (p != null && !(p instanceof NotesApp)) p = p.getParent();
+            if (p instanceof NotesApp) return ((NotesApp)p).smoothFillEdges;
+            return false;
+        }
+
+        // Scanline fill over the canvas tiles, see TiledCanvas.fill
         private void floodFill(int x, int y, Color fillColor) {
             ensureCanvas();
-            int w = canvas.getWidth(), h = canvas.getHeight();
-            if (x < 0 || x >= w || y < 0 || y >= h) return;
-            int target = canvas.getRGB(x, y);
-            int replacement = fillColor.getRGB();
-            if (target == replacement) return;
-            Deque<Point> stack = new ArrayDeque<>();
-            stack.push(new Point(x, y));
-            while (!stack.isEmpty()) {
-                Point p = stack.pop();
-                int px = p.x, py = p.y;
-                if (px < 0 || px >= w || py < 0 || py >= h) continue;
-                if (canvas.getRGB(px, py) != target) continue;
-                canvas.setRGB(px, py, replacement);
-                stack.push(new Point(px+1, py));
-                stack.push(new Point(px-1, py));
-                stack.push(new Point(px, py+1));
-                stack.push(new Point(px, py-1));
-            }
+            canvas.fill(x, y, fillColor.getRGB(), getOuterFillTolerance(), getOuterSmoothFillEdges());
         }
     }
 
@@ -13,14 +13,21 @@ import java.util.Date;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
-import java.awt.Point;
-import java.util.ArrayDeque;
-import java.util.Deque;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import javax.swing.JSlider;
 import javax.swing.JOptionPane;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import javax.imageio.ImageIO;
 import javax.swing.table.DefaultTableModel;
 
@@ -30,38 +37,100 @@ import javax.swing.table.DefaultTableModel;
  * Collections & Generics, Multithreading, JDBC
  */
 public class NotesAppWithDB extends JFrame {
-
+    
     private JTextArea textArea;
+    private final TextEditRecorder editRecorder = new TextEditRecorder();
     private DrawingPanel drawingPanel;
     private JTabbedPane tabbedPane;
     private enum Tool {PEN, BRUSH, ERASER, FILL}
     private Tool currentTool = Tool.BRUSH;
     private int brushSize = 6;
+    // Fill tool: how far a color may differ and still be filled, and whether edges are blended
+    private int fillTolerance = 0;
+    private boolean smoothFillEdges = false;
     
     // Database and note management (Collections & Generics)
     private NoteDAO noteDAO;
+    // Note reads and writes go through the cache so every view shares one instance per note
+    private CachingNoteOperations noteCache;
+    // All JDBC work runs here, never on the Event Dispatch Thread
+    private AsyncDatabaseAdapter<Note> asyncNotes;
+    // New notes whose first save is still running, so they are not inserted twice
+    private final Set<Note> savingNotes = new HashSet<>();
+    // Note whose payload is being loaded for the editor
+    private Note pendingOpen;
     private Note currentNote;
+    // Read-only view of the notes in notesListModel, newest first
     private List<Note> allNotes;
-    private AutoSaveManager autoSaveManager;
+    private AutoSaveScheduler autoSaveScheduler;
+    private WriteBehindQueue writeBehindQueue;
+    private EdtWatchdog edtWatchdog;
     private JTextField titleField;
     
     // Notes list panel
     private JList<Note> notesList;
-    private DefaultListModel<Note> notesListModel;
-
-    public NotesAppWithDB() {
-        // Initialize database connection with exception handling
-        try {
-            noteDAO = NoteDAO.getInstance();
-            allNotes = new ArrayList<>();
-            loadAllNotes();
-        } catch (DatabaseException e) {
-            JOptionPane.showMessageDialog(null, 
-                "Failed to initialize database: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
-            System.exit(1);
+    private int singleLineCellHeight;
+    private int snippetCellHeight;
+    private final NoteListModel notesListModel = new NoteListModel();
+    
+    // Keyset cursor for loading further pages of notes as the list is scrolled
+    private static final int PAGE_SIZE = 200;
+    // Auto-save policy: save after this much idle time, and never wait longer than the ceiling
+    private static final long AUTOSAVE_IDLE_MS = 1500;
+    private static final long AUTOSAVE_MAX_LATENCY_MS = 10000;
+    private long pageCursorModified = Long.MAX_VALUE;
+    private int pageCursorId = Integer.MAX_VALUE;
+    private boolean hasMoreNotes = true;
+    private boolean loadingPage;
+    
+    // Full-text search state: while a query is active the list shows its results
+    private static final int SEARCH_LIMIT = 100;
+    private JTextField searchField;
+    private Timer searchTimer;
+    private List<Note> searchResults;
+    private final Map<Integer, String> searchSnippets = new HashMap<>();
+    // Query whose ranked full-text results are showing; later prefix hits for it are dropped
+    private String rankedQuery;
+    
+    // In-memory search index, persisted between runs; once it has caught up with the database
+    // it shows prefix hits while the ranked full-text query for the same text is still running
+    private static final Path INDEX_FILE = Paths.get("notesapp.idx");
+    private InvertedIndex searchIndex;
+    private volatile boolean searchIndexReady;
+    
+    // Every edit is journaled here first, so a crash loses nothing typed before it
+    private static final Path JOURNAL_FILE = Paths.get("notesapp.journal");
+    // Metrics snapshot, rewritten every minute and on exit; the same numbers are in JMX
+    private static final Path METRICS_FILE = Paths.get("notesapp-metrics.json");
+    private static final Metrics.Histogram NOTE_LOAD_LATENCY = Metrics.histogram("ui.noteLoad");
+    // EDT stalls longer than this are sampled and reported to the two files below
+    private static final long EDT_STALL_THRESHOLD_MS = 100;
+    private static final Path EDT_STALL_LOG = Paths.get("notesapp-edt-stalls.log");
+    private static final Path EDT_STALL_STACKS = Paths.get("notesapp-edt-stalls.collapsed");
+    private final EditJournal journal;
+    
+    /**
+     * @param noteDAO Opened by main before the UI starts, so the Event Dispatch Thread never waits on it
+     * @param journal Already replayed into the database, or null to run without one
+     */
+    public NotesAppWithDB(NoteDAO noteDAO, EditJournal journal) {
+        this.noteDAO = noteDAO;
+        this.journal = journal;
+        if (journal != null) {
+            noteDAO.addChangeListener(journal);
+            editRecorder.setJournal(journal);
         }
+        noteCache = new CachingNoteOperations(noteDAO, 1000, 64L * 1024 * 1024);
+        asyncNotes = new AsyncDatabaseAdapter<>(noteCache);
+        writeBehindQueue = new WriteBehindQueue(noteCache, 2000);
+        searchIndex = InvertedIndex.load(INDEX_FILE);
+        noteDAO.addChangeListener(searchIndex);
+        registerMetrics();
+        edtWatchdog = new EdtWatchdog(EDT_STALL_LOG, EDT_STALL_STACKS, EDT_STALL_THRESHOLD_MS, "NotesAppWithDB");
+        edtWatchdog.start();
+        allNotes = notesListModel.getNotes();
+        loadAllNotes(); // completes on the Event Dispatch Thread after the window is built
+        startIndexCatchUp();
         
         // --- Window Setup ---
         setTitle("NotesApp with Database");
@@ -93,14 +162,14 @@ public class NotesAppWithDB extends JFrame {
         textArea.setFont(new Font("Arial", Font.PLAIN, 14));
         textArea.setLineWrap(true);
         textArea.setWrapStyleWord(true);
-
+        
         // Notes panel container
         JPanel notesPanel = new JPanel(new BorderLayout());
         Color bg = new Color(18, 18, 18);
         Color fg = new Color(230, 230, 230);
         Color muted = new Color(150, 150, 150);
         notesPanel.setBackground(bg);
-
+        
         // Top bar: back (left) and undo/redo/check (right)
         JPanel topBar = new JPanel(new BorderLayout());
         topBar.setBackground(bg);
@@ -119,11 +188,11 @@ public class NotesAppWithDB extends JFrame {
         doneBtn.setBackground(bg); 
         doneBtn.setForeground(fg); 
         doneBtn.setBorderPainted(false);
-        doneBtn.addActionListener(e -> saveCurrentNote());
+        doneBtn.addActionListener(e -> saveCurrentNoteNow());
         topRight.add(undoBtn); topRight.add(redoBtn); topRight.add(doneBtn);
         topBar.add(topRight, BorderLayout.EAST);
         notesPanel.add(topBar, BorderLayout.NORTH);
-
+        
         // Title and meta
         JPanel titlePanel = new JPanel(new BorderLayout());
         titlePanel.setBackground(bg);
@@ -140,7 +209,7 @@ public class NotesAppWithDB extends JFrame {
         metaLabel.setBorder(BorderFactory.createEmptyBorder(4,0,8,0));
         titlePanel.add(metaLabel, BorderLayout.SOUTH);
         notesPanel.add(titlePanel, BorderLayout.BEFORE_FIRST_LINE);
-
+        
         // Text area with placeholder behavior
         textArea.setBackground(bg);
         textArea.setForeground(fg);
@@ -156,19 +225,35 @@ public class NotesAppWithDB extends JFrame {
             @Override
             public void focusGained(FocusEvent e) {
                 if (textArea.getText().equals(placeholder)) {
-                    textArea.setText("");
+                    editRecorder.runUnrecorded(() -> textArea.setText(""));
                     textArea.setForeground(fg);
                 }
             }
             @Override
             public void focusLost(FocusEvent e) {
                 if (textArea.getText().isEmpty()) {
-                    textArea.setText(placeholder);
+                    editRecorder.runUnrecorded(() -> textArea.setText(placeholder));
                     textArea.setForeground(muted);
                 }
             }
         });
-
+        
+        // Typing is recorded as edits on the current note, so saves write only the deltas
+        textArea.getDocument().addDocumentListener(editRecorder);
+        editRecorder.setEditListener(this::scheduleAutoSave);
+        titleField.getDocument().addDocumentListener(new DocumentListener() {
+            void update() {
+                // Only the user's typing; loading a note sets the title programmatically
+                if (titleField.isFocusOwner() && currentNote != null) {
+                    setNoteTitle(currentNote, titleField.getText());
+                    scheduleAutoSave();
+                }
+            }
+            public void insertUpdate(DocumentEvent e) { update(); }
+            public void removeUpdate(DocumentEvent e) { update(); }
+            public void changedUpdate(DocumentEvent e) { }
+        });
+        
         // update meta label with date and char count
         DocumentListener docListener = new DocumentListener() {
             void update() {
@@ -182,12 +267,12 @@ public class NotesAppWithDB extends JFrame {
             public void changedUpdate(DocumentEvent e) { update(); }
         };
         textArea.getDocument().addDocumentListener(docListener);
-
+        
         JScrollPane notesScroll = new JScrollPane(textArea);
         notesScroll.setBorder(null);
         notesScroll.getViewport().setBackground(bg);
         notesPanel.add(notesScroll, BorderLayout.CENTER);
-
+        
         // Bottom toolbar (explicit buttons with behavior)
         JPanel bottomBar = new JPanel(new FlowLayout(FlowLayout.LEFT, 12, 8));
         bottomBar.setBackground(bg);
@@ -205,10 +290,10 @@ public class NotesAppWithDB extends JFrame {
             b.setBorderPainted(false);
             bottomBar.add(b);
         }
-
+        
         // Voice: placeholder action
         voiceBtn.addActionListener(ae -> JOptionPane.showMessageDialog(this, "Voice feature not implemented yet.", "Voice", JOptionPane.INFORMATION_MESSAGE));
-
+        
         // Image: choose an image and draw it onto the drawing canvas
         imageBtn.addActionListener(ae -> {
             JFileChooser chooser = new JFileChooser();
@@ -222,14 +307,8 @@ public class NotesAppWithDB extends JFrame {
                     if (img != null) {
                         // ensure drawing panel exists
                         if (drawingPanel != null) {
-                            BufferedImage canvas = drawingPanel.getCanvasImage();
-                            Graphics2D g = canvas.createGraphics();
-                            // draw image centered
-                            int x = Math.max(0, (canvas.getWidth() - img.getWidth())/2);
-                            int y = Math.max(0, (canvas.getHeight() - img.getHeight())/2);
-                            g.drawImage(img, x, y, null);
-                            g.dispose();
-                            drawingPanel.repaint();
+                            drawingPanel.insertImage(img);
+                            scheduleAutoSave();
                             // switch to draw tab
                             tabbedPane.setSelectedComponent(drawingPanel);
                         } else {
@@ -243,12 +322,12 @@ public class NotesAppWithDB extends JFrame {
                 }
             }
         });
-
+        
         // Draw: switch to the Draw tab
         drawBtn.addActionListener(ae -> {
             if (drawingPanel != null) tabbedPane.setSelectedComponent(drawingPanel);
         });
-
+        
         // Checklist: simple input dialog to insert bullet list
         checklistBtn.addActionListener(ae -> {
             String items = JOptionPane.showInputDialog(this, "Enter checklist items separated by commas:", "Checklist", JOptionPane.PLAIN_MESSAGE);
@@ -267,16 +346,16 @@ public class NotesAppWithDB extends JFrame {
                 }
             }
         });
-
+        
         // T: toggle bold for the entire text area font
         styleBtn.addActionListener(ae -> {
             Font fnt = textArea.getFont();
             if (fnt.isBold()) textArea.setFont(fnt.deriveFont(Font.PLAIN));
             else textArea.setFont(fnt.deriveFont(Font.BOLD));
         });
-
+        
         notesPanel.add(bottomBar, BorderLayout.SOUTH);
-
+        
         // Floating color droplet on the left
         JButton colorDrop = new JButton();
         colorDrop.setBackground(new Color(255, 176, 0));
@@ -294,29 +373,23 @@ public class NotesAppWithDB extends JFrame {
         colorDrop.setBounds(12, 120, 28, 28);
         floatHolder.add(colorDrop);
         layered.add(floatHolder, BorderLayout.WEST);
-
+        
         tabbedPane.addTab("Notes", layered);
-
+        
         // Drawing tab
         drawingPanel = new DrawingPanel();
         tabbedPane.addTab("Draw", drawingPanel);
-
+        
         splitPane.setRightComponent(tabbedPane);
         add(splitPane, BorderLayout.CENTER);
-
+        
         // --- Menu Bar Setup ---
         createMenuBar();
         
         // Start auto-save thread (Multithreading)
-        autoSaveManager = new AutoSaveManager(this, 30); // Auto-save every 30 seconds
-        autoSaveManager.start();
-        
-        // Create initial note if no notes exist
-        if (allNotes.isEmpty()) {
-            createNewNote();
-        } else {
-            loadNote(allNotes.get(0));
-        }
+        // Auto-save after a pause in editing, and at least every few seconds while typing
+        autoSaveScheduler = new AutoSaveScheduler(this::autoSave, AUTOSAVE_IDLE_MS, AUTOSAVE_MAX_LATENCY_MS);
+        // The first note opens once the first page arrives (see loadNextPage)
     }
     
     /**
@@ -331,9 +404,31 @@ public class NotesAppWithDB extends JFrame {
         titleLabel.setForeground(Color.WHITE);
         titleLabel.setFont(new Font("Arial", Font.BOLD, 16));
         titleLabel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
-        panel.add(titleLabel, BorderLayout.NORTH);
         
-        notesListModel = new DefaultListModel<>();
+        // Search box: queries the full-text index as the user types
+        searchField = new JTextField();
+        searchField.setBackground(new Color(55, 55, 55));
+        searchField.setForeground(Color.WHITE);
+        searchField.setCaretColor(Color.WHITE);
+        searchField.setToolTipText("Search notes");
+        searchField.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createEmptyBorder(0, 10, 8, 10),
+            BorderFactory.createEmptyBorder(4, 4, 4, 4)));
+        // Debounce keystrokes so a burst of typing runs one query
+        searchTimer = new Timer(150, e -> runSearch());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { searchTimer.restart(); }
+            public void removeUpdate(DocumentEvent e) { searchTimer.restart(); }
+            public void changedUpdate(DocumentEvent e) { searchTimer.restart(); }
+        });
+        
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.setOpaque(false);
+        headerPanel.add(titleLabel, BorderLayout.NORTH);
+        headerPanel.add(searchField, BorderLayout.SOUTH);
+        panel.add(headerPanel, BorderLayout.NORTH);
+        
         notesList = new JList<>(notesListModel);
         notesList.setBackground(new Color(40, 40, 40));
         notesList.setForeground(Color.WHITE);
@@ -347,26 +442,47 @@ public class NotesAppWithDB extends JFrame {
                 super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
                 if (value instanceof Note) {
                     Note note = (Note) value;
-                    setText(note.getTitle() + " [" + note.getType() + "]");
+                    String snippet = searchResults != null ? searchSnippets.get(note.getId()) : null;
+                    if (snippet != null && !snippet.isEmpty()) {
+                        setText("<html>" + escapeHtml(note.getTitle()) + " [" + note.getType() + "]<br>" +
+                                "<font color='#aaaaaa'>" + snippet + "</font></html>");
+                    } else {
+                        setText(note.getTitle() + " [" + note.getType() + "]");
+                    }
                 }
                 setBackground(isSelected ? new Color(70, 70, 70) : new Color(40, 40, 40));
                 setForeground(Color.WHITE);
                 return this;
             }
         });
+        // Fixed cell sizes: otherwise the list renders every note to lay itself out
+        TextNote prototype = new TextNote();
+        prototype.setTitle("Untitled Drawing");
+        notesList.setPrototypeCellValue(prototype);
+        singleLineCellHeight = notesList.getFixedCellHeight();
+        JLabel twoLines = new JLabel("<html>Untitled Note<br>snippet</html>");
+        twoLines.setBorder(new DefaultListCellRenderer().getBorder());
+        snippetCellHeight = Math.max(singleLineCellHeight, twoLines.getPreferredSize().height);
         
         notesList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 Note selectedNote = notesList.getSelectedValue();
-                if (selectedNote != null && selectedNote != currentNote) {
+                if (selectedNote != null && selectedNote != currentNote && selectedNote != pendingOpen) {
                     saveCurrentNote(); // Save current before loading new
-                    loadNote(selectedNote);
+                    openNote(selectedNote);
                 }
             }
         });
         
         JScrollPane scrollPane = new JScrollPane(notesList);
         scrollPane.setBorder(null);
+        // Fetch the next page when the user scrolls close to the end of the list
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            if (!e.getValueIsAdjusting() && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum() - 50) {
+                loadNextPage();
+            }
+        });
         panel.add(scrollPane, BorderLayout.CENTER);
         
         JButton newNoteBtn = new JButton("+ New Note");
@@ -377,37 +493,191 @@ public class NotesAppWithDB extends JFrame {
         newNoteBtn.addActionListener(e -> createNewNote());
         panel.add(newNoteBtn, BorderLayout.SOUTH);
         
-        // Load notes into list
-        refreshNotesList();
-        
         return panel;
     }
     
     /**
-     * Load all notes from database
+     * Load the first page of notes from database
      * Demonstrates Exception Handling and Collections
      */
     private void loadAllNotes() {
-        try {
-            allNotes = noteDAO.getAll();
-            System.out.println("Loaded " + allNotes.size() + " notes from database");
-        } catch (DatabaseException e) {
-            JOptionPane.showMessageDialog(this, 
-                "Failed to load notes: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
-            allNotes = new ArrayList<>();
+        notesListModel.clear();
+        pageCursorModified = Long.MAX_VALUE;
+        pageCursorId = Integer.MAX_VALUE;
+        hasMoreNotes = true;
+        loadNextPage();
+    }
+    
+    /**
+     * Fetch the next page of notes in the background and append it to the list
+     */
+    private void loadNextPage() {
+        if (!hasMoreNotes || loadingPage) return;
+        loadingPage = true;
+        boolean firstPage = allNotes.isEmpty();
+        // Summaries only: content and drawings load when a note is opened
+        whenDone(asyncNotes.getPage(pageCursorModified, pageCursorId, PAGE_SIZE), (page, failure) -> {
+            loadingPage = false;
+            if (failure != null) {
+                hasMoreNotes = false;
+                showDatabaseError("Failed to load notes", failure);
+                if (firstPage && currentNote == null) createNewNote();
+                return;
+            }
+            hasMoreNotes = page.size() == PAGE_SIZE;
+            if (!page.isEmpty()) {
+                Note last = page.get(page.size() - 1);
+                pageCursorModified = last.getModifiedDate().getTime();
+                pageCursorId = last.getId();
+            }
+            // A note saved this session is newer than the cursor and was moved to the top of the
+            // list; a page read before its write reached the database can still hold the old row
+            List<Note> unlisted = new ArrayList<>(page.size());
+            for (Note note : page) {
+                if (notesListModel.getById(note.getId()) == null) unlisted.add(note);
+            }
+            notesListModel.addAll(unlisted);
+            System.out.println("Loaded " + page.size() + " notes from database");
+            
+            // Create initial note if no notes exist
+            if (firstPage && currentNote == null && pendingOpen == null) {
+                if (allNotes.isEmpty()) {
+                    createNewNote();
+                } else {
+                    openNote(allNotes.get(0));
+                }
+            }
+        });
+    }
+    
+    /**
+     * Run a UI callback on the Event Dispatch Thread once a background database call finishes
+     * The callback gets the result, or the unwrapped failure
+     */
+    private <R> void whenDone(CompletableFuture<R> future, BiConsumer<R, Throwable> callback) {
+        future.whenComplete((result, failure) -> SwingUtilities.invokeLater(() ->
+                callback.accept(result, failure != null ? AsyncDatabaseAdapter.unwrap(failure) : null)));
+    }
+    
+    private void showDatabaseError(String action, Throwable failure) {
+        JOptionPane.showMessageDialog(this, 
+            action + ": " + failure.getMessage(), 
+            "Database Error", 
+            JOptionPane.ERROR_MESSAGE);
+    }
+    
+    /**
+     * Show the search results, or all notes when there are none, in the notes list
+     * Rows with a snippet need two lines, so the fixed cell height follows the mode
+     */
+    private void showSearchResults() {
+        boolean snippets = searchResults != null && !searchSnippets.isEmpty();
+        notesList.setFixedCellHeight(snippets ? snippetCellHeight : singleLineCellHeight);
+        if (searchResults != null) {
+            notesListModel.showResults(searchResults);
+        } else {
+            notesListModel.showAll();
         }
     }
     
     /**
-     * Refresh the notes list display
+     * Run the search box query and show ranked results in the notes list
+     * When the in-memory index is ready its prefix hits show first, without snippets; the
+     * full-text query always follows and replaces them with bm25-ranked, snippeted results.
+     * An empty query goes back to showing all notes
      */
-    private void refreshNotesList() {
-        notesListModel.clear();
-        for (Note note : allNotes) {
-            notesListModel.addElement(note);
+    private void runSearch() {
+        String query = searchField.getText().trim();
+        searchSnippets.clear();
+        rankedQuery = null;
+        if (query.isEmpty()) {
+            searchResults = null;
+            showSearchResults();
+            return;
         }
+        if (searchIndexReady) {
+            // Postings may be decoded from the mapped segment, so keep it off the EDT too
+            whenDone(asyncNotes.submit(() -> searchIndex.search(query, SEARCH_LIMIT)), (hits, failure) -> {
+                if (failure != null) {
+                    System.err.println("Index search failed: " + failure.getMessage());
+                    return;
+                }
+                if (!query.equals(searchField.getText().trim()) || query.equals(rankedQuery)) return;
+                List<Note> results = new ArrayList<>();
+                for (InvertedIndex.Hit hit : hits) {
+                    results.add(findLoadedNote(hit.getSummary()));
+                }
+                searchSnippets.clear();
+                searchResults = results;
+                showSearchResults();
+            });
+        }
+        whenDone(asyncNotes.submit(() -> noteDAO.search(query, SEARCH_LIMIT)), (hits, failure) -> {
+            if (failure != null) {
+                System.err.println("Search failed: " + failure.getMessage());
+                return;
+            }
+            if (!query.equals(searchField.getText().trim())) return; // superseded by newer typing
+            List<Note> results = new ArrayList<>();
+            searchSnippets.clear();
+            for (SearchResult result : hits) {
+                results.add(findLoadedNote(result.getSummary()));
+                searchSnippets.put(result.getSummary().getId(), result.getSnippetHtml());
+            }
+            rankedQuery = query;
+            searchResults = results;
+            showSearchResults();
+        });
+    }
+    
+    /**
+     * Bring the saved search index up to date on a background thread
+     * Until it finishes, the search box shows only the database's full-text results
+     */
+    private void startIndexCatchUp() {
+        Thread thread = new Thread(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                int changed = searchIndex.catchUp(noteDAO.getAllSummaries(), noteDAO);
+                searchIndexReady = true;
+                System.out.println("Search index ready: " + searchIndex.size() + " notes, " +
+                        changed + " re-indexed in " + (System.currentTimeMillis() - start) + " ms");
+            } catch (DatabaseException e) {
+                System.err.println("Search index catch-up failed: " + e.getMessage());
+            }
+        }, "IndexCatchUpThread");
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    /**
+     * Reuse the note already in the list so edits are not split across two copies
+     */
+    private Note findLoadedNote(NoteSummary summary) {
+        Note listed = notesListModel.getById(summary.getId());
+        if (listed != null) return listed;
+        Note cached = noteCache.peek(summary.getId());
+        return cached != null ? cached : summary.toLazyNote(noteDAO);
+    }
+    
+    private static String escapeHtml(String text) {
+        return text == null ? "" : text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+    
+    /**
+     * Publish cache and queue state next to the latencies the components record themselves,
+     * through JMX and the snapshot file
+     */
+    private void registerMetrics() {
+        Metrics.gauge("cache.hits", () -> noteCache.getStats().getHits());
+        Metrics.gauge("cache.misses", () -> noteCache.getStats().getMisses());
+        Metrics.gauge("cache.evictions", () -> noteCache.getStats().getEvictions());
+        Metrics.gauge("cache.entries", () -> noteCache.getStats().getEntries());
+        Metrics.gauge("cache.weightBytes", () -> noteCache.getStats().getWeight());
+        Metrics.gauge("writeBehind.queueDepth", writeBehindQueue::size);
+        Metrics.gauge("ui.listedNotes", () -> allNotes.size());
+        Metrics.registerMBean();
+        Metrics.startSnapshots(METRICS_FILE, 60, TimeUnit.SECONDS);
     }
     
     /**
@@ -423,87 +693,189 @@ public class NotesAppWithDB extends JFrame {
         
         currentNote = newNote;
         titleField.setText(newNote.getTitle());
-        textArea.setText("");
+        editRecorder.setTarget(newNote);
+        editRecorder.runUnrecorded(() -> textArea.setText(""));
+        notesListModel.addFirst(newNote); // Add to beginning
+        notesList.setSelectedValue(newNote, true);
         
-        // Save to database immediately
-        try {
-            noteDAO.save(newNote);
-            allNotes.add(0, newNote); // Add to beginning
-            refreshNotesList();
-            notesList.setSelectedValue(newNote, true);
-        } catch (DatabaseException e) {
-            JOptionPane.showMessageDialog(this, 
-                "Failed to create note: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
+        // Save to database in the background; the note is listed right away
+        saveNewNote(newNote);
+    }
+    
+    /**
+     * Create a new drawing note and switch to the drawing tab
+     */
+    private void createNewDrawing() {
+        saveCurrentNote();
+        
+        DrawingNote newNote = new DrawingNote();
+        newNote.setTitle("Untitled Drawing");
+        
+        currentNote = newNote;
+        titleField.setText(newNote.getTitle());
+        editRecorder.setTarget(null);
+        drawingPanel.load(DecodedDrawing.decode(null));
+        tabbedPane.setSelectedIndex(1);
+        notesListModel.addFirst(newNote);
+        notesList.setSelectedValue(newNote, true);
+        
+        saveNewNote(newNote);
+    }
+    
+    /**
+     * Insert a note that has no ID yet, off the Event Dispatch Thread
+     * Edits made while the insert runs are queued for the write-behind thread afterwards
+     */
+    private void saveNewNote(Note note) {
+        if (!savingNotes.add(note)) return; // already being inserted
+        whenDone(asyncNotes.save(note), (ignored, failure) -> {
+            savingNotes.remove(note);
+            if (failure != null) {
+                showDatabaseError("Failed to save note", failure);
+                return;
+            }
+            System.out.println("Note saved: " + note.getTitle());
+            writeBehindQueue.enqueue(note);
+            notesListModel.changed(note);
+        });
+    }
+    
+    /**
+     * Show a note in the editor, loading its content or drawing in the background first if needed
+     */
+    private void openNote(Note note) {
+        long start = System.nanoTime();
+        // A drawing is always decoded in the background, even when its bytes are already loaded
+        if (note.isContentLoaded() && !(note instanceof DrawingNote)) {
+            loadNote(note, null);
+            NOTE_LOAD_LATENCY.recordSince(start);
+            return;
         }
+        // Detach the editor so nothing typed meanwhile lands in the previous note
+        pendingOpen = note;
+        currentNote = null;
+        editRecorder.setTarget(null);
+        textArea.setEditable(false);
+        CompletableFuture<DecodedDrawing> loading = asyncNotes.submit(() -> {
+            if (note instanceof DrawingNote) {
+                ((DrawingNote) note).getImageData();
+            } else {
+                note.getContent();
+            }
+            return note;
+        }).thenApplyAsync(loaded -> loaded instanceof DrawingNote
+                ? DecodedDrawing.decode(((DrawingNote) loaded).getImageData()) : null, asyncNotes.getExecutor());
+        whenDone(loading, (drawing, failure) -> {
+            if (pendingOpen != note) return; // another note was selected meanwhile
+            pendingOpen = null;
+            textArea.setEditable(true);
+            if (failure != null) {
+                showDatabaseError("Failed to load note", failure);
+                return;
+            }
+            loadNote(note, drawing);
+            NOTE_LOAD_LATENCY.recordSince(start);
+        });
     }
     
     /**
      * Load a note into the editor
      * Demonstrates Polymorphism - handling different note types
+     * @param drawing The decoded drawing of a DrawingNote, null for other notes
      */
-    private void loadNote(Note note) {
+    private void loadNote(Note note, DecodedDrawing drawing) {
         currentNote = note;
         titleField.setText(note.getTitle());
         
         if (note instanceof TextNote) {
             TextNote textNote = (TextNote) note;
-            textArea.setText(textNote.getContent());
+            editRecorder.setTarget(textNote);
+            editRecorder.runUnrecorded(() -> textArea.setText(textNote.getContent()));
             tabbedPane.setSelectedIndex(0); // Switch to notes tab
         } else if (note instanceof DrawingNote) {
-            DrawingNote drawingNote = (DrawingNote) note;
-            // Load drawing if available
+            editRecorder.setTarget(null);
+            drawingPanel.load(drawing);
             tabbedPane.setSelectedIndex(1); // Switch to drawing tab
         }
     }
     
     /**
      * Save current note to database
+     * Copies the editor into the note; only a note that actually changed is queued
+     * for the write-behind thread, so saving a clean note costs no I/O
      * Demonstrates Exception Handling and JDBC operations
      */
     private void saveCurrentNote() {
         if (currentNote == null) return;
         
-        try {
-            currentNote.setTitle(titleField.getText());
-            
-            if (currentNote instanceof TextNote) {
-                TextNote textNote = (TextNote) currentNote;
-                String text = textArea.getText();
-                if (!text.equals("Start typing")) {
+        setNoteTitle(currentNote, titleField.getText());
+        
+        if (currentNote instanceof TextNote) {
+            TextNote textNote = (TextNote) currentNote;
+            String text = textArea.getText();
+            if (!text.equals("Start typing")) {
+                if (journal != null) {
+                    journal.setContent(textNote, text);
+                } else {
                     textNote.setContent(text);
                 }
             }
-            
-            if (currentNote.getId() > 0) {
-                noteDAO.update(currentNote);
-                System.out.println("Note updated: " + currentNote.getTitle());
-            } else {
-                noteDAO.save(currentNote);
-                System.out.println("Note saved: " + currentNote.getTitle());
-            }
-            
-            refreshNotesList();
-        } catch (DatabaseException e) {
-            JOptionPane.showMessageDialog(this, 
-                "Failed to save note: " + e.getMessage(), 
-                "Database Error", 
-                JOptionPane.ERROR_MESSAGE);
+        } else if (currentNote instanceof DrawingNote && drawingPanel.isModified()) {
+            // The stroke log grows with what was drawn, not with the canvas
+            ((DrawingNote) currentNote).setImageData(drawingPanel.encodeDrawing());
+        }
+        
+        if (!currentNote.isDirty()) return;
+        
+        if (currentNote.getId() > 0) {
+            writeBehindQueue.enqueue(currentNote);
+            System.out.println("Note queued for saving: " + currentNote.getTitle());
+        } else {
+            saveNewNote(currentNote);
+        }
+        
+        if (notesListModel.contains(currentNote)) {
+            notesListModel.changed(currentNote); // the title may have changed
+        } else {
+            // Opened from search results before its page was loaded. Saving moves it above
+            // the page cursor, so no later page will list it
+            notesListModel.addFirst(currentNote);
+        }
+    }
+    
+    private void setNoteTitle(Note note, String title) {
+        if (journal != null) {
+            journal.setTitle(note, title);
+        } else {
+            note.setTitle(title);
         }
     }
     
     /**
-     * Auto-save method called by background thread
-     * Demonstrates Synchronization for thread-safe operations
+     * Explicit save from the UI: queue the note and write it without waiting for the delay
      */
-    public synchronized void autoSave() {
-        SwingUtilities.invokeLater(() -> {
-            if (currentNote != null) {
-                saveCurrentNote();
-                System.out.println("Auto-save completed");
-            }
-        });
+    private void saveCurrentNoteNow() {
+        saveCurrentNote();
+        writeBehindQueue.requestFlush();
+    }
+    
+    /**
+     * Called for every edit to the title, text or drawing
+     */
+    private void scheduleAutoSave() {
+        if (autoSaveScheduler != null) {
+            autoSaveScheduler.changed();
+        }
+    }
+    
+    /**
+     * Auto-save action run by AutoSaveScheduler on the Event Dispatch Thread
+     * The scheduler already waited for a pause in editing, so the write goes out straight away
+     */
+    private void autoSave() {
+        if (currentNote != null) {
+            saveCurrentNoteNow();
+        }
     }
     
     /**
@@ -517,41 +889,48 @@ public class NotesAppWithDB extends JFrame {
             "Are you sure you want to delete this note?", 
             "Confirm Delete", 
             JOptionPane.YES_NO_OPTION);
-            
+        
         if (confirm == JOptionPane.YES_OPTION) {
-            try {
-                noteDAO.delete(selectedNote.getId());
-                allNotes.remove(selectedNote);
-                refreshNotesList();
+            writeBehindQueue.discard(selectedNote);
+            whenDone(asyncNotes.delete(selectedNote.getId()), (ignored, failure) -> {
+                if (failure != null) {
+                    showDatabaseError("Failed to delete note", failure);
+                    return;
+                }
+                notesListModel.remove(selectedNote);
+                if (searchResults != null) {
+                    searchResults.remove(selectedNote);
+                }
                 
-                if (currentNote == selectedNote) {
+                if (currentNote == selectedNote || pendingOpen == selectedNote) {
+                    pendingOpen = null;
+                    currentNote = null;
                     if (!allNotes.isEmpty()) {
-                        loadNote(allNotes.get(0));
+                        openNote(allNotes.get(0));
                     } else {
                         createNewNote();
                     }
                 }
-            } catch (DatabaseException e) {
-                JOptionPane.showMessageDialog(this, 
-                    "Failed to delete note: " + e.getMessage(), 
-                    "Database Error", 
-                    JOptionPane.ERROR_MESSAGE);
-            }
+            });
         }
     }
-
+    
     private void createMenuBar() {
         JMenuBar menuBar = new JMenuBar();
-
+        
         // --- File Menu ---
         JMenu fileMenu = new JMenu("File");
-
+        
         JMenuItem newItem = new JMenuItem("New Note");
         newItem.addActionListener(e -> createNewNote());
         fileMenu.add(newItem);
-
+        
+        JMenuItem newDrawingItem = new JMenuItem("New Drawing");
+        newDrawingItem.addActionListener(e -> createNewDrawing());
+        fileMenu.add(newDrawingItem);
+        
         JMenuItem saveItem = new JMenuItem("Save");
-        saveItem.addActionListener(e -> saveCurrentNote());
+        saveItem.addActionListener(e -> saveCurrentNoteNow());
         fileMenu.add(saveItem);
         
         JMenuItem deleteItem = new JMenuItem("Delete");
@@ -559,23 +938,24 @@ public class NotesAppWithDB extends JFrame {
         fileMenu.add(deleteItem);
         
         JMenuItem refreshItem = new JMenuItem("Refresh List");
-        refreshItem.addActionListener(e -> {
-            loadAllNotes();
-            refreshNotesList();
-        });
+        refreshItem.addActionListener(e -> loadAllNotes());
         fileMenu.add(refreshItem);
-
+        
+        JMenuItem exportItem = new JMenuItem("Export...");
+        exportItem.addActionListener(e -> exportNotes());
+        fileMenu.add(exportItem);
+        
         fileMenu.addSeparator();
-
+        
         JMenuItem exitItem = new JMenuItem("Exit");
         exitItem.addActionListener(ae -> closeApplication());
         fileMenu.add(exitItem);
-
+        
         menuBar.add(fileMenu);
-
+        
         // --- Draw Menu ---
         JMenu drawMenu = new JMenu("Draw");
-
+        
         // Tool selection submenu
         JMenu toolMenu = new JMenu("Tool");
         ButtonGroup toolGroup = new ButtonGroup();
@@ -590,7 +970,7 @@ public class NotesAppWithDB extends JFrame {
         eraserTool.addActionListener(ae -> currentTool = Tool.ERASER);
         fillTool.addActionListener(ae -> currentTool = Tool.FILL);
         drawMenu.add(toolMenu);
-
+        
         // Brush size submenu
         JMenu sizeMenu = new JMenu("Brush Size");
         ButtonGroup sizeGroup = new ButtonGroup();
@@ -604,27 +984,85 @@ public class NotesAppWithDB extends JFrame {
             sizeMenu.add(sizeItem);
         }
         drawMenu.add(sizeMenu);
-
+        
+        // Fill tolerance submenu
+        JMenu toleranceMenu = new JMenu("Fill Tolerance");
+        ButtonGroup toleranceGroup = new ButtonGroup();
+        for (int t : new int[]{0, 16, 32, 64, 128}) {
+            JRadioButtonMenuItem toleranceItem = new JRadioButtonMenuItem(t == 0 ? "Exact" : String.valueOf(t), t==fillTolerance);
+            toleranceItem.addActionListener(ae -> fillTolerance = t);
+            toleranceGroup.add(toleranceItem);
+            toleranceMenu.add(toleranceItem);
+        }
+        drawMenu.add(toleranceMenu);
+        
+        JCheckBoxMenuItem smoothFillItem = new JCheckBoxMenuItem("Smooth Fill Edges", smoothFillEdges);
+        smoothFillItem.addActionListener(ae -> smoothFillEdges = smoothFillItem.isSelected());
+        drawMenu.add(smoothFillItem);
+        
         JMenuItem colorItem = new JMenuItem("Choose Color");
         colorItem.addActionListener(ae -> {
             Color chosen = JColorChooser.showDialog(this, "Choose Draw Color", drawingPanel.getCurrentColor());
             if (chosen != null) drawingPanel.setCurrentColor(chosen);
         });
         drawMenu.add(colorItem);
-
+        
         JMenuItem clearItem = new JMenuItem("Clear Drawing");
-        clearItem.addActionListener(ae -> drawingPanel.clear());
+        clearItem.addActionListener(ae -> {
+            drawingPanel.clear();
+            scheduleAutoSave();
+        });
         drawMenu.add(clearItem);
-
+        
         JMenuItem saveDrawingItem = new JMenuItem("Save Drawing");
         saveDrawingItem.addActionListener(ae -> saveDrawing());
         drawMenu.add(saveDrawingItem);
-
+        
         menuBar.add(drawMenu);
-
+        
         setJMenuBar(menuBar);
     }
-
+    
+    /**
+     * Export every note to a ZIP of .txt/.png files or to NDJSON, in the background
+     * Pending edits are written first, so the export includes them
+     */
+    private void exportNotes() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export Notes");
+        FileNameExtensionFilter zipFilter = new FileNameExtensionFilter("ZIP of text and PNG files", "zip");
+        FileNameExtensionFilter ndjsonFilter = new FileNameExtensionFilter("Newline-delimited JSON", "ndjson");
+        chooser.addChoosableFileFilter(zipFilter);
+        chooser.addChoosableFileFilter(ndjsonFilter);
+        chooser.setFileFilter(zipFilter);
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        
+        File f = chooser.getSelectedFile();
+        NoteExporter.Format format = NoteExporter.Format.forFileName(f.getName());
+        if (format == null) {
+            format = chooser.getFileFilter() == ndjsonFilter ? NoteExporter.Format.NDJSON : NoteExporter.Format.ZIP;
+            f = new File(f.getParentFile(), f.getName() + format.getExtension());
+        }
+        saveCurrentNote();
+        Path target = f.toPath();
+        NoteExporter.Format chosenFormat = format;
+        whenDone(CompletableFuture.supplyAsync(() -> {
+            writeBehindQueue.flush();
+            try {
+                return new NoteExporter(noteDAO).export(target, chosenFormat);
+            } catch (DatabaseException | IOException ex) {
+                throw new CompletionException(ex);
+            }
+        }, asyncNotes.getExecutor()), (report, failure) -> {
+            if (failure != null) {
+                JOptionPane.showMessageDialog(this, "Failed to export notes: " + failure.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            } else {
+                System.out.println("Exported " + report + " to " + target);
+                JOptionPane.showMessageDialog(this, "Exported " + report + " to " + target.getFileName());
+            }
+        });
+    }
+    
     // Save the current drawing to an image file (PNG)
     private void saveDrawing() {
         JFileChooser chooser = new JFileChooser();
@@ -636,12 +1074,23 @@ public class NotesAppWithDB extends JFrame {
             if (!f.getName().toLowerCase().endsWith(".png")) {
                 f = new File(f.getParentFile(), f.getName() + ".png");
             }
-            try {
-                ImageIO.write(drawingPanel.getCanvasImage(), "png", f);
-                JOptionPane.showMessageDialog(this, "Saved drawing to " + f.getName());
-            } catch (IOException ex) {
-                JOptionPane.showMessageDialog(this, "Failed to save drawing: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
+            // PNG encoding takes a while on a large canvas; write a snapshot in the background
+            File target = f;
+            TiledCanvas snapshot = drawingPanel.getCanvas().snapshot();
+            whenDone(CompletableFuture.runAsync(() -> {
+                try {
+                    ImageIO.write(snapshot.toImage(), "png", target);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }, asyncNotes.getExecutor()), (ignored, failure) -> {
+                if (failure != null) {
+                    Throwable cause = failure instanceof UncheckedIOException ? failure.getCause() : failure;
+                    JOptionPane.showMessageDialog(this, "Failed to save drawing: " + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                } else {
+                    JOptionPane.showMessageDialog(this, "Saved drawing to " + target.getName());
+                }
+            });
         }
     }
     
@@ -651,30 +1100,104 @@ public class NotesAppWithDB extends JFrame {
      */
     private void closeApplication() {
         saveCurrentNote();
+        Note lastNote = currentNote;
+        setVisible(false);
         
-        // Stop auto-save thread
-        if (autoSaveManager != null) {
-            autoSaveManager.stopAutoSave();
-        }
-        
-        // Close database connection
-        try {
-            if (noteDAO != null) {
+        // Flushing and closing can block on the database, so it runs off the Event Dispatch Thread
+        Thread shutdown = new Thread(() -> {
+            // Stop auto-save; the save above already covered any pending edit
+            if (autoSaveScheduler != null) {
+                autoSaveScheduler.stop();
+                System.out.println("Auto-save: " + autoSaveScheduler);
+            }
+            
+            // Let inserts and deletes already submitted finish first
+            asyncNotes.shutdown();
+            if (lastNote != null && lastNote.getId() > 0 && lastNote.isDirty()) {
+                writeBehindQueue.enqueue(lastNote); // its first insert finished after the save above
+            }
+            
+            // Write out everything still queued before the connections close
+            writeBehindQueue.shutdown();
+            System.out.println("Note cache: " + noteCache.getStats());
+            edtWatchdog.stop(); // the EDT is no longer watched once the window is gone
+            Metrics.stopSnapshots();
+            
+            // Fold edit logs into note content so the full-text index is current next time
+            try {
+                noteDAO.compactAllEdits();
+            } catch (DatabaseException e) {
+                System.err.println("Error compacting note edits: " + e.getMessage());
+            }
+            
+            // Persist the search index so the next start only catches up on changes
+            if (searchIndexReady) {
+                try {
+                    searchIndex.save(INDEX_FILE);
+                } catch (IOException e) {
+                    System.err.println("Error saving search index: " + e.getMessage());
+                }
+            }
+            
+            // Everything is in the database or still journaled for the next start
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException e) {
+                    System.err.println("Error closing edit journal: " + e.getMessage());
+                }
+            }
+            
+            // Close database connection
+            try {
                 noteDAO.close();
+            } catch (DatabaseException e) {
+                System.err.println("Error closing database: " + e.getMessage());
             }
-        } catch (DatabaseException e) {
-            System.err.println("Error closing database: " + e.getMessage());
+            
+            System.exit(0);
+        }, "ShutdownThread");
+        shutdown.start();
+    }
+    
+    /**
+     * A stroke log and the canvas it replays to, decoded together in the background
+     */
+    private static final class DecodedDrawing {
+        final StrokeLog log;
+        final TiledCanvas canvas;
+        
+        private DecodedDrawing(StrokeLog log, TiledCanvas canvas) {
+            this.log = log;
+            this.canvas = canvas;
         }
         
-        System.exit(0);
+        /**
+         * Decode the image data of a DrawingNote; unreadable data gives a blank drawing
+         * @param imageData null for a new drawing
+         */
+        static DecodedDrawing decode(byte[] imageData) {
+            try {
+                StrokeLog log = StrokeLog.fromBytes(imageData);
+                return new DecodedDrawing(log, log.render());
+            } catch (IOException e) {
+                System.err.println("Failed to read drawing, showing a blank canvas: " + e.getMessage());
+                return new DecodedDrawing(new StrokeLog(), null);
+            }
+        }
     }
-
+    
     // --- DrawingPanel inner class ---
     private class DrawingPanel extends JPanel {
-        private BufferedImage canvas;
+        private TiledCanvas canvas;
         private Color currentColor = Color.BLACK;
         private int prevX = -1, prevY = -1;
-
+        // Everything drawn on the canvas, in the form a DrawingNote stores it
+        private StrokeLog strokeLog = new StrokeLog();
+        private boolean modified;
+        // Checkpoints being encoded in the background
+        private int checkpointsPending;
+        
         public DrawingPanel() {
             setBackground(Color.WHITE);
             addMouseListener(new MouseAdapter() {
@@ -683,129 +1206,248 @@ public class NotesAppWithDB extends JFrame {
                     ensureCanvas();
                         int x = e.getX();
                         int y = e.getY();
+                        modified = true;
                         if (getOuterTool() == Tool.FILL) {
                             floodFill(x, y, currentColor);
+                            repaint();
                         } else {
                             prevX = x; prevY = y;
-                            Graphics2D g = canvas.createGraphics();
-                            if (getOuterTool() == Tool.ERASER) g.setColor(Color.WHITE);
-                            else g.setColor(currentColor);
                             int s = getOuterBrushSize();
-                            g.fillOval(x - s/2, y - s/2, s, s);
-                            g.dispose();
+                            strokeLog.beginStroke(getStrokeTool(), currentColor.getRGB(), s, x, y);
+                            repaint(canvas.paintDot(getStrokeColor(), s, x, y));
                         }
-                        repaint();
                 }
-
+                
                 @Override
                 public void mouseReleased(MouseEvent e) {
                     prevX = -1;
                     prevY = -1;
+                    strokeLog.endStroke();
+                    scheduleAutoSave(); // end of a stroke or fill
                 }
             });
-
+            
             addMouseMotionListener(new MouseAdapter() {
                 @Override
                 public void mouseDragged(MouseEvent e) {
                     ensureCanvas();
+                        if (prevX == -1) return; // no stroke in progress, e.g. dragging with the fill tool
                         int x = e.getX();
                         int y = e.getY();
-                        Graphics2D g = canvas.createGraphics();
-                        int s = getOuterBrushSize();
-                        if (getOuterTool() == Tool.ERASER) {
-                            g.setColor(Color.WHITE);
-                            g.setStroke(new BasicStroke(s, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                            if (prevX != -1) g.drawLine(prevX, prevY, x, y);
-                        } else {
-                            g.setColor(currentColor);
-                            int stroke = Math.max(1, s);
-                            g.setStroke(new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
-                            if (prevX != -1) g.drawLine(prevX, prevY, x, y);
-                        }
+                        strokeLog.addPoint(x, y);
+                        // Only the segment's bounding box needs repainting
+                        Rectangle dirty = canvas.paintSegment(getStrokeColor(), getOuterBrushSize(), prevX, prevY, x, y);
                         prevX = x;
                         prevY = y;
-                        g.dispose();
-                        repaint();
+                        repaint(dirty);
                 }
             });
         }
-
+        
+        /**
+         * Grow the canvas to cover the panel; it never shrinks, so making the window smaller
+         * (or loading a drawing larger than it) crops nothing and the clip hides the rest
+         */
         private void ensureCanvas() {
-            if (canvas == null || canvas.getWidth() != getWidth() || canvas.getHeight() != getHeight()) {
-                BufferedImage newCanvas = new BufferedImage(Math.max(1, getWidth()), Math.max(1, getHeight()), BufferedImage.TYPE_INT_ARGB);
-                Graphics2D g = newCanvas.createGraphics();
-                g.setColor(Color.WHITE);
-                g.fillRect(0, 0, newCanvas.getWidth(), newCanvas.getHeight());
-                if (canvas != null) g.drawImage(canvas, 0, 0, null);
-                g.dispose();
-                canvas = newCanvas;
+            ensureCanvas(getWidth(), getHeight());
+        }
+        
+        private void ensureCanvas(int width, int height) {
+            int keptWidth = canvas != null ? canvas.getWidth() : 0;
+            int keptHeight = canvas != null ? canvas.getHeight() : 0;
+            if (canvas == null) {
+                canvas = new TiledCanvas(Math.max(1, width), Math.max(1, height));
+            } else if (!canvas.grow(width, height)) { // adds tiles, copies nothing
+                return;
             }
+            strokeLog.resized(keptWidth, keptHeight, canvas.getWidth(), canvas.getHeight());
+            // The log ended any open stroke
+            prevX = -1;
+            prevY = -1;
         }
-
+        
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
             if (canvas == null) ensureCanvas();
-            g.drawImage(canvas, 0, 0, null);
+            canvas.drawTo(g, g.getClipBounds());
         }
-
+        
         public void clear() {
             ensureCanvas();
-            Graphics2D g = canvas.createGraphics();
-            g.setColor(Color.WHITE);
-            g.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
-            g.dispose();
+            canvas = new TiledCanvas(canvas.getWidth(), canvas.getHeight());
+            strokeLog.clear(canvas.getWidth(), canvas.getHeight());
+            modified = true;
             repaint();
         }
-
+        
+        /**
+         * Show a stored drawing, decoded and replayed off the Event Dispatch Thread
+         */
+        public void load(DecodedDrawing drawing) {
+            strokeLog = drawing.log;
+            canvas = drawing.canvas;
+            prevX = -1;
+            prevY = -1;
+            modified = false;
+            ensureCanvas();
+            repaint();
+        }
+        
+        /**
+         * Draw an image centered on the visible part of the canvas, growing it to fit the image
+         */
+        public void insertImage(BufferedImage img) {
+            ensureCanvas();
+            int x = Math.max(0, (getWidth() - img.getWidth()) / 2);
+            int y = Math.max(0, (getHeight() - img.getHeight()) / 2);
+            ensureCanvas(x + img.getWidth(), y + img.getHeight());
+            Rectangle dirty = canvas.paint(new Rectangle(x, y, img.getWidth(), img.getHeight()),
+                    g -> g.drawImage(img, x, y, null));
+            canvasChanged();
+            repaint(dirty);
+        }
+        
+        /**
+         * Record pixels drawn straight onto the canvas, such as an inserted image
+         * They cannot be expressed as strokes, so the log keeps a snapshot of the canvas until
+         * its checkpoint, encoded in the background like any other, is applied
+         */
+        private void canvasChanged() {
+            TiledCanvas snapshot = canvas.snapshot();
+            encodeCheckpoint(strokeLog, strokeLog.rasterCheckpoint(snapshot), snapshot);
+            modified = true;
+        }
+        
+        /**
+         * Whether anything was drawn since the drawing was loaded
+         */
+        public boolean isModified() {
+            return modified;
+        }
+        
+        /**
+         * The drawing as stored in a DrawingNote
+         * Once replaying the strokes would be slow, also starts a raster checkpoint; it is
+         * encoded in the background and goes out with the next save
+         */
+        public byte[] encodeDrawing() {
+            if (strokeLog.isCheckpointDue() && !strokeLog.isStrokeOpen() && checkpointsPending == 0) {
+                startCheckpoint();
+            }
+            return strokeLog.toByteArray();
+        }
+        
+        /**
+         * Encode a copy-on-write snapshot of the canvas off the Event Dispatch Thread, so
+         * drawing carries on meanwhile; strokes made during the encoding stay in the log
+         */
+        private void startCheckpoint() {
+            ensureCanvas();
+            StrokeLog.Mark mark = strokeLog.mark();
+            encodeCheckpoint(strokeLog, mark, canvas.snapshot());
+        }
+        
+        /**
+         * Encode the snapshot taken with the mark on a background thread, then apply it on
+         * the Event Dispatch Thread and save the shorter log
+         */
+        private void encodeCheckpoint(StrokeLog log, StrokeLog.Mark mark, TiledCanvas snapshot) {
+            checkpointsPending++;
+            whenDone(CompletableFuture.supplyAsync(() -> DrawingCodec.encode(snapshot), asyncNotes.getExecutor()), (encoded, failure) -> {
+                checkpointsPending--;
+                if (failure != null) {
+                    System.err.println("Failed to checkpoint drawing: " + failure.getMessage());
+                    return;
+                }
+                // Another drawing may have been loaded, or the canvas cleared, meanwhile
+                if (log == strokeLog && log.applyCheckpoint(mark, encoded)) {
+                    scheduleAutoSave();
+                }
+            });
+        }
+        
+        /**
+         * Copy of the drawing as a single image, e.g. for saving it as a PNG
+         */
         public BufferedImage getCanvasImage() {
+            ensureCanvas();
+            return canvas.toImage();
+        }
+        
+        public TiledCanvas getCanvas() {
             ensureCanvas();
             return canvas;
         }
-
+        
         public Color getCurrentColor() {
             return currentColor;
         }
-
+        
         public void setCurrentColor(Color c) {
             currentColor = c;
         }
-
+        
+        private Color getStrokeColor() {
+            return getOuterTool() == Tool.ERASER ? Color.WHITE : currentColor;
+        }
+        
+        private StrokeLog.Tool getStrokeTool() {
+            switch (getOuterTool()) {
+                case PEN: return StrokeLog.Tool.PEN;
+                case ERASER: return StrokeLog.Tool.ERASER;
+                default: return StrokeLog.Tool.BRUSH;
+            }
+        }
+        
         // Helpers to access outer class fields
         private Tool getOuterTool() {
             return currentTool;
         }
-
+        
         private int getOuterBrushSize() {
             return brushSize;
         }
-
-        // Simple iterative flood fill (BFS) on canvas image
+        
+        private int getOuterFillTolerance() {
+            return fillTolerance;
+        }
+        
+        private boolean getOuterSmoothFillEdges() {
+            return smoothFillEdges;
+        }
+        
+        // Scanline fill over the canvas tiles, see TiledCanvas.fill
         private void floodFill(int x, int y, Color fillColor) {
             ensureCanvas();
-            int w = canvas.getWidth(), h = canvas.getHeight();
-            if (x < 0 || x >= w || y < 0 || y >= h) return;
-            int target = canvas.getRGB(x, y);
-            int replacement = fillColor.getRGB();
-            if (target == replacement) return;
-            Deque<Point> stack = new ArrayDeque<>();
-            stack.push(new Point(x, y));
-            while (!stack.isEmpty()) {
-                Point p = stack.pop();
-                int px = p.x, py = p.y;
-                if (px < 0 || px >= w || py < 0 || py >= h) continue;
-                if (canvas.getRGB(px, py) != target) continue;
-                canvas.setRGB(px, py, replacement);
-                stack.push(new Point(px+1, py));
-                stack.push(new Point(px-1, py));
-                stack.push(new Point(px, py+1));
-                stack.push(new Point(px, py-1));
-            }
+            strokeLog.fill(x, y, fillColor.getRGB(), getOuterFillTolerance(), getOuterSmoothFillEdges());
+            canvas.fill(x, y, fillColor.getRGB(), getOuterFillTolerance(), getOuterSmoothFillEdges());
         }
     }
-
+    
     public static void main(String[] args) {
+        // Open the database on the main thread so the Event Dispatch Thread never waits on JDBC
+        NoteDAO noteDAO;
+        try {
+            noteDAO = NoteDAO.getInstance();
+        } catch (DatabaseException e) {
+            JOptionPane.showMessageDialog(null, 
+                "Failed to initialize database: " + e.getMessage(), 
+                "Database Error", 
+                JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+            return;
+        }
+        // Recover edits a crash kept from reaching the database, before any note is shown
+        EditJournal journal;
+        try {
+            journal = EditJournal.open(JOURNAL_FILE, noteDAO);
+        } catch (IOException | DatabaseException e) {
+            System.err.println("Edit journal unavailable, continuing without it: " + e.getMessage());
+            journal = null;
+        }
+        EditJournal openedJournal = journal;
         // Run the GUI on the Event Dispatch Thread for thread safety
-        SwingUtilities.invokeLater(() -> new NotesAppWithDB().setVisible(true));
+        SwingUtilities.invokeLater(() -> new NotesAppWithDB(noteDAO, openedJournal).setVisible(true));
     }
 }
@@ -0,0 +1,47 @@
+/**
+ * One ranked full-text search hit
+ * Pairs the note's summary with a snippet of the matching text
+ */
+public class SearchResult {
+    /** Marks the start of a matched term inside the snippet */
+    public static final String HIGHLIGHT_START = "\u0001";
+    /** Marks the end of a matched term inside the snippet */
+    public static final String HIGHLIGHT_END = "\u0002";
+
+    private final NoteSummary summary;
+    private final String snippet;
+    private final double rank;
+
+    public SearchResult(NoteSummary summary, String snippet, double rank) {
+        this.summary = summary;
+        this.snippet = snippet;
+        this.rank = rank;
+    }
+
+    public NoteSummary getSummary() {
+        return summary;
+    }
+
+    /**
+     * Snippet of the best matching column, with matches wrapped in HIGHLIGHT_START/HIGHLIGHT_END
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * Snippet as HTML with matched terms in bold, safe to show in a Swing label
+     */
+    public String getSnippetHtml() {
+        String text = snippet != null ? snippet : "";
+        String escaped = text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return escaped.replace(HIGHLIGHT_START, "<b>").replace(HIGHLIGHT_END, "</b>");
+    }
+
+    /**
+     * BM25 rank; lower is a better match
+     */
+    public double getRank() {
+        return rank;
+    }
+}
@@ -0,0 +1,541 @@
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Vector record of a drawing, the stored form of a DrawingNote's image data
+ * Each stroke keeps its tool, color and width and the points the mouse passed through,
+ * every point after the first written as a varint delta from the one before, so a stroke
+ * costs a couple of bytes per mouse event however large the canvas is. Fills and canvas
+ * resizes are recorded the same way, and render() replays the log into a raster.
+ * Once replaying would get slow, checkpoint() keeps the canvas, encoded by DrawingCodec, in
+ * place of the operations it covers, which bounds the work of opening a heavily edited drawing.
+ * The encoding can run on another thread: take a mark() and a canvas snapshot() together,
+ * then hand the encoded snapshot to applyCheckpoint() back on the drawing thread. Pixels the
+ * operations cannot express, such as an inserted image, are recorded the same way with
+ * rasterCheckpoint(), which keeps the snapshot itself until its encoding arrives.
+ * Not thread-safe; the drawing panel uses it on the Event Dispatch Thread
+ *
+ * Layout: "NSTK", version byte, varint checkpoint length and checkpoint bytes, then operations:
+ *   STROKE tool, color (4 bytes), varint width, varint point count, zigzag x, y, then dx, dy per point
+ *   FILL   zigzag x, y, color (4 bytes), tolerance byte, smooth-edges byte
+ *   RESIZE varint kept width, kept height, new width, new height
+ * Checkpoints written before DrawingCodec existed are PNG and still read. Image data without
+ * the magic is read as a plain raster, as stored before strokes were logged
+ */
+public class StrokeLog {
+    public enum Tool {PEN, BRUSH, ERASER}
+
+    private static final byte[] MAGIC = {'N', 'S', 'T', 'K'};
+    private static final int VERSION = 1;
+
+    private static final int OP_STROKE = 1;
+    private static final int OP_FILL = 2;
+    private static final int OP_RESIZE = 3;
+
+    // Replay cost is counted in stroke segments; a fill or resize touches every pixel
+    // and costs roughly as much as a few thousand segments
+    static final long CHECKPOINT_COST = 50_000;
+    private static final long FILL_COST = 2_000;
+    private static final long RESIZE_COST = 500;
+
+    private byte[] checkpoint;
+    private final Bytes ops = new Bytes(256);
+    private long replayCost;
+    // Bumped whenever the operations are replaced, so a mark() taken before can be recognized as stale
+    private int generation;
+    // Bytes and replay cost already trimmed off the front of ops by applyCheckpoint() in this
+    // generation; marks count from the start of the generation, so several can be in flight
+    private long trimmedBytes;
+    private long trimmedCost;
+    // Marks are numbered in the order taken; an older one than the last applied is stale
+    private long marks;
+    private long appliedMark = -1;
+    // Canvas snapshot standing in for everything up to rasterMark until its encoding is applied
+    private TiledCanvas pendingRaster;
+    private Mark rasterMark;
+
+    // Stroke being drawn; written to ops when it ends
+    private boolean strokeOpen;
+    private Tool strokeTool;
+    private int strokeRgb;
+    private int strokeWidth;
+    private int strokePointCount;
+    private int lastX, lastY;
+    private final Bytes strokePoints = new Bytes(256);
+
+    // Consecutive resizes, as while the window is dragged, collapse into one operation
+    private boolean resizePending;
+    private int keepWidth, keepHeight, newWidth, newHeight;
+
+    /**
+     * Start a stroke at the point where the mouse was pressed
+     */
+    public void beginStroke(Tool tool, int rgb, int width, int x, int y) {
+        endStroke();
+        flushResize();
+        strokeOpen = true;
+        strokeTool = tool;
+        strokeRgb = rgb;
+        strokeWidth = width;
+        strokePointCount = 1;
+        strokePoints.clear();
+        strokePoints.writeZigzag(x);
+        strokePoints.writeZigzag(y);
+        lastX = x;
+        lastY = y;
+    }
+
+    /**
+     * Extend the open stroke; ignored when no stroke is open
+     */
+    public void addPoint(int x, int y) {
+        if (!strokeOpen) return;
+        strokePoints.writeZigzag(x - lastX);
+        strokePoints.writeZigzag(y - lastY);
+        strokePointCount++;
+        lastX = x;
+        lastY = y;
+    }
+
+    public void endStroke() {
+        if (!strokeOpen) return;
+        writeStroke(ops);
+        replayCost += strokePointCount;
+        strokeOpen = false;
+    }
+
+    public boolean isStrokeOpen() {
+        return strokeOpen;
+    }
+
+    public void fill(int x, int y, int rgb, int tolerance, boolean smoothEdges) {
+        endStroke();
+        flushResize();
+        ops.writeByte(OP_FILL);
+        ops.writeZigzag(x);
+        ops.writeZigzag(y);
+        ops.writeInt(rgb);
+        ops.writeByte(tolerance);
+        ops.writeByte(smoothEdges ? 1 : 0);
+        replayCost += FILL_COST;
+    }
+
+    /**
+     * Record that the canvas was replaced by a blank one of the new size, with the
+     * top-left part of the old canvas copied over; pass 0 x 0 for a new canvas
+     */
+    public void resized(int keptWidth, int keptHeight, int width, int height) {
+        endStroke();
+        if (resizePending) {
+            keepWidth = Math.min(keepWidth, keptWidth);
+            keepHeight = Math.min(keepHeight, keptHeight);
+        } else {
+            resizePending = true;
+            keepWidth = keptWidth;
+            keepHeight = keptHeight;
+        }
+        newWidth = width;
+        newHeight = height;
+    }
+
+    /**
+     * Forget everything drawn; the canvas is blank at the given size
+     */
+    public void clear(int width, int height) {
+        strokeOpen = false;
+        resizePending = false;
+        checkpoint = null;
+        ops.clear();
+        replayCost = 0;
+        newGeneration();
+        resized(0, 0, width, height);
+    }
+
+    /**
+     * Whether replaying the operations since the last checkpoint has become expensive
+     */
+    public boolean isCheckpointDue() {
+        return replayCost >= CHECKPOINT_COST;
+    }
+
+    /**
+     * Replace everything recorded so far with the canvas it produced, encoding it here
+     */
+    public void checkpoint(TiledCanvas canvas) {
+        endStroke();
+        checkpoint = DrawingCodec.encode(canvas);
+        ops.clear();
+        resizePending = false;
+        replayCost = 0;
+        newGeneration();
+    }
+
+    /**
+     * Close off everything recorded so far, for a checkpoint encoded elsewhere
+     * The canvas must be snapshotted at the same moment for the two to agree
+     */
+    public Mark mark() {
+        endStroke();
+        flushResize();
+        return new Mark(generation, marks++, trimmedBytes + ops.size, trimmedCost + replayCost);
+    }
+
+    /**
+     * Record pixels drawn straight onto the canvas, which no operation can express
+     * The snapshot, taken right after they were drawn, stands in for everything recorded
+     * so far until applyCheckpoint() gets the returned mark with its encoding
+     * @param snapshot canvas.snapshot(), which the log keeps and never draws on
+     */
+    public Mark rasterCheckpoint(TiledCanvas snapshot) {
+        Mark mark = mark();
+        pendingRaster = snapshot;
+        rasterMark = mark;
+        return mark;
+    }
+
+    /**
+     * Replace the operations up to the mark with the canvas they produced
+     * Operations recorded since the mark are kept and replay on top of it
+     * @param encoded DrawingCodec encoding of the canvas snapshotted with the mark
+     * @return false if the log was cleared, or a later mark's checkpoint applied, since;
+     *         the log is unchanged then
+     */
+    public boolean applyCheckpoint(Mark mark, byte[] encoded) {
+        if (mark.generation != generation || mark.number <= appliedMark) return false;
+        appliedMark = mark.number;
+        checkpoint = encoded;
+        ops.removeFirst((int) (mark.offset - trimmedBytes));
+        replayCost -= mark.cost - trimmedCost;
+        trimmedBytes = mark.offset;
+        trimmedCost = mark.cost;
+        if (rasterMark != null && rasterMark.number <= mark.number) {
+            pendingRaster = null;
+            rasterMark = null;
+        }
+        return true;
+    }
+
+    private void newGeneration() {
+        generation++;
+        trimmedBytes = 0;
+        trimmedCost = 0;
+        pendingRaster = null;
+        rasterMark = null;
+    }
+
+    /**
+     * Serialized log, including a stroke still being drawn
+     * A raster still waiting for its encoding is encoded here, on the calling thread
+     */
+    public byte[] toByteArray() {
+        if (pendingRaster != null) {
+            applyCheckpoint(rasterMark, DrawingCodec.encode(pendingRaster));
+        }
+        Bytes out = new Bytes(MAGIC.length + 16 + (checkpoint != null ? checkpoint.length : 0)
+                + ops.size + strokePoints.size);
+        out.write(MAGIC, 0, MAGIC.length);
+        out.writeByte(VERSION);
+        if (checkpoint != null) {
+            out.writeVarint(checkpoint.length);
+            out.write(checkpoint, 0, checkpoint.length);
+        } else {
+            out.writeVarint(0);
+        }
+        out.write(ops.data, 0, ops.size);
+        if (resizePending) writeResize(out);
+        if (strokeOpen) writeStroke(out);
+        return out.toArray();
+    }
+
+    /**
+     * Read a log written by toByteArray(), or a raster image stored by an older version
+     * @param data Image data of a DrawingNote; null or empty for a new drawing
+     */
+    public static StrokeLog fromBytes(byte[] data) throws IOException {
+        StrokeLog log = new StrokeLog();
+        if (data == null || data.length == 0) return log;
+        if (data.length < MAGIC.length + 1 || !Arrays.equals(Arrays.copyOf(data, MAGIC.length), MAGIC)) {
+            log.checkpoint = data;
+            return log;
+        }
+        Reader in = new Reader(data, MAGIC.length);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported stroke log version " + version);
+        }
+        int checkpointLength = in.readVarint();
+        if (checkpointLength > 0) {
+            log.checkpoint = in.readBytes(checkpointLength);
+        }
+        log.ops.write(data, in.pos, data.length - in.pos);
+        // Walk the operations once without drawing to validate them and price a replay
+        log.replayCost = replay(log.ops.data, 0, log.ops.size, null, false);
+        return log;
+    }
+
+    /**
+     * Replay the log into a new canvas
+     * @return The drawing, or null if nothing was ever recorded
+     */
+    public TiledCanvas render() throws IOException {
+        TiledCanvas canvas = null;
+        int from = 0;
+        if (pendingRaster != null) {
+            canvas = pendingRaster.snapshot();
+            from = (int) (rasterMark.offset - trimmedBytes);
+        } else if (DrawingCodec.isEncoded(checkpoint)) {
+            canvas = DrawingCodec.decode(checkpoint);
+        } else if (checkpoint != null) {
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(checkpoint));
+            if (image == null) {
+                throw new IOException("Unrecognized drawing data");
+            }
+            canvas = TiledCanvas.fromImage(image);
+        }
+        TiledCanvas[] target = {canvas};
+        replay(ops.data, from, ops.size, target, true);
+        if (resizePending || strokeOpen) {
+            Bytes pending = new Bytes(32 + strokePoints.size);
+            if (resizePending) writeResize(pending);
+            if (strokeOpen) writeStroke(pending);
+            replay(pending.data, 0, pending.size, target, true);
+        }
+        return target[0];
+    }
+
+    /**
+     * Walk encoded operations, painting them onto target[0] if paint is set
+     * @return Replay cost of the operations
+     */
+    private static long replay(byte[] data, int from, int end, TiledCanvas[] target, boolean paint)
+            throws IOException {
+        Reader in = new Reader(data, from, end);
+        long cost = 0;
+        while (in.pos < in.end) {
+            int op = in.readByte();
+            switch (op) {
+                case OP_STROKE: {
+                    int toolIndex = in.readByte();
+                    if (toolIndex >= Tool.values().length) throw new IOException("Unknown tool " + toolIndex);
+                    Tool tool = Tool.values()[toolIndex];
+                    int rgb = in.readInt();
+                    int width = in.readVarint();
+                    int count = in.readVarint();
+                    int x = in.readZigzag(), y = in.readZigzag();
+                    Color color = colorOf(tool, rgb);
+                    if (paint) canvasOf(target).paintDot(color, width, x, y);
+                    for (int i = 1; i < count; i++) {
+                        int nextX = x + in.readZigzag(), nextY = y + in.readZigzag();
+                        if (paint) target[0].paintSegment(color, width, x, y, nextX, nextY);
+                        x = nextX;
+                        y = nextY;
+                    }
+                    cost += count;
+                    break;
+                }
+                case OP_FILL: {
+                    int x = in.readZigzag(), y = in.readZigzag();
+                    int rgb = in.readInt();
+                    int tolerance = in.readByte();
+                    boolean smoothEdges = in.readByte() != 0;
+                    if (paint) canvasOf(target).fill(x, y, rgb, tolerance, smoothEdges);
+                    cost += FILL_COST;
+                    break;
+                }
+                case OP_RESIZE: {
+                    int keptWidth = in.readVarint(), keptHeight = in.readVarint();
+                    int width = in.readVarint(), height = in.readVarint();
+                    if (width <= 0 || height <= 0) throw new IOException("Invalid canvas size " + width + "x" + height);
+                    if (paint) {
+                        if (target[0] == null) {
+                            target[0] = new TiledCanvas(width, height);
+                        } else {
+                            target[0].resize(keptWidth, keptHeight, width, height);
+                        }
+                    }
+                    cost += RESIZE_COST;
+                    break;
+                }
+                default:
+                    throw new IOException("Corrupt stroke log: unknown operation " + op + " at byte " + (in.pos - 1));
+            }
+        }
+        return cost;
+    }
+
+    private static TiledCanvas canvasOf(TiledCanvas[] target) throws IOException {
+        if (target[0] == null) throw new IOException("Corrupt stroke log: drawing before the canvas size is known");
+        return target[0];
+    }
+
+    private void writeStroke(Bytes out) {
+        out.writeByte(OP_STROKE);
+        out.writeByte(strokeTool.ordinal());
+        out.writeInt(strokeRgb);
+        out.writeVarint(strokeWidth);
+        out.writeVarint(strokePointCount);
+        out.write(strokePoints.data, 0, strokePoints.size);
+    }
+
+    private void flushResize() {
+        if (!resizePending) return;
+        writeResize(ops);
+        replayCost += RESIZE_COST;
+        resizePending = false;
+    }
+
+    private void writeResize(Bytes out) {
+        out.writeByte(OP_RESIZE);
+        out.writeVarint(keepWidth);
+        out.writeVarint(keepHeight);
+        out.writeVarint(newWidth);
+        out.writeVarint(newHeight);
+    }
+
+    /**
+     * Color a stroke paints with; the eraser paints the blank canvas color
+     */
+    public static Color colorOf(Tool tool, int rgb) {
+        return tool == Tool.ERASER ? Color.WHITE : new Color(rgb, true);
+    }
+
+    /**
+     * Position in the log that an asynchronous checkpoint will cover up to
+     */
+    public static final class Mark {
+        private final int generation;
+        private final long number;
+        // Counted from the start of the generation, including operations trimmed since
+        private final long offset;
+        private final long cost;
+
+        private Mark(int generation, long number, long offset, long cost) {
+            this.generation = generation;
+            this.number = number;
+            this.offset = offset;
+            this.cost = cost;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "StrokeLog{checkpoint=" + (checkpoint != null ? checkpoint.length : 0) + " bytes, operations="
+                + ops.size + " bytes, replayCost=" + replayCost + "}";
+    }
+
+    /**
+     * Growable byte array with the varint encodings used by the log (and DrawingCodec)
+     */
+    static final class Bytes {
+        private byte[] data;
+        private int size;
+
+        Bytes(int capacity) {
+            data = new byte[Math.max(16, capacity)];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void removeFirst(int count) {
+            System.arraycopy(data, count, data, 0, size - count);
+            size -= count;
+        }
+
+        void writeByte(int b) {
+            if (size == data.length) data = Arrays.copyOf(data, size * 2);
+            data[size++] = (byte) b;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            if (size + length > data.length) data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+            System.arraycopy(bytes, offset, data, size, length);
+            size += length;
+        }
+
+        void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        // Seven bits per byte, low bits first; the high bit marks that more follow
+        void writeVarint(int value) {
+            while ((value & ~0x7F) != 0) {
+                writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        // Small negative deltas stay small: 0, -1, 1, -2, ... map to 0, 1, 2, 3, ...
+        void writeZigzag(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    static final class Reader {
+        private final byte[] data;
+        private int pos;
+        private final int end;
+
+        Reader(byte[] data, int pos) {
+            this(data, pos, data.length);
+        }
+
+        Reader(byte[] data, int pos, int end) {
+            this.data = data;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= end) throw new IOException("Truncated data");
+            return data[pos++] & 0xFF;
+        }
+
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Corrupt data: varint too long");
+        }
+
+        int readZigzag() throws IOException {
+            int value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            if (length < 0 || length > end - pos) throw new IOException("Truncated data");
+            byte[] bytes = Arrays.copyOfRange(data, pos, pos + length);
+            pos += length;
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+import java.io.File;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Concurrency test for ConnectionPool
+ * Shows that reads proceed while a long write transaction is open (WAL mode)
+ */
+public class TestConnectionPool {
+    private static final int READER_THREADS = 4;
+    private static final long WRITE_HOLD_MS = 3000;
+    private static final long MAX_READ_MS = 500;
+    
+    public static void main(String[] args) throws Exception {
+        System.out.println("=== ConnectionPool Concurrency Test ===\n");
+        
+        Class.forName("org.sqlite.JDBC");
+        File dbFile = File.createTempFile("notesapp-pool-test", ".db");
+        dbFile.deleteOnExit();
+        new File(dbFile.getPath() + "-wal").deleteOnExit();
+        new File(dbFile.getPath() + "-shm").deleteOnExit();
+        
+        ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + dbFile.getPath(), READER_THREADS);
+        boolean passed = true;
+        try {
+            pool.write(conn -> {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE items (id INTEGER PRIMARY KEY, name TEXT)");
+                    stmt.execute("INSERT INTO items (name) VALUES ('committed')");
+                }
+                return null;
+            });
+            
+            // Test 1: Hold a write transaction open on a background thread
+            System.out.println("Test 1: Opening a write transaction held for " + WRITE_HOLD_MS + " ms...");
+            CountDownLatch writeStarted = new CountDownLatch(1);
+            AtomicLong writeFinishedAt = new AtomicLong();
+            Thread writerThread = new Thread(() -> {
+                try {
+                    pool.inTransaction(conn -> {
+                        try (PreparedStatement pstmt = conn.prepareStatement("INSERT INTO items (name) VALUES (?)")) {
+                            pstmt.setString(1, "uncommitted");
+                            pstmt.executeUpdate();
+                        }
+                        writeStarted.countDown();
+                        try {
+                            Thread.sleep(WRITE_HOLD_MS);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return null;
+                    });
+                    writeFinishedAt.set(System.nanoTime());
+                } catch (SQLException e) {
+                    System.err.println("Writer failed: " + e.getMessage());
+                }
+            }, "PoolTestWriter");
+            writerThread.start();
+            writeStarted.await();
+            System.out.println("✓ Write transaction open\n");
+            
+            // Test 2: Readers on every pooled connection run while the write is open
+            System.out.println("Test 2: Running " + READER_THREADS + " concurrent readers...");
+            AtomicInteger slowReads = new AtomicInteger();
+            AtomicInteger wrongCounts = new AtomicInteger();
+            AtomicLong lastReadAt = new AtomicLong();
+            List<Thread> readers = new ArrayList<>();
+            for (int i = 0; i < READER_THREADS; i++) {
+                Thread reader = new Thread(() -> {
+                    for (int n = 0; n < 20; n++) {
+                        long start = System.nanoTime();
+                        try {
+                            int count = pool.read(conn -> {
+                                try (Statement stmt = conn.createStatement();
+                                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM items")) {
+                                    return rs.next() ? rs.getInt(1) : -1;
+                                }
+                            });
+                            // Readers see the last committed snapshot, not the open transaction
+                            if (count != 1) wrongCounts.incrementAndGet();
+                        } catch (SQLException e) {
+                            System.err.println("Reader failed: " + e.getMessage());
+                            wrongCounts.incrementAndGet();
+                        }
+                        long end = System.nanoTime();
+                        if ((end - start) / 1_000_000 > MAX_READ_MS) slowReads.incrementAndGet();
+                        lastReadAt.accumulateAndGet(end, Math::max);
+                    }
+                }, "PoolTestReader-" + i);
+                readers.add(reader);
+                reader.start();
+            }
+            for (Thread reader : readers) {
+                reader.join();
+            }
+            writerThread.join();
+            
+            if (lastReadAt.get() >= writeFinishedAt.get()) {
+                System.out.println("✗ Reads did not finish before the write transaction committed");
+                passed = false;
+            } else if (slowReads.get() > 0) {
+                System.out.println("✗ " + slowReads.get() + " reads took longer than " + MAX_READ_MS + " ms");
+                passed = false;
+            } else if (wrongCounts.get() > 0) {
+                System.out.println("✗ " + wrongCounts.get() + " reads saw uncommitted data or failed");
+                passed = false;
+            } else {
+                System.out.println("✓ All reads completed while the write transaction was still open\n");
+            }
+            
+            // Test 3: The committed write becomes visible afterwards
+            System.out.println("Test 3: Checking the write is visible after commit...");
+            int finalCount = pool.read(conn -> {
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM items")) {
+                    return rs.next() ? rs.getInt(1) : -1;
+                }
+            });
+            if (finalCount == 2) {
+                System.out.println("✓ Committed row visible to readers\n");
+            } else {
+                System.out.println("✗ Expected 2 rows, found " + finalCount);
+                passed = false;
+            }
+        } finally {
+            pool.close();
+        }
+        
+        if (passed) {
+            System.out.println("=== All ConnectionPool Tests Passed ===");
+        } else {
+            System.out.println("=== ConnectionPool Tests FAILED ===");
+            System.exit(1);
+        }
+    }
+}
@@ -98,6 +98,57 @@ public class TestNotesApp {
             dao.delete(deleteId);
             System.out.println("✓ Note deleted successfully (ID: " + deleteId + ")\n");
             
+            // Test 10: Batched bulk operations in one transaction
+            System.out.println("Test 10: Bulk save, update and delete (JDBC batching)...");
+            java.util.List<Note> bulkNotes = new java.util.ArrayList<>();
+            for (int i = 0; i < 25; i++) {
+                TextNote bulkNote = new TextNote();
+                bulkNote.setTitle("Bulk Note " + i);
+                bulkNote.setContent("Imported content " + i);
+                bulkNotes.add(bulkNote);
+            }
+            dao.setBatchSize(10); // Forces several batches inside the one transaction
+            dao.saveAll(bulkNotes);
+            int[] bulkIds = new int[bulkNotes.size()];
+            for (int i = 0; i < bulkNotes.size(); i++) {
+                bulkIds[i] = bulkNotes.get(i).getId();
+            }
+            System.out.println("  - Saved " + bulkNotes.size() + " notes, IDs " + bulkIds[0] + ".." + bulkIds[bulkIds.length - 1]);
+            Note lastBulk = bulkNotes.get(bulkNotes.size() - 1);
+            if (!dao.getById(lastBulk.getId()).getTitle().equals(lastBulk.getTitle())) {
+                System.out.println("✗ Generated IDs were not assigned back correctly");
+            }
+            for (Note bulkNote : bulkNotes) {
+                bulkNote.setTitle(bulkNote.getTitle() + " (updated)");
+            }
+            dao.updateAll(bulkNotes);
+            dao.deleteAll(bulkIds);
+            System.out.println("✓ Bulk operations completed successfully\n");
+            
+            // Test 11: Identical images share one stored blob
+            System.out.println("Test 11: Content-addressed image storage...");
+            byte[] sharedImage = new byte[256 * 1024];
+            new java.util.Random(42).nextBytes(sharedImage);
+            DrawingNote copy1 = new DrawingNote();
+            copy1.setTitle("Copy 1");
+            copy1.setImageData(sharedImage);
+            DrawingNote copy2 = new DrawingNote();
+            copy2.setTitle("Copy 2");
+            copy2.setImageData(sharedImage.clone());
+            dao.save(copy1);
+            dao.save(copy2);
+            BlobStore blobs = new BlobStore(java.nio.file.Paths.get("notesapp-blobs"));
+            String imageHash = BlobStore.hash(sharedImage);
+            System.out.println("  - Both notes reference blob " + imageHash.substring(0, 12) + "...: " + blobs.contains(imageHash));
+            copy1.setTitle("Copy 1 (renamed)");
+            dao.update(copy1); // Same image: no blob write
+            if (!java.util.Arrays.equals(dao.loadImageData(copy1.getId()), sharedImage)) {
+                System.out.println("✗ Image did not round-trip through the blob store");
+            }
+            dao.delete(copy1.getId());
+            dao.delete(copy2.getId());
+            System.out.println("✓ Blob removed with its last reference: " + !blobs.contains(imageHash) + "\n");
+            
             // Final count
             allNotes = dao.getAll();
             System.out.println("Final note count: " + allNotes.size() + " notes in database");
@@ -111,8 +162,8 @@ public class TestNotesApp {
             System.out.println("✓ OOP - Interfaces (DatabaseOperations implemented by NoteDAO)");
             System.out.println("✓ OOP - Exception Handling (DatabaseException custom exception)");
             System.out.println("✓ Collections & Generics (List<Note>, ArrayList<Note>)");
-            System.out.println("✓ Multithreading (Background threads, AutoSaveManager)");
-            System.out.println("✓ Synchronization (synchronized methods in NoteDAO)");
+            System.out.println("✓ Multithreading (Background threads, AutoSaveScheduler)");
+            System.out.println("✓ Synchronization (WAL writer lock and reader pool in NoteDAO)");
             System.out.println("✓ JDBC Database Connectivity (SQLite with CRUD operations)");
             
         } catch (DatabaseException e) {
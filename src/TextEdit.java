@@ -0,0 +1,91 @@
+/**
+ * One change to a text note: replace `removed` characters at `position` with `inserted`
+ * Edits are what the editor records per keystroke and what NoteDAO appends to a
+ * note's edit log instead of rewriting the whole content
+ */
+public class TextEdit {
+    private final int position;
+    private final int removed;
+    private final String inserted;
+
+    public TextEdit(int position, int removed, String inserted) {
+        if (position < 0 || removed < 0 || inserted == null) {
+            throw new IllegalArgumentException("Invalid edit at " + position);
+        }
+        this.position = position;
+        this.removed = removed;
+        this.inserted = inserted;
+    }
+
+    public static TextEdit insert(int position, String text) {
+        return new TextEdit(position, 0, text);
+    }
+
+    public static TextEdit remove(int position, int length) {
+        return new TextEdit(position, length, "");
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getRemoved() {
+        return removed;
+    }
+
+    public String getInserted() {
+        return inserted;
+    }
+
+    public boolean isNoOp() {
+        return removed == 0 && inserted.isEmpty();
+    }
+
+    /**
+     * Apply this edit to the text in place
+     * @throws IndexOutOfBoundsException if the edit does not fit the text
+     */
+    public void applyTo(StringBuilder text) {
+        if (position + removed > text.length()) {
+            throw new IndexOutOfBoundsException("Edit at " + position + " removing " + removed +
+                    " does not fit text of length " + text.length());
+        }
+        text.replace(position, position + removed, inserted);
+    }
+
+    /**
+     * Combine this edit with the one that directly follows it, if the pair is a single edit
+     * Covers continued typing, backspacing over just-typed text, runs of deletes and
+     * typing over a selection, so a burst of keystrokes collapses into one edit
+     * @return The combined edit, or null if the two must stay separate
+     */
+    public TextEdit mergeWith(TextEdit next) {
+        int end = position + inserted.length();
+        if (next.removed == 0 && next.position == end) {
+            // Typing continues where this edit ended
+            return new TextEdit(position, removed, inserted + next.inserted);
+        }
+        if (next.inserted.isEmpty() && next.position >= position && next.position + next.removed == end) {
+            // Backspace over text this edit inserted
+            return new TextEdit(position, removed, inserted.substring(0, next.position - position));
+        }
+        if (inserted.isEmpty() && next.inserted.isEmpty()) {
+            if (next.position + next.removed == position) {
+                return new TextEdit(next.position, removed + next.removed, ""); // backspace run
+            }
+            if (next.position == position) {
+                return new TextEdit(position, removed + next.removed, ""); // forward-delete run
+            }
+        }
+        if (inserted.isEmpty() && next.removed == 0 && next.position == position) {
+            // Selection replaced by typing: the document reports a remove, then an insert
+            return new TextEdit(position, removed, next.inserted);
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "TextEdit(" + position + ", -" + removed + ", +" + inserted.length() + ")";
+    }
+}
@@ -0,0 +1,102 @@
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+
+/**
+ * Turns Swing Document events from the editor into TextEdits on the note being edited
+ * Programmatic text changes (loading a note, the placeholder) are run through
+ * runUnrecorded so they are not mistaken for typing
+ * With an EditJournal set, each edit is also journaled before the next keystroke
+ * Demonstrates the Observer pattern with Swing's DocumentListener
+ */
+public class TextEditRecorder implements DocumentListener {
+    private TextNote target;
+    private boolean suppressed;
+    private Runnable editListener;
+    private EditJournal journal;
+
+    /**
+     * Record edits into this note from now on, or stop recording if null
+     */
+    public void setTarget(TextNote target) {
+        this.target = target;
+    }
+
+    /**
+     * Journal every recorded edit, or stop journaling if null
+     */
+    public void setJournal(EditJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Run after every recorded edit, e.g. to schedule an auto-save
+     */
+    public void setEditListener(Runnable editListener) {
+        this.editListener = editListener;
+    }
+
+    /**
+     * Change the document without recording the change as an edit
+     */
+    public void runUnrecorded(Runnable change) {
+        boolean previous = suppressed;
+        suppressed = true;
+        try {
+            change.run();
+        } finally {
+            suppressed = previous;
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (target == null || suppressed) return;
+        try {
+            String text = e.getDocument().getText(e.getOffset(), e.getLength());
+            apply(TextEdit.insert(e.getOffset(), text));
+        } catch (BadLocationException ex) {
+            // Cannot happen for an offset the document just reported; fall back to a full save
+            if (journal != null) {
+                journal.setContent(target, textOf(e));
+            } else {
+                target.setContent(textOf(e));
+            }
+        }
+        edited();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (target == null || suppressed) return;
+        apply(TextEdit.remove(e.getOffset(), e.getLength()));
+        edited();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes only; the text is unchanged
+    }
+
+    private void apply(TextEdit edit) {
+        if (journal != null) {
+            journal.applyEdit(target, edit);
+        } else {
+            target.applyEdit(edit);
+        }
+    }
+
+    private void edited() {
+        if (editListener != null) {
+            editListener.run();
+        }
+    }
+
+    private static String textOf(DocumentEvent e) {
+        try {
+            return e.getDocument().getText(0, e.getDocument().getLength());
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
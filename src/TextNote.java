@@ -1,11 +1,21 @@
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Concrete class for text notes
  * Demonstrates Inheritance from abstract Note class
+ * Keeps the edits typed since the last save so NoteDAO can store just those
  */
 public class TextNote extends Note {
-    private String content;
+    protected String content;
+    
+    // Edits not yet folded into content; applied on the next getContent()
+    private final List<TextEdit> unappliedEdits = new ArrayList<>();
+    // Edits since the last save, or null once the content was replaced and must be written whole
+    private List<TextEdit> unsavedEdits = new ArrayList<>();
+    // Unsaved edits below this index belong to a write in flight and are not merged into
+    private int sealedEdits;
     
     public TextNote() {
         super();
@@ -18,17 +28,92 @@ public class TextNote extends Note {
     }
     
     @Override
-    public String getContent() {
+    public synchronized String getContent() {
+        if (!unappliedEdits.isEmpty()) {
+            StringBuilder text = new StringBuilder(content);
+            for (TextEdit edit : unappliedEdits) {
+                edit.applyTo(text);
+            }
+            unappliedEdits.clear();
+            content = text.toString();
+        }
         return content;
     }
     
     @Override
-    public void setContent(String content) {
+    public synchronized void setContent(String content) {
         if (content == null) {
             throw new IllegalArgumentException("Content cannot be null");
         }
+        if (content.equals(getContent())) return;
         this.content = content;
-        this.modifiedDate = new Date();
+        forgetUnsavedEdits();
+        markDirty();
+    }
+    
+    /**
+     * Apply one edit made in the editor
+     * Cheap enough for every keystroke: the full text is only rebuilt on the next getContent()
+     */
+    public synchronized void applyEdit(TextEdit edit) {
+        if (edit.isNoOp()) return;
+        append(unappliedEdits, edit, 0);
+        if (unsavedEdits != null) {
+            append(unsavedEdits, edit, sealedEdits);
+        }
+        markDirty();
+    }
+    
+    private static void append(List<TextEdit> edits, TextEdit edit, int firstMergeable) {
+        int last = edits.size() - 1;
+        TextEdit merged = last >= firstMergeable ? edits.get(last).mergeWith(edit) : null;
+        if (merged == null) {
+            edits.add(edit);
+        } else if (merged.isNoOp()) {
+            edits.remove(last);
+        } else {
+            edits.set(last, merged);
+        }
+    }
+    
+    /**
+     * Take the edits made since the last save for writing to the edit log
+     * Later edits are kept apart from the returned ones until markEditsSaved or markContentSaved
+     * @return The edits in order, empty if the content is unchanged, or null if it must be written in full
+     */
+    public synchronized List<TextEdit> sealUnsavedEdits() {
+        if (unsavedEdits == null) return null;
+        sealedEdits = unsavedEdits.size();
+        return new ArrayList<>(unsavedEdits);
+    }
+    
+    /**
+     * The first editCount edits returned by sealUnsavedEdits are now in the edit log
+     */
+    public synchronized void markEditsSaved(int editCount) {
+        if (unsavedEdits != null) {
+            unsavedEdits.subList(0, Math.min(editCount, unsavedEdits.size())).clear();
+        }
+        sealedEdits = 0;
+    }
+    
+    /**
+     * The full content was written at the given change counter
+     * If the note changed during the write, the edits cannot be split around it, so
+     * the next save writes the full content again
+     */
+    public synchronized void markContentSaved(int writtenChangeCount) {
+        unsavedEdits = getChangeCount() == writtenChangeCount ? new ArrayList<>() : null;
+        sealedEdits = 0;
+    }
+    
+    /**
+     * The content was replaced by something the edit log cannot describe
+     */
+    protected synchronized void forgetUnsavedEdits() {
+        unappliedEdits.clear();
+        unsavedEdits = null;
+        sealedEdits = 0;
     }
     
     @Override
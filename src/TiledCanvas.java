@@ -0,0 +1,430 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Drawing surface made of fixed-size tiles, used by the drawing panels of both apps
+ * A tile is only allocated once something is drawn on it; until then it is blank white
+ * and costs nothing, so a large, mostly empty canvas stays small. Every paint operation
+ * returns the rectangle it touched, for the panel to repaint just that part, and resizing
+ * adds or drops tiles instead of copying the whole canvas. The panels only ever grow() it,
+ * so shrinking the window never crops the drawing.
+ * Not thread-safe; the panels use it on the Event Dispatch Thread and hand snapshot()s,
+ * which share tiles copy-on-write, to background threads
+ */
+public class TiledCanvas {
+    public static final int TILE_SIZE = 256;
+    private static final int TILE_SHIFT = 8; // log2 of TILE_SIZE, for per-pixel lookups
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int BLANK = 0xFFFFFFFF;
+    // Tiles belong to the canvas whose epoch they carry; any other canvas copies one before writing
+    private static final AtomicInteger EPOCHS = new AtomicInteger();
+
+    private int width;
+    private int height;
+    private Tile[][] tiles; // [row][column], null while blank
+    private int allocatedTiles;
+    private int epoch = EPOCHS.incrementAndGet();
+
+    /**
+     * Blank canvas; no tile is allocated
+     */
+    public TiledCanvas(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid canvas size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.tiles = new Tile[tilesFor(height)][tilesFor(width)];
+    }
+
+    /**
+     * Canvas holding a copy of the image; blank regions of it allocate no tiles
+     */
+    public static TiledCanvas fromImage(BufferedImage image) {
+        TiledCanvas canvas = new TiledCanvas(image.getWidth(), image.getHeight());
+        canvas.setPixels(image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth()));
+        return canvas;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getAllocatedTileCount() {
+        return allocatedTiles;
+    }
+
+    /**
+     * Canvas with the current content that another thread may read while this one keeps
+     * being drawn on; no pixels are copied until either side writes to a shared tile
+     */
+    public TiledCanvas snapshot() {
+        TiledCanvas copy = new TiledCanvas(width, height);
+        for (int row = 0; row < tiles.length; row++) {
+            copy.tiles[row] = tiles[row].clone();
+        }
+        copy.allocatedTiles = allocatedTiles;
+        epoch = EPOCHS.incrementAndGet();
+        return copy;
+    }
+
+    int getRows() {
+        return tiles.length;
+    }
+
+    int getColumns() {
+        return tiles.length > 0 ? tiles[0].length : 0;
+    }
+
+    /**
+     * Pixels of a tile, TILE_SIZE x TILE_SIZE, or null if it is blank; read only
+     */
+    int[] tilePixels(int row, int column) {
+        Tile tile = tiles[row][column];
+        return tile != null ? tile.data : null;
+    }
+
+    /**
+     * Pixels of a tile to write to, allocating it if it is blank
+     */
+    int[] writableTilePixels(int row, int column) {
+        return tile(row, column).data;
+    }
+
+    /**
+     * Let the painter draw on every tile the bounds touch, in canvas coordinates and clipped
+     * to the bounds, which must therefore cover everything the painter draws
+     * @return The part of the canvas that may have changed, possibly empty
+     */
+    public Rectangle paint(Rectangle bounds, Consumer<Graphics2D> painter) {
+        Rectangle dirty = bounds.intersection(new Rectangle(0, 0, width, height));
+        if (dirty.isEmpty()) return dirty;
+        int lastRow = (dirty.y + dirty.height - 1) / TILE_SIZE;
+        int lastColumn = (dirty.x + dirty.width - 1) / TILE_SIZE;
+        for (int row = dirty.y / TILE_SIZE; row <= lastRow; row++) {
+            for (int column = dirty.x / TILE_SIZE; column <= lastColumn; column++) {
+                Graphics2D g = tile(row, column).image.createGraphics();
+                g.translate(-column * TILE_SIZE, -row * TILE_SIZE);
+                g.clip(dirty);
+                painter.accept(g);
+                g.dispose();
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * The mark made where a stroke starts
+     */
+    public Rectangle paintDot(Color color, int size, int x, int y) {
+        return paint(new Rectangle(x - size / 2 - 1, y - size / 2 - 1, size + 3, size + 3), g -> {
+            g.setColor(color);
+            g.fillOval(x - size / 2, y - size / 2, size, size);
+        });
+    }
+
+    /**
+     * One segment of a stroke, with round caps and joins
+     */
+    public Rectangle paintSegment(Color color, int size, int x0, int y0, int x1, int y1) {
+        int stroke = Math.max(1, size);
+        int pad = stroke / 2 + 2;
+        Rectangle bounds = new Rectangle(Math.min(x0, x1) - pad, Math.min(y0, y1) - pad,
+                Math.abs(x1 - x0) + 2 * pad + 1, Math.abs(y1 - y0) + 2 * pad + 1);
+        return paint(bounds, g -> {
+            g.setColor(color);
+            g.setStroke(new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.drawLine(x0, y0, x1, y1);
+        });
+    }
+
+    /**
+     * Flood fill, see FloodFill; runs on the tiles in place, allocating only the blank
+     * tiles the fill colors in
+     * @return Number of pixels filled
+     */
+    public int fill(int x, int y, int fillRgb, int tolerance, boolean smoothEdges) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return 0;
+        if (tolerance < 0 || tolerance > 255) {
+            throw new IllegalArgumentException("Tolerance must be between 0 and 255: " + tolerance);
+        }
+        return FloodFill.fill(new TilePixels(width, height), x, y, fillRgb, tolerance, smoothEdges);
+    }
+
+    /**
+     * Enlarge to at least minWidth x minHeight, keeping every pixel; never shrinks
+     * @return Whether the size changed
+     */
+    public boolean grow(int minWidth, int minHeight) {
+        if (minWidth <= width && minHeight <= height) return false;
+        resize(width, height, Math.max(width, minWidth), Math.max(height, minHeight));
+        return true;
+    }
+
+    /**
+     * Change the size, keeping the top-left keptWidth x keptHeight pixels; everything
+     * else is blank afterwards. Only tiles crossing the kept edge are touched
+     */
+    public void resize(int keptWidth, int keptHeight, int newWidth, int newHeight) {
+        if (newWidth <= 0 || newHeight <= 0) {
+            throw new IllegalArgumentException("Invalid canvas size " + newWidth + "x" + newHeight);
+        }
+        keptWidth = Math.min(keptWidth, Math.min(width, newWidth));
+        keptHeight = Math.min(keptHeight, Math.min(height, newHeight));
+        Tile[][] resized = new Tile[tilesFor(newHeight)][tilesFor(newWidth)];
+        for (int row = 0; row < tiles.length; row++) {
+            for (int column = 0; column < tiles[row].length; column++) {
+                Tile tile = tiles[row][column];
+                if (tile == null) continue;
+                int left = column * TILE_SIZE, top = row * TILE_SIZE;
+                if (left >= keptWidth || top >= keptHeight) {
+                    allocatedTiles--;
+                    continue;
+                }
+                if (keptWidth - left < TILE_SIZE || keptHeight - top < TILE_SIZE) {
+                    tile = tile(row, column);
+                    blankOutside(tile, keptWidth - left, keptHeight - top);
+                }
+                resized[row][column] = tile;
+            }
+        }
+        tiles = resized;
+        width = newWidth;
+        height = newHeight;
+    }
+
+    /**
+     * Draw the tiles inside the clip; blank tiles are left to the component's background
+     */
+    public void drawTo(Graphics g, Rectangle clip) {
+        Rectangle area = clip != null ? clip.intersection(new Rectangle(0, 0, width, height))
+                : new Rectangle(0, 0, width, height);
+        if (area.isEmpty()) return;
+        int lastRow = (area.y + area.height - 1) / TILE_SIZE;
+        int lastColumn = (area.x + area.width - 1) / TILE_SIZE;
+        for (int row = area.y / TILE_SIZE; row <= lastRow; row++) {
+            for (int column = area.x / TILE_SIZE; column <= lastColumn; column++) {
+                Tile tile = tiles[row][column];
+                if (tile != null) g.drawImage(tile.image, column * TILE_SIZE, row * TILE_SIZE, null);
+            }
+        }
+    }
+
+    /**
+     * Copy of the whole canvas as one image
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        copyTo(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
+
+    private void copyTo(int[] pixels) {
+        Arrays.fill(pixels, BLANK);
+        for (int row = 0; row < tiles.length; row++) {
+            for (int column = 0; column < tiles[row].length; column++) {
+                Tile tile = tiles[row][column];
+                if (tile == null) continue;
+                int[] data = tile.data;
+                int left = column * TILE_SIZE, top = row * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - left), h = Math.min(TILE_SIZE, height - top);
+                for (int y = 0; y < h; y++) {
+                    System.arraycopy(data, y * TILE_SIZE, pixels, (top + y) * width + left, w);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replace the content with width * height packed ARGB pixels, dropping tiles that are all blank
+     */
+    private void setPixels(int[] pixels) {
+        for (int row = 0; row < tiles.length; row++) {
+            for (int column = 0; column < tiles[row].length; column++) {
+                int left = column * TILE_SIZE, top = row * TILE_SIZE;
+                int w = Math.min(TILE_SIZE, width - left), h = Math.min(TILE_SIZE, height - top);
+                if (isBlank(pixels, left, top, w, h)) {
+                    if (tiles[row][column] != null) {
+                        tiles[row][column] = null;
+                        allocatedTiles--;
+                    }
+                    continue;
+                }
+                int[] data = tile(row, column).data;
+                for (int y = 0; y < h; y++) {
+                    System.arraycopy(pixels, (top + y) * width + left, data, y * TILE_SIZE, w);
+                }
+            }
+        }
+    }
+
+    private boolean isBlank(int[] pixels, int left, int top, int w, int h) {
+        for (int y = 0; y < h; y++) {
+            int start = (top + y) * width + left;
+            for (int i = start; i < start + w; i++) {
+                if (pixels[i] != BLANK) return false;
+            }
+        }
+        return true;
+    }
+
+    private Tile tile(int row, int column) {
+        Tile tile = tiles[row][column];
+        if (tile == null) {
+            tile = new Tile(epoch);
+            Arrays.fill(tile.data, BLANK);
+            tiles[row][column] = tile;
+            allocatedTiles++;
+        } else if (tile.epoch != epoch) {
+            // Shared with a snapshot; write to a private copy
+            Tile copy = new Tile(epoch);
+            System.arraycopy(tile.data, 0, copy.data, 0, copy.data.length);
+            tiles[row][column] = copy;
+            tile = copy;
+        }
+        return tile;
+    }
+
+    // Blank the part of the tile at or beyond (keptX, keptY), in tile coordinates
+    private static void blankOutside(Tile tile, int keptX, int keptY) {
+        if (keptX >= TILE_SIZE && keptY >= TILE_SIZE) return;
+        int[] data = tile.data;
+        for (int y = 0; y < TILE_SIZE; y++) {
+            int from = y < keptY ? Math.min(keptX, TILE_SIZE) : 0;
+            Arrays.fill(data, y * TILE_SIZE + from, (y + 1) * TILE_SIZE, BLANK);
+        }
+    }
+
+    /**
+     * One TILE_SIZE x TILE_SIZE image and its pixel array, fetched once rather than per pixel
+     */
+    private static final class Tile {
+        final BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        final int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        final int epoch;
+
+        Tile(int epoch) {
+            this.epoch = epoch;
+        }
+    }
+
+    private static int tilesFor(int pixels) {
+        return (pixels + TILE_SIZE - 1) / TILE_SIZE;
+    }
+
+    /**
+     * The canvas as seen by FloodFill; writing white to a blank tile leaves it unallocated
+     */
+    private final class TilePixels extends FloodFill.Pixels {
+        TilePixels(int width, int height) {
+            super(width, height);
+        }
+
+        @Override
+        int get(int x, int y) {
+            Tile tile = tiles[y >> TILE_SHIFT][x >> TILE_SHIFT];
+            return tile == null ? BLANK : tile.data[(y & TILE_MASK) << TILE_SHIFT | (x & TILE_MASK)];
+        }
+
+        @Override
+        void set(int x, int y, int rgb) {
+            if (rgb == BLANK && tiles[y >> TILE_SHIFT][x >> TILE_SHIFT] == null) return;
+            tile(y >> TILE_SHIFT, x >> TILE_SHIFT).data[(y & TILE_MASK) << TILE_SHIFT | (x & TILE_MASK)] = rgb;
+        }
+
+        @Override
+        void fillSpan(int y, int fromX, int toX, int rgb) {
+            int row = y / TILE_SIZE, offset = (y % TILE_SIZE) * TILE_SIZE;
+            for (int column = fromX / TILE_SIZE; column <= toX / TILE_SIZE; column++) {
+                if (rgb == BLANK && tiles[row][column] == null) continue;
+                int left = column * TILE_SIZE;
+                int from = Math.max(fromX, left) - left, to = Math.min(toX, left + TILE_SIZE - 1) - left;
+                Arrays.fill(tile(row, column).data, offset + from, offset + to + 1, rgb);
+            }
+        }
+
+        // The run helpers walk a tile row at a time; a blank tile is one long run of white
+
+        @Override
+        int runStart(int y, int x, int target) {
+            Tile[] row = tiles[y >> TILE_SHIFT];
+            int offset = (y & TILE_MASK) << TILE_SHIFT;
+            while (x > 0) {
+                Tile tile = row[(x - 1) >> TILE_SHIFT];
+                int tileLeft = ((x - 1) >> TILE_SHIFT) << TILE_SHIFT;
+                if (tile == null) {
+                    if (target != BLANK) return x;
+                    x = tileLeft;
+                    continue;
+                }
+                int i = offset + (x - tileLeft);
+                int stop = offset;
+                while (i > stop && tile.data[i - 1] == target) i--;
+                if (i > stop) return tileLeft + i - offset;
+                x = tileLeft;
+            }
+            return 0;
+        }
+
+        @Override
+        int runEnd(int y, int x, int limit, int target) {
+            Tile[] row = tiles[y >> TILE_SHIFT];
+            int offset = (y & TILE_MASK) << TILE_SHIFT;
+            while (x < limit) {
+                int next = x + 1;
+                Tile tile = row[next >> TILE_SHIFT];
+                int tileLeft = (next >> TILE_SHIFT) << TILE_SHIFT;
+                int tileLast = Math.min(limit, tileLeft + TILE_MASK);
+                if (tile == null) {
+                    if (target != BLANK) return x;
+                    x = tileLast;
+                    continue;
+                }
+                int i = offset + (next - tileLeft), end = offset + (tileLast - tileLeft);
+                while (i <= end && tile.data[i] == target) i++;
+                if (i <= end) return tileLeft + i - offset - 1;
+                x = tileLast;
+            }
+            return x;
+        }
+
+        @Override
+        int find(int y, int fromX, int toX, int target) {
+            Tile[] row = tiles[y >> TILE_SHIFT];
+            int offset = (y & TILE_MASK) << TILE_SHIFT;
+            int x = fromX;
+            while (x <= toX) {
+                Tile tile = row[x >> TILE_SHIFT];
+                int tileLeft = (x >> TILE_SHIFT) << TILE_SHIFT;
+                int tileLast = Math.min(toX, tileLeft + TILE_MASK);
+                if (tile == null) {
+                    if (target == BLANK) return x;
+                } else {
+                    for (int i = offset + (x - tileLeft); i <= offset + (tileLast - tileLeft); i++) {
+                        if (tile.data[i] == target) return tileLeft + i - offset;
+                    }
+                }
+                x = tileLast + 1;
+            }
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TiledCanvas{" + width + "x" + height + ", " + allocatedTiles + " of "
+                + tiles.length * (tiles.length > 0 ? tiles[0].length : 0) + " tiles allocated}";
+    }
+}
@@ -0,0 +1,191 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind queue for dirty notes
+ * Repeated saves of the same note before a flush are coalesced into one write,
+ * and notes without unsaved changes are never queued at all
+ * A note whose write fails goes back into the queue and is retried after a delay that
+ * doubles with each failing flush, up to MAX_RETRY_DELAY_MS
+ * Demonstrates Multithreading with a ScheduledExecutorService and Synchronization
+ */
+public class WriteBehindQueue {
+    private static final Metrics.Histogram FLUSH_LATENCY = Metrics.histogram("writeBehind.flush");
+    private static final LongAdder NOTES_WRITTEN = Metrics.counter("writeBehind.notesWritten");
+    private static final LongAdder WRITES_FAILED = Metrics.counter("writeBehind.writesFailed");
+    private static final long MAX_RETRY_DELAY_MS = 60_000;
+
+    private final DatabaseOperations<Note> store;
+    private final long flushDelayMs;
+    private final ScheduledExecutorService executor;
+    private final Object flushLock = new Object();
+
+    // Insertion-ordered; a note already queued is not added twice
+    private final Set<Note> pending = new LinkedHashSet<>();
+    // Taken from pending by the running flush; discard() removes a note here so it is not retried
+    private final Set<Note> writing = new LinkedHashSet<>();
+    private ScheduledFuture<?> scheduledFlush;
+    private long retryDelayMs;
+
+    public WriteBehindQueue(DatabaseOperations<Note> store, long flushDelayMs) {
+        this.store = store;
+        this.flushDelayMs = flushDelayMs;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "WriteBehindThread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queue a note for writing if it has unsaved changes
+     * @return true if the note was dirty and is now queued
+     */
+    public synchronized boolean enqueue(Note note) {
+        if (!note.isDirty()) return false;
+        pending.add(note);
+        if (scheduledFlush == null && !executor.isShutdown()) {
+            scheduledFlush = executor.schedule(this::flush, flushDelayMs, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Ask the background thread to write everything queued without waiting for the delay
+     */
+    public synchronized void requestFlush() {
+        if (pending.isEmpty() || executor.isShutdown()) return;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Drop a queued note, e.g. because it is being deleted
+     */
+    public synchronized void discard(Note note) {
+        pending.remove(note);
+        writing.remove(note);
+    }
+
+    /**
+     * Number of notes waiting to be written
+     */
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Write all queued notes now on the calling thread
+     * Existing notes go out in one batched transaction; if that fails each note is retried alone.
+     * Notes that still fail are queued again for a later flush
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            List<Note> batch;
+            synchronized (this) {
+                scheduledFlush = null;
+                batch = new ArrayList<>(pending);
+                pending.clear();
+                writing.addAll(batch);
+            }
+
+            List<Note> failed = new ArrayList<>();
+            List<Note> updates = new ArrayList<>();
+            for (Note note : batch) {
+                if (!note.isDirty()) continue;
+                if (note.getId() > 0) {
+                    updates.add(note);
+                } else if (!writeOne(note)) {
+                    failed.add(note);
+                }
+            }
+            if (!updates.isEmpty()) {
+                long start = System.nanoTime();
+                try {
+                    store.updateAll(updates);
+                    FLUSH_LATENCY.recordSince(start);
+                    NOTES_WRITTEN.add(updates.size());
+                    System.out.println("Write-behind flushed " + updates.size() + " note(s)");
+                } catch (DatabaseException e) {
+                    // Isolate the failing note(s) so one bad row does not hold back the rest
+                    for (Note note : updates) {
+                        if (!writeOne(note)) failed.add(note);
+                    }
+                }
+            }
+            requeue(failed);
+        }
+    }
+
+    /**
+     * @return false if the write failed; the note is still dirty then
+     */
+    private boolean writeOne(Note note) {
+        try {
+            if (note.getId() > 0) {
+                store.update(note);
+            } else {
+                store.save(note);
+            }
+            return true;
+        } catch (DatabaseException e) {
+            WRITES_FAILED.increment();
+            System.err.println("Write-behind failed for " + note + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Put failed notes back at the front of the queue, unless discarded meanwhile, and
+     * schedule the retry; the delay doubles while flushes keep failing
+     */
+    private synchronized void requeue(List<Note> failed) {
+        List<Note> retry = new ArrayList<>();
+        for (Note note : failed) {
+            if (writing.contains(note)) retry.add(note);
+        }
+        writing.clear();
+        if (retry.isEmpty()) {
+            retryDelayMs = 0;
+            return;
+        }
+        retry.addAll(pending); // saved again while the flush ran; already queued behind these
+        pending.clear();
+        pending.addAll(retry);
+        retryDelayMs = retryDelayMs == 0 ? Math.max(flushDelayMs, 1)
+                : Math.min(retryDelayMs * 2, MAX_RETRY_DELAY_MS);
+        if (executor.isShutdown()) return;
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(this::flush, retryDelayMs, TimeUnit.MILLISECONDS);
+        System.err.println("Write-behind will retry " + retry.size() + " note(s) in " + retryDelayMs + " ms");
+    }
+
+    /**
+     * Stop the background thread and write whatever is still queued
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+            }
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+}